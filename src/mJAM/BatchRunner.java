@@ -0,0 +1,380 @@
+/**
+ * Runs many mJAM object files in one JVM
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Batch mode for regression and grading runs: executes a set of object files
+ * concurrently, each job on a VirtualMachine of its own, instead of starting
+ * a JVM per file.
+ *
+ * usage: java mJAM.BatchRunner [-threads n] [-fuel n] [-slice n] [-datastore n]
+ *            [-gc] [-outdir dir] [-summary file] (directory | manifest)
+ *
+ * A directory runs every .mJAM file in it, each reading the file with the
+ * same name and extension .in as standard input, if there is one.  A
+ * manifest is a text file with one job per line, an object file optionally
+ * followed by an input file, both relative to the manifest; empty lines and
+ * lines starting with # are skipped.
+ *
+ * Jobs run on a work-stealing pool with one thread per core unless -threads
+ * is given.  A job runs for a time slice of -slice instructions (default a
+ * million) and then goes to the back of the queue, so that long runs do not
+ * hold up short ones; with -fuel n, a job that executes more than n
+ * instructions fails with status failedFuelExhausted instead of running
+ * forever.  Each machine has a data store of -datastore words (default 1024),
+ * and collects garbage with -gc.  Each object file is loaded once, however
+ * many jobs run it.  The output of a job, as mJAM.Interpreter would print it,
+ * is written to name.out in the output directory (default batch-out).  The
+ * summary lists one job per line in JSON, in the order of the jobs, on
+ * standard output unless -summary is given:
+ *
+ *     {"job":1,"object":"tests/pass01.mJAM","input":null,"status":"halted",
+ *      "exitCode":0,"instructions":1234,"millis":0.8,"output":"batch-out/pass01.out"}
+ *
+ * exitCode is that of mJAM.Interpreter, 3 if the object file can not be
+ * loaded.
+ */
+public class BatchRunner {
+
+	/**
+	 * One object file to run, with the file to read as standard input
+	 */
+	static final class Job {
+		final int number;
+		final File object;
+		final File input; // or null
+		File output;
+
+		// while running
+		VirtualMachine machine;
+		InputStream in;
+		ByteArrayOutputStream captured;
+		PrintStream out;
+
+		// results
+		String status;
+		int exitCode;
+		long instructions;
+		double millis;
+
+		Job(int number, File object, File input) {
+			this.number = number;
+			this.object = object;
+			this.input = input;
+		}
+	}
+
+	private final Map<String, Program> programs = new ConcurrentHashMap<String, Program>();
+
+	// instruction budget of each job, and instructions per time slice
+	private final long fuel, slice;
+
+	// words in the data store of each machine
+	private final int size;
+
+	// collect garbage, see Collector
+	private final boolean gc;
+
+	BatchRunner(long fuel, long slice, int size, boolean gc) {
+		this.fuel = fuel;
+		this.slice = slice;
+		this.size = size;
+		this.gc = gc;
+	}
+
+	public static void main(String[] args) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		long fuel = VirtualMachine.unlimited, slice = 1000000;
+		int size = VirtualMachine.defaultSize;
+		boolean gc = false;
+		File outDir = new File("batch-out");
+		String summaryFile = null;
+		int argi = 0;
+		try {
+			while (argi < args.length - 1 && args[argi].startsWith("-")) {
+				String option = args[argi++];
+				if (option.equals("-threads"))
+					threads = Integer.parseInt(args[argi++]);
+				else if (option.equals("-fuel"))
+					fuel = Long.parseLong(args[argi++]);
+				else if (option.equals("-slice"))
+					slice = Long.parseLong(args[argi++]);
+				else if (option.equals("-datastore"))
+					size = VirtualMachine.checkSize(Integer.parseInt(args[argi++]));
+				else if (option.equals("-gc"))
+					gc = true;
+				else if (option.equals("-outdir"))
+					outDir = new File(args[argi++]);
+				else if (option.equals("-summary"))
+					summaryFile = args[argi++];
+				else
+					System.out.println("Unknown option " + option);
+			}
+		} catch (RuntimeException e) {
+			argi = args.length;
+		}
+		if (argi != args.length - 1 || threads < 1 || slice < 1) {
+			System.out.println("usage: java mJAM.BatchRunner [-threads n] [-fuel n] [-slice n] "
+					+ "[-datastore n] [-gc] [-outdir dir] [-summary file] (directory | manifest)");
+			System.exit(3);
+		}
+
+		List<Job> jobs;
+		try {
+			jobs = jobs(new File(args[argi]));
+		} catch (IOException e) {
+			System.out.println("Unable to read " + args[argi]);
+			System.exit(3);
+			return;
+		}
+		outDir.mkdirs();
+		assignOutputs(jobs, outDir);
+
+		long start = System.nanoTime();
+		new BatchRunner(fuel, slice, size, gc).runAll(jobs, threads);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		try (PrintStream summary = summaryFile == null ? System.out
+				: new PrintStream(new FileOutputStream(summaryFile))) {
+			for (Job job : jobs)
+				summary.println(summaryLine(job));
+		} catch (IOException e) {
+			System.out.println("Unable to write summary " + summaryFile);
+			System.exit(3);
+		}
+		System.err.printf("%d jobs on %d threads in %.2f s%n", jobs.size(), threads, seconds);
+	}
+
+	/**
+	 * @return the jobs listed by a directory or a manifest
+	 */
+	static List<Job> jobs(File source) throws IOException {
+		List<Job> jobs = new ArrayList<Job>();
+		if (source.isDirectory()) {
+			File[] files = source.listFiles((dir, name) -> name.endsWith(".mJAM"));
+			if (files == null)
+				throw new IOException("cannot list " + source);
+			Arrays.sort(files);
+			for (File object : files) {
+				String name = object.getName();
+				File input = new File(source, name.substring(0, name.length() - 5) + ".in");
+				jobs.add(new Job(jobs.size() + 1, object, input.isFile() ? input : null));
+			}
+			return jobs;
+		}
+		File base = source.getAbsoluteFile().getParentFile();
+		try (BufferedReader reader = new BufferedReader(new FileReader(source))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				String[] fields = line.split("\\s+");
+				File input = fields.length > 1 ? resolve(base, fields[1]) : null;
+				jobs.add(new Job(jobs.size() + 1, resolve(base, fields[0]), input));
+			}
+		}
+		return jobs;
+	}
+
+	private static File resolve(File base, String path) {
+		File file = new File(path);
+		return file.isAbsolute() ? file : new File(base, path);
+	}
+
+	/**
+	 * Names the output file of each job after its object file, adding the
+	 * job number when several jobs run the same name
+	 */
+	static void assignOutputs(List<Job> jobs, File outDir) {
+		Map<String, Integer> uses = new HashMap<String, Integer>();
+		for (Job job : jobs)
+			uses.merge(baseName(job.object), 1, Integer::sum);
+		for (Job job : jobs) {
+			String name = baseName(job.object);
+			if (uses.get(name) > 1)
+				name = name + "-" + job.number;
+			job.output = new File(outDir, name + ".out");
+		}
+	}
+
+	private static String baseName(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+
+	/**
+	 * Runs all jobs and waits for them
+	 */
+	void runAll(List<Job> jobs, int threads) {
+		// FIFO queues, so that a job that yields waits behind the others
+		ForkJoinPool pool = new ForkJoinPool(threads,
+				ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		CountDownLatch done = new CountDownLatch(jobs.size());
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		try {
+			for (Job job : jobs)
+				pool.execute(() -> step(job, pool, done, failure));
+			done.await();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			pool.shutdown();
+		}
+		if (failure.get() != null)
+			throw new IllegalStateException(failure.get());
+	}
+
+	/**
+	 * Runs one time slice of job, starting it first if need be, and queues
+	 * it again if it is still running
+	 */
+	private void step(Job job, ForkJoinPool pool, CountDownLatch done,
+			AtomicReference<Throwable> failure) {
+		try {
+			long start = System.nanoTime();
+			boolean running = job.machine != null || start(job);
+			if (running)
+				running = job.machine.runSlice(slice);
+			job.millis += (System.nanoTime() - start) / 1e6;
+			if (running) {
+				pool.execute(() -> step(job, pool, done, failure));
+				return;
+			}
+			finish(job);
+		} catch (RuntimeException | Error e) {
+			failure.compareAndSet(null, e);
+		}
+		done.countDown();
+	}
+
+	/**
+	 * Sets up a machine of its own for job
+	 * @return false if the job failed before the program could run
+	 */
+	boolean start(Job job) {
+		job.captured = new ByteArrayOutputStream();
+		job.out = new PrintStream(job.captured);
+		job.out.println("********** mJAM Interpreter (Version 2.3) **********");
+		Program program = program(job.object);
+		if (program == null) {
+			job.out.println("Unable to load object file " + job.object);
+			job.status = "loadFailed";
+			job.exitCode = 3;
+			return false;
+		}
+		try {
+			job.in = job.input == null ? InputStream.nullInputStream()
+					: new FileInputStream(job.input);
+		} catch (IOException e) {
+			job.out.println("Unable to read input file " + job.input);
+			job.status = "failedIOError";
+			job.exitCode = 4;
+			return false;
+		}
+		job.machine = new VirtualMachine(program, size, job.in, job.out);
+		job.machine.setFuel(fuel);
+		if (gc)
+			job.machine.enableCollector();
+		return true;
+	}
+
+	/**
+	 * Records the outcome of job and writes its output
+	 */
+	void finish(Job job) {
+		if (job.machine != null) {
+			job.machine.showStatus();
+			VirtualMachine.Result result = job.machine.result();
+			job.status = result.statusName();
+			job.exitCode = result.exitCode();
+			job.instructions = result.instructions;
+			job.machine = null;
+			try {
+				job.in.close();
+			} catch (IOException e) {
+				// input fully read or not needed
+			}
+		}
+		job.out.flush();
+		try (FileOutputStream file = new FileOutputStream(job.output)) {
+			job.captured.writeTo(file);
+		} catch (IOException e) {
+			System.err.println("Unable to write " + job.output);
+		}
+		job.captured = null;
+		job.out = null;
+	}
+
+	/**
+	 * @return the program in object file, loaded on first use, or null if it
+	 * can not be loaded
+	 */
+	private Program program(File object) {
+		String key = object.getAbsolutePath();
+		Program program = programs.get(key);
+		if (program == null) {
+			try {
+				program = Program.load(key);
+			} catch (IOException e) {
+				return null;
+			}
+			Program other = programs.putIfAbsent(key, program);
+			if (other != null)
+				program = other;
+		}
+		return program;
+	}
+
+	// SUMMARY
+
+	static String summaryLine(Job job) {
+		return "{\"job\":" + job.number
+				+ ",\"object\":" + quote(job.object.getPath())
+				+ ",\"input\":" + (job.input == null ? "null" : quote(job.input.getPath()))
+				+ ",\"status\":" + quote(job.status)
+				+ ",\"exitCode\":" + job.exitCode
+				+ ",\"instructions\":" + job.instructions
+				+ ",\"millis\":" + String.format(Locale.ROOT, "%.3f", job.millis)
+				+ ",\"output\":" + quote(job.output.getPath()) + "}";
+	}
+
+	/**
+	 * @return s as a JSON string literal
+	 */
+	static String quote(String s) {
+		StringBuilder q = new StringBuilder("\"");
+		for (char c : s.toCharArray()) {
+			if (c == '"' || c == '\\')
+				q.append('\\').append(c);
+			else if (c < ' ')
+				q.append(String.format("\\u%04x", (int) c));
+			else
+				q.append(c);
+		}
+		return q.append('"').toString();
+	}
+}
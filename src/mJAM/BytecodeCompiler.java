@@ -0,0 +1,1049 @@
+/**
+ * Compiles decoded mJAM routines to JVM bytecode
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import static mJAM.DecodedCode.*;
+import static mJAM.DecodedCode.POP;
+import static mJAM.DecodedCode.RETURN;
+import static mJAM.ClassFileWriter.*;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+
+/**
+ * Translates mJAM routines into static methods of a class under
+ * construction.  A routine is the code reachable from its entry point (CB or
+ * the target of a CALL or CALLI) without following calls; it becomes method
+ * int atE(int entry), where E is its entry point.
+ *
+ * The data store and the ST, LB, OB and HT registers are held in JVM locals,
+ * the code address is implied by the position in the method, and mJAM jumps
+ * become JVM branches.  The link data of calls is still pushed onto the mJAM
+ * stack, so a compiled program leaves exactly the same data store as the
+ * interpreter, including when it fails.  The argument of a method selects
+ * where it starts, which is its own entry point unless the caller asks for
+ * another address listed when the routine was compiled.
+ *
+ * Instructions without a translation (CALLD, JUMPI, SNAPSHOT, instructions
+ * decoded as SLOW, primitives without a decoded form) hand the machine state
+ * to CompiledRuntime.interpret, which runs the rest of the routine in the
+ * interpreter.  So does an allocation that does not fit between stack and
+ * heap, for the interpreter to collect garbage.
+ */
+final class BytecodeCompiler {
+
+	final static String runtime = "mJAM/CompiledRuntime";
+
+	// locals of a compiled method
+	private final static int ENTRY = 0, DATA = 1, ST = 2, LB = 3, OB = 4, HT = 5,
+			T1 = 6, T2 = 7, T3 = 8, LOCALS = 9;
+	private final static int maxStack = 8;
+
+	private final DecodedCode dc;
+	private final ClassFileWriter cf;
+	private ClassFileWriter.Method m;
+	private int[] label; // label of each code address in the current method
+	private boolean tracing; // compiling a trace rather than a routine
+
+	// words allocations leave to the stack, see VirtualMachine.reserve
+	private final int reserve;
+
+	BytecodeCompiler(DecodedCode dc, ClassFileWriter cf) {
+		this.dc = dc;
+		this.cf = cf;
+		this.reserve = Interpreter.machine == null ? 0 : Interpreter.machine.reserve;
+	}
+
+	/**
+	 * @return name of the method compiled from the routine at entry
+	 */
+	static String methodName(int entry) {
+		return "at" + entry;
+	}
+
+	/**
+	 * @return entry points of all routines: CB and the targets of calls
+	 */
+	static BitSet routineEntries(DecodedCode dc) {
+		BitSet entries = new BitSet(dc.CT + 1);
+		entries.set(Machine.CB);
+		for (int addr = Machine.CB; addr < dc.CT; addr++) {
+			int op = dc.unfused(addr);
+			if (op == CALL || op == CALLI)
+				entries.set(dc.d[addr]);
+		}
+		return entries;
+	}
+
+	/**
+	 * @return addresses reachable from entry without following calls
+	 */
+	static BitSet routineBody(DecodedCode dc, int entry) {
+		BitSet body = new BitSet(dc.CT + 1);
+		Deque<Integer> work = new ArrayDeque<Integer>();
+		work.push(entry);
+		while (!work.isEmpty()) {
+			int addr = work.pop();
+			if (body.get(addr))
+				continue;
+			body.set(addr);
+			int op = dc.unfused(addr);
+			if (isBranch(op))
+				work.push(dc.d[addr]);
+			if (fallsThrough(op))
+				work.push(addr + 1);
+		}
+		return body;
+	}
+
+	private static boolean isBranch(int op) {
+		switch (op) {
+		case JUMP:
+		case JUMPIF:
+		case JUMPNE:
+		case JUMPLT:
+		case JUMPLE:
+		case JUMPGE:
+		case JUMPGT:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if compiled code for op can continue with the next
+	 * instruction
+	 */
+	static boolean fallsThrough(int op) {
+		switch (op) {
+		case JUMP:
+		case RETURN:
+		case HALT:
+		case END:
+			return false;
+		default:
+			return translates(op);
+		}
+	}
+
+	/**
+	 * @return true if decoded operation op is compiled, rather than passed to
+	 * the interpreter
+	 */
+	static boolean translates(int op) {
+		switch (op) {
+		case SLOW:
+		case PRIM:
+		case CALLD:
+		case JUMPI:
+		case SNAPSHOT:
+		case P_SUCC:
+		case P_PRED:
+			return false;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Compiles the routine at entry.  If its method would be too large, a
+	 * method that runs the routine in the interpreter is compiled instead.
+	 * @param entries  addresses of body the method can be started at,
+	 * including entry
+	 * @return false if the routine was too large
+	 */
+	boolean compileRoutine(int entry, BitSet body, BitSet entries) {
+		tracing = false;
+		m = cf.method(methodName(entry), "(I)I", maxStack, LOCALS);
+		label = new int[dc.CT + 1];
+		for (int addr = body.nextSetBit(0); addr >= 0; addr = body.nextSetBit(addr + 1))
+			label[addr] = m.newLabel();
+
+		// prologue: load the registers and start at the requested address
+		reload();
+		m.iconst(0);
+		m.istore(T1);
+		m.iconst(0);
+		m.istore(T2);
+		m.iconst(0);
+		m.istore(T3);
+		int[] keys = new int[entries.cardinality()];
+		int[] targets = new int[keys.length];
+		int i = 0;
+		for (int addr = entries.nextSetBit(0); addr >= 0; addr = entries.nextSetBit(addr + 1)) {
+			keys[i] = addr;
+			targets[i++] = label[addr];
+		}
+		int elsewhere = m.newLabel();
+		m.iload(ENTRY);
+		m.lookupswitch(keys, targets, elsewhere);
+		m.mark(elsewhere);
+		m.invokestatic(runtime, "interpret", "()I");
+		m.op(IRETURN);
+
+		for (int addr = body.nextSetBit(0); addr >= 0; addr = body.nextSetBit(addr + 1)) {
+			m.mark(label[addr]);
+			instruction(addr);
+			if (m.tooLarge()) {
+				stub(entry);
+				return false;
+			}
+		}
+		m.end();
+		return true;
+	}
+
+	/**
+	 * Compiles a method for the routine at entry that runs it in the
+	 * interpreter
+	 */
+	void stub(int entry) {
+		m = cf.method(methodName(entry), "(I)I", maxStack, LOCALS);
+		m.invokestatic(runtime, "interpret", "()I");
+		m.op(IRETURN);
+		m.end();
+	}
+
+	/**
+	 * @return name of the method compiled from the trace of loop header
+	 */
+	static String traceName(int header) {
+		return "trace" + header;
+	}
+
+	/**
+	 * Compiles a trace recorded by Tracer: the instructions executed in one
+	 * iteration of the loop at header, in order, including those of the
+	 * routines it called.  Calls and returns only move the frame, jumps
+	 * disappear and every conditional jump becomes a guard that leaves the
+	 * trace (a side exit) when it goes the other way than recorded.  The
+	 * method loops until a guard or a failure stops it; at a side exit it
+	 * writes back the registers and returns the code address the interpreter
+	 * has to continue at.
+	 * @param trace  code addresses, starting at header, all of them
+	 * translated
+	 * @return false if the method would be too large
+	 */
+	boolean compileTrace(int header, int[] trace) {
+		tracing = true;
+		m = cf.method(traceName(header), "(I)I", maxStack, LOCALS);
+		reload();
+		m.iconst(0);
+		m.istore(T1);
+		m.iconst(0);
+		m.istore(T2);
+		m.iconst(0);
+		m.istore(T3);
+		int loop = m.newLabel();
+		m.mark(loop);
+
+		int[] exitLabel = new int[trace.length], exitTo = new int[trace.length];
+		int exits = 0;
+		for (int i = 0; i < trace.length; i++) {
+			int addr = trace[i], next = i + 1 < trace.length ? trace[i + 1] : header;
+			int op = dc.unfused(addr);
+			switch (op) {
+			case JUMP:
+				break;
+			case JUMPIF:
+			case JUMPNE:
+			case JUMPLT:
+			case JUMPLE:
+			case JUMPGE:
+			case JUMPGT:
+				m.iinc(ST, -1);
+				if (dc.d[addr] == addr + 1)
+					break;
+				// leave the trace where the recorded iteration did not go
+				boolean taken = next == dc.d[addr];
+				exitLabel[exits] = m.newLabel();
+				exitTo[exits] = taken ? addr + 1 : dc.d[addr];
+				loadTop(0);
+				m.iconst(dc.n[addr]);
+				m.jump(taken ? inverse(condition(op)) : condition(op), exitLabel[exits++]);
+				break;
+			case CALL:
+				linkCall(addr);
+				break;
+			case CALLI:
+				linkCallI(addr);
+				break;
+			case RETURN:
+				// guard on the link data, as after a compiled call
+				unlink(dc.n[addr], dc.d[addr]);
+				int back = m.newLabel();
+				m.iload(T2);
+				m.iconst(next);
+				m.jump(IF_ICMPEQ, back);
+				returnTo();
+				m.mark(back);
+				break;
+			default:
+				instruction(addr);
+				break;
+			}
+			if (m.tooLarge())
+				return false;
+		}
+		m.jump(GOTO, loop);
+
+		for (int i = 0; i < exits; i++) {
+			m.mark(exitLabel[i]);
+			sync(exitTo[i]);
+			m.iconst(exitTo[i]);
+			m.op(IRETURN);
+		}
+		if (m.tooLarge())
+			return false;
+		m.end();
+		return true;
+	}
+
+	/**
+	 * @return JVM comparison that takes conditional jump op
+	 */
+	private static int condition(int op) {
+		switch (op) {
+		case JUMPIF:
+			return IF_ICMPEQ;
+		case JUMPNE:
+			return IF_ICMPNE;
+		case JUMPLT:
+			return IF_ICMPLT;
+		case JUMPLE:
+			return IF_ICMPLE;
+		case JUMPGE:
+			return IF_ICMPGE;
+		default:
+			return IF_ICMPGT;
+		}
+	}
+
+	private static int inverse(int opcode) {
+		switch (opcode) {
+		case IF_ICMPEQ:
+			return IF_ICMPNE;
+		case IF_ICMPNE:
+			return IF_ICMPEQ;
+		case IF_ICMPLT:
+			return IF_ICMPGE;
+		case IF_ICMPGE:
+			return IF_ICMPLT;
+		case IF_ICMPLE:
+			return IF_ICMPGT;
+		default:
+			return IF_ICMPLE;
+		}
+	}
+
+	// CODE PATTERNS
+
+	private void reload() {
+		m.invokestatic(runtime, "data", "()[I");
+		m.astore(DATA);
+		m.invokestatic(runtime, "st", "()I");
+		m.istore(ST);
+		m.invokestatic(runtime, "lb", "()I");
+		m.istore(LB);
+		m.invokestatic(runtime, "ob", "()I");
+		m.istore(OB);
+		m.invokestatic(runtime, "ht", "()I");
+		m.istore(HT);
+	}
+
+	/**
+	 * Writes back the registers with the code address on the stack
+	 */
+	private void syncWithCp() {
+		m.iload(ST);
+		m.iload(LB);
+		m.iload(OB);
+		m.iload(HT);
+		m.invokestatic(runtime, "sync", "(IIIII)V");
+	}
+
+	private void sync(int cp) {
+		m.iconst(cp);
+		syncWithCp();
+	}
+
+	/**
+	 * Stops the program with status at code address cp
+	 */
+	private void fail(int status, int cp) {
+		sync(cp);
+		m.iconst(status);
+		m.invokestatic(runtime, "stop", "(I)I");
+		m.op(IRETURN);
+	}
+
+	/**
+	 * Continues the program in the interpreter at code address cp
+	 */
+	private void deopt(int cp) {
+		sync(cp);
+		m.invokestatic(runtime, "interpret", "()I");
+		m.op(IRETURN);
+	}
+
+	/**
+	 * Continues the program in the interpreter at code address cp: a routine
+	 * deoptimizes, a trace takes a side exit
+	 */
+	private void leave(int cp) {
+		if (!tracing) {
+			deopt(cp);
+			return;
+		}
+		sync(cp);
+		m.iconst(cp);
+		m.op(IRETURN);
+	}
+
+	/**
+	 * Fails at cp unless there are n free words between stack and heap
+	 */
+	private void checkSpace(int n, int cp) {
+		int ok = m.newLabel();
+		m.iload(HT);
+		m.iload(ST);
+		m.op(ISUB);
+		m.iconst(n);
+		m.jump(IF_ICMPGE, ok);
+		fail(Interpreter.failedDataStoreFull, cp);
+		m.mark(ok);
+	}
+
+	/**
+	 * Fails at cp with the status on the stack unless it is 0
+	 */
+	private void checked(int cp) {
+		int ok = m.newLabel();
+		m.istore(T3);
+		m.iload(T3);
+		m.jump(IFEQ, ok);
+		sync(cp);
+		m.iload(T3);
+		m.invokestatic(runtime, "stop", "(I)I");
+		m.op(IRETURN);
+		m.mark(ok);
+	}
+
+	private void addConst(int v) {
+		if (v != 0) {
+			m.iconst(v);
+			m.op(IADD);
+		}
+	}
+
+	/**
+	 * Pushes data, ST - k, ready for a value and IASTORE
+	 */
+	private void topSlot(int k) {
+		m.aload(DATA);
+		m.iload(ST);
+		addConst(-k);
+	}
+
+	/**
+	 * Pushes data[ST - k]
+	 */
+	private void loadTop(int k) {
+		topSlot(k);
+		m.op(IALOAD);
+	}
+
+	/**
+	 * Pops the two operands of a binary primitive into T1 and T2
+	 */
+	private void pop2() {
+		m.iinc(ST, -1);
+		loadTop(1);
+		m.istore(T1);
+		loadTop(0);
+		m.istore(T2);
+	}
+
+	/**
+	 * Stores local into the stack top
+	 */
+	private void storeTop(int local) {
+		topSlot(1);
+		m.iload(local);
+		m.op(IASTORE);
+	}
+
+	/**
+	 * Clears the stack top and fails with overflow at cp
+	 */
+	private void overflow(int cp) {
+		topSlot(1);
+		m.iconst(0);
+		m.op(IASTORE);
+		fail(Interpreter.failedOverflow, cp);
+	}
+
+	/**
+	 * Pushes the int on the JVM stack, evaluated by value, onto the mJAM stack
+	 */
+	private void push(Runnable value, int cp) {
+		checkSpace(1, cp);
+		topSlot(0);
+		value.run();
+		m.op(IASTORE);
+		m.iinc(ST, 1);
+	}
+
+	/**
+	 * Calls the compiled routine at target, with the link data already on
+	 * the mJAM stack, and continues at ret when it returns there
+	 */
+	private void call(int target, int ret) {
+		int back = m.newLabel(), stop = m.newLabel();
+		sync(target);
+		m.iconst(target);
+		m.invokestatic(cf.name, methodName(target), "(I)I");
+		m.istore(T3);
+		m.iload(T3);
+		m.iconst(ret);
+		m.jump(IF_ICMPEQ, back);
+		m.iload(T3);
+		m.jump(IFLT, stop);
+		m.invokestatic(runtime, "interpret", "()I");
+		m.op(IRETURN);
+		m.mark(stop);
+		m.iconst(CompiledRuntime.STOP);
+		m.op(IRETURN);
+		m.mark(back);
+		reload();
+	}
+
+	/**
+	 * Pushes the link data of the CALL at addr and sets up the callee frame
+	 */
+	private void linkCall(int addr) {
+		checkSpace(3, addr);
+		topSlot(0);
+		m.iload(OB);
+		m.op(IASTORE);
+		topSlot(-1);
+		m.iload(LB);
+		m.op(IASTORE);
+		topSlot(-2);
+		m.iconst(addr + 1);
+		m.op(IASTORE);
+		m.iconst(Machine.nullRep);
+		m.istore(OB);
+		m.iload(ST);
+		m.istore(LB);
+		m.iinc(ST, 3);
+	}
+
+	/**
+	 * Pushes the link data of the CALLI at addr, in place of the instance
+	 * on the stack, and sets up the callee frame
+	 */
+	private void linkCallI(int addr) {
+		checkSpace(2, addr);
+		loadTop(1);
+		m.istore(T1);
+		topSlot(1);
+		m.iload(OB);
+		m.op(IASTORE);
+		topSlot(0);
+		m.iload(LB);
+		m.op(IASTORE);
+		topSlot(-1);
+		m.iconst(addr + 1);
+		m.op(IASTORE);
+		m.iload(T1);
+		m.istore(OB);
+		m.iload(ST);
+		addConst(-1);
+		m.istore(LB);
+		m.iinc(ST, 2);
+	}
+
+	/**
+	 * Pops the current frame for a RETURN with result size n and d method
+	 * args, leaving the return address in T2
+	 */
+	private void unlink(int n, int d) {
+		m.iload(LB);
+		addConst(-d);
+		m.istore(T1);
+		m.aload(DATA);
+		m.iload(LB);
+		addConst(2);
+		m.op(IALOAD);
+		m.istore(T2);
+		m.aload(DATA);
+		m.iload(LB);
+		m.op(IALOAD);
+		m.istore(OB);
+		m.aload(DATA);
+		m.iload(LB);
+		addConst(1);
+		m.op(IALOAD);
+		m.istore(LB);
+		if (n == 1) {
+			m.aload(DATA);
+			m.iload(T1);
+			loadTop(1);
+			m.op(IASTORE);
+		}
+		m.iload(T1);
+		addConst(n);
+		m.istore(ST);
+	}
+
+	/**
+	 * Returns from the compiled method to the return address in T2, or fails
+	 * if it is not a code address
+	 */
+	private void returnTo() {
+		int bad = m.newLabel();
+		m.iload(T2);
+		m.iconst(Machine.CB);
+		m.jump(IF_ICMPLT, bad);
+		m.iload(T2);
+		m.iconst(dc.CT);
+		m.jump(IF_ICMPGE, bad);
+		m.iload(T2);
+		syncWithCp();
+		m.iload(T2);
+		m.op(IRETURN);
+		m.mark(bad);
+		m.iload(T2);
+		syncWithCp();
+		m.iconst(Interpreter.failedInvalidCodeAddress);
+		m.invokestatic(runtime, "stop", "(I)I");
+		m.op(IRETURN);
+	}
+
+	private void compare(String primitive) {
+		pop2();
+		topSlot(1);
+		m.iload(T1);
+		m.iload(T2);
+		m.invokestatic(runtime, primitive, "(II)I");
+		m.op(IASTORE);
+	}
+
+	private void branch(int opcode, int n, int target) {
+		m.iinc(ST, -1);
+		loadTop(0);
+		m.iconst(n);
+		m.jump(opcode, label[target]);
+	}
+
+	// INSTRUCTIONS
+
+	private void instruction(final int addr) {
+		final int d = dc.d[addr], n = dc.n[addr], next = addr + 1;
+		int ok = m.newLabel();
+
+		switch (dc.unfused(addr)) {
+		case LOAD_ABS:
+			push(() -> {
+				m.aload(DATA);
+				m.iconst(d);
+				m.op(IALOAD);
+			}, addr);
+			break;
+		case LOAD_LB:
+			push(() -> {
+				m.aload(DATA);
+				m.iload(LB);
+				addConst(d);
+				m.op(IALOAD);
+			}, addr);
+			break;
+		case LOAD_OB:
+			push(() -> {
+				m.aload(DATA);
+				m.iload(OB);
+				addConst(d);
+				m.op(IALOAD);
+			}, addr);
+			break;
+		case LOADA_LB:
+			push(() -> {
+				m.iload(LB);
+				addConst(d);
+			}, addr);
+			break;
+		case LOADA_OB:
+			push(() -> {
+				m.iload(OB);
+				addConst(d);
+			}, addr);
+			break;
+		case LOADL:
+			push(() -> m.iconst(d), addr);
+			break;
+		case LOADI:
+			topSlot(1);
+			m.aload(DATA);
+			loadTop(1);
+			m.op(IALOAD);
+			m.op(IASTORE);
+			break;
+		case STORE_ABS:
+			m.iinc(ST, -1);
+			m.aload(DATA);
+			m.iconst(d);
+			loadTop(0);
+			m.op(IASTORE);
+			break;
+		case STORE_LB:
+		case STORE_OB:
+			m.iinc(ST, -1);
+			m.aload(DATA);
+			m.iload(dc.unfused(addr) == STORE_LB ? LB : OB);
+			addConst(d);
+			loadTop(0);
+			m.op(IASTORE);
+			break;
+		case STOREI:
+			m.iinc(ST, -2);
+			m.aload(DATA);
+			loadTop(-1);
+			loadTop(0);
+			m.op(IASTORE);
+			break;
+		case CALL:
+			linkCall(addr);
+			call(d, next);
+			break;
+		case CALLI:
+			linkCallI(addr);
+			call(d, next);
+			break;
+		case RETURN:
+			unlink(n, d);
+			returnTo();
+			break;
+		case PUSH:
+			checkSpace(d, addr);
+			m.iinc(ST, d);
+			break;
+		case POP:
+			m.iinc(ST, -d);
+			break;
+		case JUMP:
+			m.jump(GOTO, label[d]);
+			break;
+		case JUMPIF:
+			branch(IF_ICMPEQ, n, d);
+			break;
+		case JUMPNE:
+			branch(IF_ICMPNE, n, d);
+			break;
+		case JUMPLT:
+			branch(IF_ICMPLT, n, d);
+			break;
+		case JUMPLE:
+			branch(IF_ICMPLE, n, d);
+			break;
+		case JUMPGE:
+			branch(IF_ICMPGE, n, d);
+			break;
+		case JUMPGT:
+			branch(IF_ICMPGT, n, d);
+			break;
+		case HALT:
+			fail(Interpreter.halted, addr);
+			break;
+		case END:
+			fail(Interpreter.failedInvalidCodeAddress, addr);
+			break;
+
+		// primitives
+		case P_ID:
+			break;
+		case P_NOT:
+			topSlot(1);
+			loadTop(1);
+			m.invokestatic(runtime, "not", "(I)I");
+			m.op(IASTORE);
+			break;
+		case P_AND:
+			compare("and");
+			break;
+		case P_OR:
+			compare("or");
+			break;
+		case P_LT:
+			compare("lt");
+			break;
+		case P_LE:
+			compare("le");
+			break;
+		case P_GE:
+			compare("ge");
+			break;
+		case P_GT:
+			compare("gt");
+			break;
+		case P_EQ:
+			compare("eq");
+			break;
+		case P_NE:
+			compare("ne");
+			break;
+		case P_NEG:
+			loadTop(1);
+			m.istore(T1);
+			m.iload(T1);
+			m.iconst(Integer.MIN_VALUE);
+			m.jump(IF_ICMPNE, ok);
+			overflow(next);
+			m.mark(ok);
+			topSlot(1);
+			m.iload(T1);
+			m.op(INEG);
+			m.op(IASTORE);
+			break;
+		case P_ADD:
+			// overflow if both operands differ in sign from the result
+			pop2();
+			m.iload(T1);
+			m.iload(T2);
+			m.op(IADD);
+			m.istore(T3);
+			m.iload(T1);
+			m.iload(T3);
+			m.op(IXOR);
+			m.iload(T2);
+			m.iload(T3);
+			m.op(IXOR);
+			m.op(IAND);
+			m.jump(IFGE, ok);
+			overflow(next);
+			m.mark(ok);
+			storeTop(T3);
+			break;
+		case P_SUB:
+			// overflow if the operands differ in sign and the result differs
+			// in sign from the first
+			pop2();
+			m.iload(T1);
+			m.iload(T2);
+			m.op(ISUB);
+			m.istore(T3);
+			m.iload(T1);
+			m.iload(T2);
+			m.op(IXOR);
+			m.iload(T1);
+			m.iload(T3);
+			m.op(IXOR);
+			m.op(IAND);
+			m.jump(IFGE, ok);
+			overflow(next);
+			m.mark(ok);
+			storeTop(T3);
+			break;
+		case P_MULT:
+			pop2();
+			m.iload(T1);
+			m.op(I2L);
+			m.iload(T2);
+			m.op(I2L);
+			m.op(LMUL);
+			m.op(DUP2);
+			m.op(L2I);
+			m.istore(T3);
+			m.iload(T3);
+			m.op(I2L);
+			m.op(LCMP);
+			m.jump(IFEQ, ok);
+			overflow(next);
+			m.mark(ok);
+			storeTop(T3);
+			break;
+		case P_DIV:
+		case P_MOD:
+			pop2();
+			m.iload(T2);
+			m.jump(IFNE, ok);
+			fail(Interpreter.failedZeroDivide, next);
+			m.mark(ok);
+			topSlot(1);
+			m.iload(T1);
+			m.iload(T2);
+			m.op(dc.unfused(addr) == P_DIV ? IDIV : IREM);
+			m.op(IASTORE);
+			break;
+		case P_NEWOBJ:
+		case P_NEWARR:
+			// T1 = size including the two header words
+			loadTop(1);
+			addConst(2);
+			m.istore(T1);
+			m.iload(HT);
+			m.iload(ST);
+			m.op(ISUB);
+			m.iload(T1);
+			addConst(reserve);
+			m.jump(IF_ICMPGE, ok);
+			leave(addr);
+			m.mark(ok);
+			m.iload(HT);
+			m.iload(T1);
+			m.op(ISUB);
+			m.istore(HT);
+			m.aload(DATA);
+			m.iload(HT);
+			if (dc.unfused(addr) == P_NEWOBJ)
+				loadTop(2);
+			else
+				m.iconst(-2);
+			m.op(IASTORE);
+			m.aload(DATA);
+			m.iload(HT);
+			addConst(1);
+			m.iload(T1);
+			addConst(-2);
+			m.op(IASTORE);
+			if (dc.unfused(addr) == P_NEWOBJ) {
+				topSlot(2);
+				m.iload(HT);
+				addConst(2);
+				m.op(IASTORE);
+				m.iinc(ST, -1);
+			} else {
+				topSlot(1);
+				m.iload(HT);
+				addConst(2);
+				m.op(IASTORE);
+			}
+			m.aload(DATA);
+			m.iload(HT);
+			addConst(2);
+			m.iload(HT);
+			m.iload(T1);
+			m.op(IADD);
+			m.invokestatic(runtime, "clear", "([III)V");
+			break;
+		case P_ARRAYLEN:
+			loadTop(1);
+			m.istore(T1);
+			m.aload(DATA);
+			m.iload(T1);
+			m.iload(HT);
+			m.invokestatic(runtime, "checkArrayLength", "([III)I");
+			checked(next);
+			topSlot(1);
+			m.aload(DATA);
+			m.iload(T1);
+			addConst(-1);
+			m.op(IALOAD);
+			m.op(IASTORE);
+			break;
+		case P_ARRAYREF:
+		case P_FIELDREF:
+			loadTop(2);
+			m.istore(T1);
+			loadTop(1);
+			m.istore(T2);
+			m.aload(DATA);
+			m.iload(T1);
+			m.iload(T2);
+			m.iload(HT);
+			m.invokestatic(runtime, dc.unfused(addr) == P_ARRAYREF ? "checkArray"
+					: "checkField", "([IIII)I");
+			checked(next);
+			topSlot(2);
+			m.aload(DATA);
+			m.iload(T1);
+			m.iload(T2);
+			m.op(IADD);
+			m.op(IALOAD);
+			m.op(IASTORE);
+			m.iinc(ST, -1);
+			break;
+		case P_ARRAYUPD:
+		case P_FIELDUPD:
+			loadTop(3);
+			m.istore(T1);
+			loadTop(2);
+			m.istore(T2);
+			m.aload(DATA);
+			m.iload(T1);
+			m.iload(T2);
+			m.iload(HT);
+			m.invokestatic(runtime, dc.unfused(addr) == P_ARRAYUPD ? "checkArray"
+					: "checkField", "([IIII)I");
+			checked(next);
+			m.aload(DATA);
+			m.iload(T1);
+			m.iload(T2);
+			m.op(IADD);
+			loadTop(1);
+			m.op(IASTORE);
+			m.iinc(ST, -3);
+			break;
+		case P_PUTINTNL:
+			m.iinc(ST, -1);
+			loadTop(0);
+			m.invokestatic(runtime, "putintnl", "(I)V");
+			break;
+
+		// immediate forms
+		case ADDL:
+			// with d >= 0 the sum cannot be smaller, with d < 0 not larger
+			loadTop(1);
+			m.istore(T1);
+			m.iload(T1);
+			addConst(d);
+			m.istore(T3);
+			m.iload(T3);
+			m.iload(T1);
+			m.jump(d >= 0 ? IF_ICMPGE : IF_ICMPLT, ok);
+			overflow(next);
+			m.mark(ok);
+			storeTop(T3);
+			break;
+		case FIELDREFL:
+			loadTop(1);
+			m.istore(T1);
+			m.aload(DATA);
+			m.iload(T1);
+			m.iconst(d);
+			m.iload(HT);
+			m.invokestatic(runtime, "checkField", "([IIII)I");
+			checked(next);
+			topSlot(1);
+			m.aload(DATA);
+			m.iload(T1);
+			addConst(d);
+			m.op(IALOAD);
+			m.op(IASTORE);
+			break;
+		case FIELDUPDL:
+			loadTop(2);
+			m.istore(T1);
+			m.aload(DATA);
+			m.iload(T1);
+			m.iconst(d);
+			m.iload(HT);
+			m.invokestatic(runtime, "checkField", "([IIII)I");
+			checked(next);
+			m.aload(DATA);
+			m.iload(T1);
+			addConst(d);
+			loadTop(1);
+			m.op(IASTORE);
+			m.iinc(ST, -2);
+			break;
+		default:
+			deopt(addr);
+			break;
+		}
+	}
+}
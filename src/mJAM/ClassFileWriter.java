@@ -0,0 +1,349 @@
+/**
+ * Minimal writer for JVM class files
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a class file with static methods only, just enough for the code
+ * produced by BytecodeCompiler.
+ *
+ * Class files are written in version 49 (Java 5), which is still loaded by
+ * current JVMs and is checked by the type inferencing verifier, so no stack
+ * map frames have to be computed.  Branch offsets are 16 bit, a method whose
+ * code grows beyond 32K bytes is reported by Method.tooLarge and has to be
+ * replaced by the caller.
+ */
+final class ClassFileWriter {
+
+	// class file versions and access flags
+	final static int version = 49;
+	final static int ACC_PUBLIC = 0x0001, ACC_STATIC = 0x0008,
+			ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+	// JVM opcodes used by the compiler
+	final static int
+		ICONST_0 = 3, BIPUSH = 16, SIPUSH = 17, LDC = 18, LDC_W = 19,
+		ILOAD = 21, ALOAD = 25, ISTORE = 54, ASTORE = 58,
+		IALOAD = 46, IASTORE = 79, DUP2 = 92,
+		IADD = 96, ISUB = 100, LMUL = 105, IDIV = 108, IREM = 112,
+		INEG = 116, IAND = 126, IXOR = 130, IINC = 132,
+		I2L = 133, L2I = 136, LCMP = 148,
+		IFEQ = 153, IFNE = 154, IFLT = 155, IFGE = 156,
+		IF_ICMPEQ = 159, IF_ICMPNE = 160, IF_ICMPLT = 161, IF_ICMPGE = 162,
+		IF_ICMPGT = 163, IF_ICMPLE = 164,
+		GOTO = 167, LOOKUPSWITCH = 171, IRETURN = 172, RETURN = 177,
+		INVOKEVIRTUAL = 182, INVOKESTATIC = 184;
+
+	// constant pool tags
+	private final static int CONSTANT_Utf8 = 1, CONSTANT_Integer = 3,
+			CONSTANT_Class = 7, CONSTANT_String = 8, CONSTANT_Methodref = 10,
+			CONSTANT_NameAndType = 12;
+
+	final String name; // internal name, e.g. mJAM/Compiled
+
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream poolOut = new DataOutputStream(pool);
+	private final Map<String, Integer> poolIndex = new HashMap<String, Integer>();
+	private int poolCount = 1;
+	private final List<byte[]> methods = new ArrayList<byte[]>();
+
+	ClassFileWriter(String name) {
+		this.name = name;
+	}
+
+	// CONSTANT POOL
+
+	private int constant(String key, int tag, int a, int b, String utf) {
+		Integer index = poolIndex.get(key);
+		if (index != null)
+			return index;
+		try {
+			poolOut.writeByte(tag);
+			switch (tag) {
+			case CONSTANT_Utf8:
+				poolOut.writeUTF(utf);
+				break;
+			case CONSTANT_Integer:
+				poolOut.writeInt(a);
+				break;
+			case CONSTANT_Class:
+			case CONSTANT_String:
+				poolOut.writeShort(a);
+				break;
+			default:
+				poolOut.writeShort(a);
+				poolOut.writeShort(b);
+				break;
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+		poolIndex.put(key, poolCount);
+		return poolCount++;
+	}
+
+	int utf8(String s) {
+		return constant("U" + s, CONSTANT_Utf8, 0, 0, s);
+	}
+
+	int integer(int v) {
+		return constant("I" + v, CONSTANT_Integer, v, 0, null);
+	}
+
+	int classRef(String internalName) {
+		return constant("C" + internalName, CONSTANT_Class, utf8(internalName), 0, null);
+	}
+
+	int string(String s) {
+		return constant("S" + s, CONSTANT_String, utf8(s), 0, null);
+	}
+
+	private int nameAndType(String name, String desc) {
+		return constant("N" + name + " " + desc, CONSTANT_NameAndType,
+				utf8(name), utf8(desc), null);
+	}
+
+	int methodRef(String owner, String name, String desc) {
+		return constant("M" + owner + "." + name + " " + desc, CONSTANT_Methodref,
+				classRef(owner), nameAndType(name, desc), null);
+	}
+
+	// METHODS
+
+	/**
+	 * Starts a public static method, added to the class by Method.end
+	 */
+	Method method(String name, String desc, int maxStack, int maxLocals) {
+		return new Method(name, desc, maxStack, maxLocals);
+	}
+
+	/**
+	 * Code of one method under construction
+	 */
+	final class Method {
+		final String name, desc;
+		private final int maxStack, maxLocals;
+		private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+		private final List<Integer> labels = new ArrayList<Integer>();
+		// branches to patch: position of the opcode, position of the 16 bit
+		// offset (or -1 - position of a 32 bit switch offset), label
+		private final List<int[]> fixups = new ArrayList<int[]>();
+
+		private Method(String name, String desc, int maxStack, int maxLocals) {
+			this.name = name;
+			this.desc = desc;
+			this.maxStack = maxStack;
+			this.maxLocals = maxLocals;
+		}
+
+		/**
+		 * @return true if the code is too large for 16 bit branch offsets
+		 */
+		boolean tooLarge() {
+			return code.size() > Short.MAX_VALUE;
+		}
+
+		void op(int opcode) {
+			code.write(opcode);
+		}
+
+		void op1(int opcode, int operand) {
+			code.write(opcode);
+			code.write(operand);
+		}
+
+		void op2(int opcode, int operand) {
+			code.write(opcode);
+			code.write(operand >> 8);
+			code.write(operand);
+		}
+
+		/**
+		 * Pushes int constant v
+		 */
+		void iconst(int v) {
+			if (v >= -1 && v <= 5)
+				op(ICONST_0 + v);
+			else if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE)
+				op1(BIPUSH, v);
+			else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE)
+				op2(SIPUSH, v);
+			else
+				ldc(integer(v));
+		}
+
+		void ldc(int index) {
+			if (index < 256)
+				op1(LDC, index);
+			else
+				op2(LDC_W, index);
+		}
+
+		void iload(int local) {
+			op1(ILOAD, local);
+		}
+
+		void istore(int local) {
+			op1(ISTORE, local);
+		}
+
+		void aload(int local) {
+			op1(ALOAD, local);
+		}
+
+		void astore(int local) {
+			op1(ASTORE, local);
+		}
+
+		/**
+		 * Adds constant v to int local
+		 */
+		void iinc(int local, int v) {
+			if (v == 0)
+				return;
+			if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+				code.write(IINC);
+				code.write(local);
+				code.write(v);
+			} else {
+				iload(local);
+				iconst(v);
+				op(IADD);
+				istore(local);
+			}
+		}
+
+		void invokestatic(String owner, String name, String desc) {
+			op2(INVOKESTATIC, methodRef(owner, name, desc));
+		}
+
+		int newLabel() {
+			labels.add(-1);
+			return labels.size() - 1;
+		}
+
+		void mark(int label) {
+			labels.set(label, code.size());
+		}
+
+		/**
+		 * Emits branch instruction opcode to label
+		 */
+		void jump(int opcode, int label) {
+			int at = code.size();
+			code.write(opcode);
+			fixups.add(new int[] { at, code.size(), label });
+			code.write(0);
+			code.write(0);
+		}
+
+		/**
+		 * Emits a lookupswitch on the int on the stack
+		 * @param keys    ascending keys
+		 * @param targets label for each key
+		 */
+		void lookupswitch(int[] keys, int[] targets, int otherwise) {
+			int at = code.size();
+			code.write(LOOKUPSWITCH);
+			while (code.size() % 4 != 0)
+				code.write(0);
+			switchOffset(at, otherwise);
+			writeInt(keys.length);
+			for (int i = 0; i < keys.length; i++) {
+				writeInt(keys[i]);
+				switchOffset(at, targets[i]);
+			}
+		}
+
+		private void switchOffset(int at, int label) {
+			fixups.add(new int[] { at, -code.size() - 1, label });
+			writeInt(0);
+		}
+
+		private void writeInt(int v) {
+			code.write(v >> 24);
+			code.write(v >> 16);
+			code.write(v >> 8);
+			code.write(v);
+		}
+
+		/**
+		 * Resolves the branches and adds the method to the class
+		 */
+		void end() {
+			if (tooLarge())
+				throw new IllegalStateException("method " + name + " too large");
+			byte[] bytes = code.toByteArray();
+			for (int[] f : fixups) {
+				int offset = labels.get(f[2]) - f[0];
+				if (f[1] >= 0) {
+					bytes[f[1]] = (byte) (offset >> 8);
+					bytes[f[1] + 1] = (byte) offset;
+				} else {
+					int p = -f[1] - 1;
+					bytes[p] = (byte) (offset >> 24);
+					bytes[p + 1] = (byte) (offset >> 16);
+					bytes[p + 2] = (byte) (offset >> 8);
+					bytes[p + 3] = (byte) offset;
+				}
+			}
+			ByteArrayOutputStream m = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(m);
+			try {
+				out.writeShort(ACC_PUBLIC | ACC_STATIC);
+				out.writeShort(utf8(name));
+				out.writeShort(utf8(desc));
+				out.writeShort(1); // attributes: Code
+				out.writeShort(utf8("Code"));
+				out.writeInt(12 + bytes.length);
+				out.writeShort(maxStack);
+				out.writeShort(maxLocals);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				out.writeShort(0); // exception table
+				out.writeShort(0); // attributes
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			methods.add(m.toByteArray());
+		}
+	}
+
+	/**
+	 * @return the class file
+	 */
+	byte[] toBytes() {
+		int thisClass = classRef(name);
+		int superClass = classRef("java/lang/Object");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(version);
+			out.writeShort(poolCount);
+			pool.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+			out.writeShort(methods.size());
+			for (byte[] m : methods)
+				out.write(m);
+			out.writeShort(0); // attributes
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,611 @@
+/**
+ * Closure compilation of decoded mJAM code
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import static mJAM.DecodedCode.*;
+import static mJAM.Interpreter.*;
+
+/**
+ * Third execution engine, next to the instruction-at-a-time interpreter and
+ * the decoded run loop.  Each basic block of the program is turned into a
+ * chain of lambdas, one per instruction, with its operands already folded
+ * in; every lambda does its work and then calls the lambda of the next
+ * instruction, and the last one of the block returns the address to continue
+ * at.  The run loop only dispatches once per block, on the code address, so
+ * the JVM can compile and specialize the chain of each block on its own
+ * instead of going through one large switch.
+ *
+ * Blocks starting at a static entry point (CB, targets of jumps and calls,
+ * instructions following a control transfer) are compiled when the program
+ * is loaded, other entry points (JUMPI, dynamic call targets) are compiled
+ * the first time control reaches them.
+ *
+ * The lambdas work directly on the machine registers of Interpreter and fail
+ * with the same status and the same CP as the decoded run loop.  Operations
+ * without a lambda of their own (CALLD, primitives without a decoded form,
+ * instructions decoded as SLOW) end their block and are executed by
+ * Interpreter.executeOneOperation.
+ */
+final class ClosureCompiler {
+
+	/**
+	 * Compiled code, from some instruction to the end of its block
+	 */
+	@FunctionalInterface
+	interface Block {
+		/**
+		 * @return address of the next block to run, or STOP
+		 */
+		int run();
+	}
+
+	final static int STOP = -1;
+
+	// longest chain of lambdas, longer blocks are split
+	final static int maxBlockLength = 64;
+
+	// compiled block starting at each address, null if not compiled yet
+	static Block[] blocks;
+
+	private ClosureCompiler() {
+	}
+
+	/**
+	 * Compiles the blocks at the static entry points of the decoded program
+	 */
+	static void compile() {
+		int ct = decoded.CT;
+		blocks = new Block[ct + 1];
+		boolean[] leader = new boolean[ct + 1];
+		leader[Machine.CB] = true;
+		for (int addr = Machine.CB; addr < ct; addr++) {
+			if (endsBlock(addr))
+				leader[addr + 1] = true;
+			switch (decoded.unfused(addr)) {
+			case CALL:
+			case CALLI:
+			case JUMP:
+			case JUMPIF:
+			case JUMPNE:
+			case JUMPLT:
+			case JUMPLE:
+			case JUMPGE:
+			case JUMPGT:
+				leader[decoded.d[addr]] = true;
+				break;
+			default:
+				break;
+			}
+		}
+		for (int addr = Machine.CB; addr <= ct; addr++) {
+			if (leader[addr])
+				blocks[addr] = block(addr);
+		}
+	}
+
+	/**
+	 * Runs the compiled program from the current machine state until it halts
+	 * or fails.
+	 */
+	static void run() {
+		final Block[] blocks = ClosureCompiler.blocks;
+		int cp = CP;
+		while (cp != STOP) {
+			Block b = blocks[cp];
+			if (b == null)
+				b = blocks[cp] = block(cp);
+			cp = b.run();
+		}
+	}
+
+	private static int fail(int cp, int failure) {
+		CP = cp;
+		status = failure;
+		return STOP;
+	}
+
+	// stands in for the rest of a block when only checking for a lambda
+	private final static Block none = () -> STOP;
+
+	/**
+	 * @return true if the instruction at addr transfers control or has no
+	 * lambda of its own, so that it has to be the last instruction of its block
+	 */
+	private static boolean endsBlock(int addr) {
+		switch (decoded.unfused(addr)) {
+		case CALL:
+		case CALLI:
+		case RETURN:
+		case JUMP:
+		case JUMPI:
+		case JUMPIF:
+		case JUMPNE:
+		case JUMPLT:
+		case JUMPLE:
+		case JUMPGE:
+		case JUMPGT:
+		case HALT:
+		case END:
+			return true;
+		default:
+			return step(addr, none) == null;
+		}
+	}
+
+	/**
+	 * Compiles the block starting at addr
+	 */
+	private static Block block(int start) {
+		int end = start;
+		while (end - start < maxBlockLength && !endsBlock(end))
+			end++;
+		Block k;
+		if (endsBlock(end))
+			k = last(end);
+		else {
+			// too long, continue with the block at end
+			final int next = end;
+			k = () -> next;
+		}
+		for (int addr = end - 1; addr >= start; addr--)
+			k = step(addr, k);
+		return k;
+	}
+
+	/**
+	 * Compiles the instruction at addr that ends its block
+	 */
+	private static Block last(final int addr) {
+		final int d = decoded.d[addr], n = decoded.n[addr], next = addr + 1;
+		final int ct = decoded.CT;
+
+		switch (decoded.unfused(addr)) {
+		case CALL:
+			return () -> {
+				int st = ST;
+				if (HT - st < 3)
+					return fail(addr, failedDataStoreFull);
+				data[st] = OB;
+				data[st + 1] = LB;
+				data[st + 2] = next;
+				OB = Machine.nullRep;
+				LB = st;
+				ST = st + 3;
+				return d;
+			};
+		case CALLI:
+			return () -> {
+				int st = ST;
+				if (HT - st < 2)
+					return fail(addr, failedDataStoreFull);
+				int instance = data[st - 1];
+				data[st - 1] = OB;
+				data[st] = LB;
+				data[st + 1] = next;
+				OB = instance;
+				LB = st - 1;
+				ST = st + 2;
+				return d;
+			};
+		case RETURN:
+			// d = number of method args, n = size of result (0 or 1)
+			return () -> {
+				int lb = LB, result = lb - d;
+				int cp = data[lb + 2];
+				OB = data[lb];
+				LB = data[lb + 1];
+				if (n == 1)
+					data[result] = data[ST - 1];
+				ST = result + n;
+				if (cp < CB || cp >= ct)
+					return fail(cp, failedInvalidCodeAddress);
+				return cp;
+			};
+		case JUMP:
+			return () -> d;
+		case JUMPI:
+			return () -> {
+				int cp = data[--ST];
+				if (cp < CB || cp >= ct)
+					return fail(cp, failedInvalidCodeAddress);
+				return cp;
+			};
+		case JUMPIF:
+			return () -> data[--ST] == n ? d : next;
+		case JUMPNE:
+			return () -> data[--ST] != n ? d : next;
+		case JUMPLT:
+			return () -> data[--ST] < n ? d : next;
+		case JUMPLE:
+			return () -> data[--ST] <= n ? d : next;
+		case JUMPGE:
+			return () -> data[--ST] >= n ? d : next;
+		case JUMPGT:
+			return () -> data[--ST] > n ? d : next;
+		case HALT:
+			return () -> {
+				CP = addr;
+				status = halted;
+				return STOP;
+			};
+		case END:
+			return () -> fail(addr, failedInvalidCodeAddress);
+		default:
+			// anything else is executed by the interpreter
+			return () -> {
+				CP = addr;
+				executeOneOperation();
+				if (status != running)
+					return STOP;
+				if (CP < CB || CP > ct)
+					return fail(CP, failedInvalidCodeAddress);
+				return CP;
+			};
+		}
+	}
+
+	/**
+	 * Compiles the instruction at addr, followed by k
+	 * @return compiled instruction, or null if it has to end its block
+	 */
+	private static Block step(final int addr, final Block k) {
+		final int d = decoded.d[addr], next = addr + 1;
+
+		switch (decoded.unfused(addr)) {
+		case LOAD_ABS:
+			return () -> {
+				if (ST >= HT)
+					return fail(addr, failedDataStoreFull);
+				data[ST++] = data[d];
+				return k.run();
+			};
+		case LOAD_LB:
+			return () -> {
+				if (ST >= HT)
+					return fail(addr, failedDataStoreFull);
+				data[ST++] = data[LB + d];
+				return k.run();
+			};
+		case LOAD_OB:
+			return () -> {
+				if (ST >= HT)
+					return fail(addr, failedDataStoreFull);
+				data[ST++] = data[OB + d];
+				return k.run();
+			};
+		case LOADA_LB:
+			return () -> {
+				if (ST >= HT)
+					return fail(addr, failedDataStoreFull);
+				data[ST++] = LB + d;
+				return k.run();
+			};
+		case LOADA_OB:
+			return () -> {
+				if (ST >= HT)
+					return fail(addr, failedDataStoreFull);
+				data[ST++] = OB + d;
+				return k.run();
+			};
+		case LOADI:
+			return () -> {
+				data[ST - 1] = data[data[ST - 1]];
+				return k.run();
+			};
+		case LOADL:
+			return () -> {
+				if (ST >= HT)
+					return fail(addr, failedDataStoreFull);
+				data[ST++] = d;
+				return k.run();
+			};
+		case STORE_ABS:
+			return () -> {
+				data[d] = data[--ST];
+				return k.run();
+			};
+		case STORE_LB:
+			return () -> {
+				data[LB + d] = data[--ST];
+				return k.run();
+			};
+		case STORE_OB:
+			return () -> {
+				data[OB + d] = data[--ST];
+				return k.run();
+			};
+		case STOREI:
+			return () -> {
+				int st = ST - 2;
+				data[data[st + 1]] = data[st];
+				ST = st;
+				return k.run();
+			};
+		case PUSH:
+			return () -> {
+				if (HT - ST < d)
+					return fail(addr, failedDataStoreFull);
+				ST = ST + d;
+				return k.run();
+			};
+		case POP:
+			return () -> {
+				ST = ST - d;
+				return k.run();
+			};
+		case SNAPSHOT:
+			return () -> {
+				CP = addr;
+				snapshot();
+				return k.run();
+			};
+
+		// primitives
+		case P_ID:
+			return k;
+		case P_NOT:
+			return () -> {
+				data[ST - 1] = toInt(!isTrue(data[ST - 1]));
+				return k.run();
+			};
+		case P_AND:
+			return () -> {
+				int st = --ST;
+				data[st - 1] = toInt(isTrue(data[st - 1]) & isTrue(data[st]));
+				return k.run();
+			};
+		case P_OR:
+			return () -> {
+				int st = --ST;
+				data[st - 1] = toInt(isTrue(data[st - 1]) | isTrue(data[st]));
+				return k.run();
+			};
+		case P_NEG:
+			return () -> {
+				long result = -(long) data[ST - 1];
+				if (result != (int) result) {
+					data[ST - 1] = 0;
+					return fail(next, failedOverflow);
+				}
+				data[ST - 1] = (int) result;
+				return k.run();
+			};
+		case P_ADD:
+			return () -> {
+				int st = --ST;
+				long result = (long) data[st - 1] + data[st];
+				if (result != (int) result) {
+					data[st - 1] = 0;
+					return fail(next, failedOverflow);
+				}
+				data[st - 1] = (int) result;
+				return k.run();
+			};
+		case P_SUB:
+			return () -> {
+				int st = --ST;
+				long result = (long) data[st - 1] - data[st];
+				if (result != (int) result) {
+					data[st - 1] = 0;
+					return fail(next, failedOverflow);
+				}
+				data[st - 1] = (int) result;
+				return k.run();
+			};
+		case P_MULT:
+			return () -> {
+				int st = --ST;
+				long result = (long) data[st - 1] * data[st];
+				if (result != (int) result) {
+					data[st - 1] = 0;
+					return fail(next, failedOverflow);
+				}
+				data[st - 1] = (int) result;
+				return k.run();
+			};
+		case P_DIV:
+			return () -> {
+				int st = --ST;
+				if (data[st] == 0)
+					return fail(next, failedZeroDivide);
+				data[st - 1] = (int) ((long) data[st - 1] / data[st]);
+				return k.run();
+			};
+		case P_MOD:
+			return () -> {
+				int st = --ST;
+				if (data[st] == 0)
+					return fail(next, failedZeroDivide);
+				data[st - 1] = (int) ((long) data[st - 1] % data[st]);
+				return k.run();
+			};
+		case P_LT:
+			return () -> {
+				int st = --ST;
+				data[st - 1] = toInt(data[st - 1] < data[st]);
+				return k.run();
+			};
+		case P_LE:
+			return () -> {
+				int st = --ST;
+				data[st - 1] = toInt(data[st - 1] <= data[st]);
+				return k.run();
+			};
+		case P_GE:
+			return () -> {
+				int st = --ST;
+				data[st - 1] = toInt(data[st - 1] >= data[st]);
+				return k.run();
+			};
+		case P_GT:
+			return () -> {
+				int st = --ST;
+				data[st - 1] = toInt(data[st - 1] > data[st]);
+				return k.run();
+			};
+		case P_EQ:
+			return () -> {
+				int st = --ST;
+				data[st - 1] = toInt(data[st - 1] == data[st]);
+				return k.run();
+			};
+		case P_NE:
+			return () -> {
+				int st = --ST;
+				data[st - 1] = toInt(data[st - 1] != data[st]);
+				return k.run();
+			};
+		case P_NEWOBJ:
+			return () -> {
+				int st = ST, size = data[st - 1] + 2;
+				if (HT - st < size + machine.reserve) {
+					int object = allocate(data[st - 2], size);
+					if (object < 0)
+						return fail(addr, failedDataStoreFull);
+					data[st - 2] = object;
+					ST = st - 1;
+					return k.run();
+				}
+				int ht = HT = HT - size;
+				data[ht] = data[st - 2];
+				data[ht + 1] = size - 2;
+				data[st - 2] = ht + 2;
+				ST = st - 1;
+				for (int i = 2; i < size; i++)
+					data[ht + i] = 0;
+				return k.run();
+			};
+		case P_NEWARR:
+			return () -> {
+				int st = ST, size = data[st - 1] + 2;
+				if (HT - st < size + machine.reserve) {
+					int array = allocate(-2, size);
+					if (array < 0)
+						return fail(addr, failedDataStoreFull);
+					data[st - 1] = array;
+					return k.run();
+				}
+				int ht = HT = HT - size;
+				data[ht] = -2;
+				data[ht + 1] = size - 2;
+				data[st - 1] = ht + 2;
+				for (int i = 2; i < size; i++)
+					data[ht + i] = 0;
+				return k.run();
+			};
+		case P_ARRAYLEN:
+			return () -> {
+				int array = data[ST - 1];
+				if (array == Machine.nullRep)
+					return fail(next, failedNullRef);
+				if (array < HT + 2 || array > HB || data[array - 2] != -2)
+					return fail(next, failedHeapRef);
+				data[ST - 1] = data[array - 1];
+				return k.run();
+			};
+		case P_ARRAYREF:
+			return () -> {
+				int st = ST, array = data[st - 2];
+				if (array == Machine.nullRep)
+					return fail(next, failedNullRef);
+				if (array < HT + 2 || array > HB)
+					return fail(next, failedHeapRef);
+				int index = data[st - 1];
+				if (data[array - 2] != -2 || index < 0 || index >= data[array - 1])
+					return fail(next, failedArrayIndex);
+				data[st - 2] = data[array + index];
+				ST = st - 1;
+				return k.run();
+			};
+		case P_ARRAYUPD:
+			return () -> {
+				int st = ST, array = data[st - 3];
+				if (array == Machine.nullRep)
+					return fail(next, failedNullRef);
+				if (array < HT + 2 || array > HB)
+					return fail(next, failedHeapRef);
+				int index = data[st - 2];
+				if (data[array - 2] != -2 || index < 0 || index >= data[array - 1])
+					return fail(next, failedArrayIndex);
+				data[array + index] = data[st - 1];
+				ST = st - 3;
+				return k.run();
+			};
+		case P_FIELDREF:
+			return () -> {
+				int st = ST, object = data[st - 2];
+				if (object == Machine.nullRep)
+					return fail(next, failedNullRef);
+				if (object < HT + 2 || object > HB)
+					return fail(next, failedHeapRef);
+				int index = data[st - 1];
+				if (index < 0 || index >= data[object - 1])
+					return fail(next, failedFieldIndex);
+				data[st - 2] = data[object + index];
+				ST = st - 1;
+				return k.run();
+			};
+		case P_FIELDUPD:
+			return () -> {
+				int st = ST, object = data[st - 3];
+				if (object == Machine.nullRep)
+					return fail(next, failedNullRef);
+				if (object < HT + 2 || object > HB)
+					return fail(next, failedHeapRef);
+				int index = data[st - 2];
+				if (index < 0 || index >= data[object - 1])
+					return fail(next, failedFieldIndex);
+				data[object + index] = data[st - 1];
+				ST = st - 3;
+				return k.run();
+			};
+		case P_PUTINTNL:
+			return () -> {
+				accumulator = data[--ST];
+				machine.io.putIntLine(accumulator);
+				return k.run();
+			};
+
+		// immediate forms
+		case ADDL:
+			return () -> {
+				long result = (long) data[ST - 1] + d;
+				if (result != (int) result) {
+					data[ST - 1] = 0;
+					return fail(next, failedOverflow);
+				}
+				data[ST - 1] = (int) result;
+				return k.run();
+			};
+		case FIELDREFL:
+			return () -> {
+				int object = data[ST - 1];
+				if (object == Machine.nullRep)
+					return fail(next, failedNullRef);
+				if (object < HT + 2 || object > HB)
+					return fail(next, failedHeapRef);
+				if (d < 0 || d >= data[object - 1])
+					return fail(next, failedFieldIndex);
+				data[ST - 1] = data[object + d];
+				return k.run();
+			};
+		case FIELDUPDL:
+			return () -> {
+				int st = ST, object = data[st - 2];
+				if (object == Machine.nullRep)
+					return fail(next, failedNullRef);
+				if (object < HT + 2 || object > HB)
+					return fail(next, failedHeapRef);
+				if (d < 0 || d >= data[object - 1])
+					return fail(next, failedFieldIndex);
+				data[object + d] = data[st - 1];
+				ST = st - 2;
+				return k.run();
+			};
+		default:
+			return null;
+		}
+	}
+}
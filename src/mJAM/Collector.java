@@ -0,0 +1,205 @@
+/**
+ * Garbage collection of the mJAM heap
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Mark-sweep collector for the heap of one VirtualMachine, enabled with -gc.
+ *
+ * Objects and arrays are allocated below HT as before, except that the
+ * last words between stack and heap are kept for the stack to grow into
+ * (VirtualMachine.reserve), and the collector only comes in when an
+ * allocation does not fit above the reserve.
+ * The heap can be walked from HT up to HB: every block has the two header
+ * words that newobj and newarr write (class object address or the array
+ * tag -2, then the number of fields or elements), and space the collector
+ * has freed is a block tagged -3 whose size word covers the free words.
+ *
+ * The data store does not say which words are addresses, so the collector
+ * is conservative: every word on the stack from SB to ST (static fields,
+ * frames, operands), the OB register and every field and element of a
+ * reachable object is taken as a reference if it is the address of an
+ * object in the heap.  An integer that happens to look like an address at
+ * worst keeps an object alive.  For the same reason objects cannot move,
+ * so instead of compacting, the sweep merges adjacent dead blocks into free
+ * blocks and gives the free blocks just above HT back to the space between
+ * stack and heap.  Allocations that still do not fit below HT are taken
+ * from the free blocks, first fit, and zeroed like any new object; the
+ * reserve is only used when nothing else is left.
+ */
+final class Collector {
+
+	// tag of a free block, in place of a class object address or -2
+	final static int freeTag = -3;
+
+	private final VirtualMachine machine;
+
+	// header addresses of the free blocks, in ascending order
+	private int[] free = new int[16];
+	private int frees;
+
+	// during a collection: header addresses of the blocks holding objects,
+	// of the marked ones, and of marked ones whose fields are still to scan
+	private BitSet blocks, marked;
+	private int[] work = new int[64];
+	private int pending;
+
+	// statistics
+	long collections, reclaimed, pauseNanos, maxPauseNanos;
+
+	Collector(VirtualMachine machine) {
+		this.machine = machine;
+	}
+
+	/**
+	 * Allocates size words, two of them the header, in space freed by
+	 * earlier collections, collecting garbage first if there is none that is
+	 * large enough.  The machine registers must be up to date; HT may move.
+	 * @param header  class object address, or -2 for an array
+	 * @return address of the new object with its header set and its fields
+	 * zeroed, or -1 if the heap is full
+	 */
+	int allocate(int header, int size) {
+		if (size < 2)
+			return -1;
+		int block = fromFreeBlocks(size);
+		if (block < 0) {
+			collect();
+			if (machine.HT - machine.ST - machine.reserve >= size)
+				block = machine.HT -= size;
+			else if ((block = fromFreeBlocks(size)) < 0) {
+				if (machine.HT - machine.ST < size)
+					return -1;
+				block = machine.HT -= size;
+			}
+		}
+		int[] data = machine.data;
+		data[block] = header;
+		data[block + 1] = size - 2;
+		for (int i = 2; i < size; i++)
+			data[block + i] = 0;
+		return block + 2;
+	}
+
+	/**
+	 * Cuts size words from the top of the first free block that has room
+	 * for them, leaving either nothing or a block of at least two words
+	 * @return address of the words, or -1
+	 */
+	private int fromFreeBlocks(int size) {
+		int[] data = machine.data;
+		for (int i = 0; i < frees; i++) {
+			int block = free[i], words = data[block + 1] + 2;
+			if (words == size) {
+				System.arraycopy(free, i + 1, free, i, frees - i - 1);
+				frees--;
+				return block;
+			}
+			if (words - size >= 2) {
+				data[block + 1] = words - size - 2;
+				return block + words - size;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Frees the objects that cannot be reached from the stack or OB
+	 */
+	void collect() {
+		long start = System.nanoTime();
+		int[] data = machine.data;
+		int ht = machine.HT, hb = machine.HB;
+
+		// find the blocks; give up on a heap that cannot be walked, e.g. after
+		// newarr with a negative length
+		blocks = new BitSet();
+		for (int block = ht; block < hb; block += data[block + 1] + 2) {
+			if (block + 2 > hb || data[block + 1] < 0 || data[block + 1] > hb - block - 2) {
+				blocks = null;
+				return;
+			}
+			if (data[block] != freeTag)
+				blocks.set(block);
+		}
+
+		// mark
+		marked = new BitSet();
+		mark(machine.OB);
+		for (int addr = Interpreter.SB; addr < machine.ST; addr++)
+			mark(data[addr]);
+		while (pending > 0) {
+			int block = work[--pending];
+			int end = block + 2 + data[block + 1];
+			for (int field = block + 2; field < end; field++)
+				mark(data[field]);
+		}
+
+		// sweep: merge each run of dead and free blocks into one free block,
+		// or give it back below the heap if it starts at HT
+		frees = 0;
+		int run = -1;
+		for (int block = ht; block <= hb; ) {
+			if (block < hb && !marked.get(block)) {
+				if (run < 0)
+					run = block;
+				if (blocks.get(block))
+					reclaimed += data[block + 1] + 2;
+				block += data[block + 1] + 2;
+				continue;
+			}
+			if (run >= 0) {
+				if (run == ht)
+					machine.HT = block;
+				else {
+					data[run] = freeTag;
+					data[run + 1] = block - run - 2;
+					if (frees == free.length)
+						free = Arrays.copyOf(free, 2 * frees);
+					free[frees++] = run;
+				}
+				run = -1;
+			}
+			if (block == hb)
+				break;
+			block += data[block + 1] + 2;
+		}
+
+		blocks = marked = null;
+		long pause = System.nanoTime() - start;
+		collections++;
+		pauseNanos += pause;
+		maxPauseNanos = Math.max(maxPauseNanos, pause);
+	}
+
+	/**
+	 * Marks the object at ref, if ref is the address of an object in the
+	 * heap, and queues it for scanning
+	 */
+	private void mark(int ref) {
+		int block = ref - 2;
+		if (block < machine.HT || block > machine.HB - 2 || !blocks.get(block) || marked.get(block))
+			return;
+		marked.set(block);
+		if (pending == work.length)
+			work = Arrays.copyOf(work, 2 * pending);
+		work[pending++] = block;
+	}
+
+	/**
+	 * Writes the statistics of the collector
+	 */
+	void report() {
+		PrintStream out = machine.out;
+		out.println("Garbage collection:");
+		out.println(String.format("  %10d  collections", collections));
+		out.println(String.format("  %10d  words reclaimed", reclaimed));
+		out.println(String.format("  %10.3f  ms paused in all", pauseNanos / 1e6));
+		out.println(String.format("  %10.3f  ms longest pause", maxPauseNanos / 1e6));
+	}
+}
@@ -0,0 +1,214 @@
+/**
+ * Run-time support for mJAM code compiled to JVM bytecode
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import java.util.Arrays;
+
+/**
+ * Operations called from the JVM code produced by BytecodeCompiler, both
+ * for classes written ahead of time by Translator and for classes defined by
+ * the JIT at run time.
+ *
+ * Compiled code runs on Interpreter.machine.  It keeps the data store and the
+ * ST, LB, OB and HT registers in JVM locals and writes them back with sync
+ * before it calls anything that needs the machine state: another compiled
+ * routine, a failure, or the interpreter.  Every compiled routine returns the
+ * code address its RETURN went back to, or STOP once the program has halted
+ * or failed.  Anything the compiled code cannot handle is passed to
+ * interpret, which continues the current routine in the interpreter until it
+ * returns; the machine state lives in the data store, so no compiled frame
+ * has to be reconstructed.
+ */
+public final class CompiledRuntime {
+
+	public final static int STOP = -1;
+
+	private CompiledRuntime() {
+	}
+
+	// MACHINE STATE
+
+	public static int[] data() {
+		return Interpreter.machine.data;
+	}
+
+	public static int st() {
+		return Interpreter.machine.ST;
+	}
+
+	public static int lb() {
+		return Interpreter.machine.LB;
+	}
+
+	public static int ob() {
+		return Interpreter.machine.OB;
+	}
+
+	public static int ht() {
+		return Interpreter.machine.HT;
+	}
+
+	/**
+	 * Writes back the registers held by compiled code
+	 */
+	public static void sync(int cp, int st, int lb, int ob, int ht) {
+		VirtualMachine machine = Interpreter.machine;
+		machine.CP = cp;
+		machine.ST = st;
+		machine.LB = lb;
+		machine.OB = ob;
+		machine.HT = ht;
+	}
+
+	/**
+	 * Stops the program with the given status, after sync
+	 * @return STOP
+	 */
+	public static int stop(int status) {
+		Interpreter.machine.status = status;
+		return STOP;
+	}
+
+	/**
+	 * Continues the program in the interpreter from the synced state until the
+	 * routine whose frame is at LB returns, or the program halts or fails
+	 * @return code address returned to, or STOP
+	 */
+	public static int interpret() {
+		VirtualMachine machine = Interpreter.machine;
+		int exitLB = machine.exitLB;
+		machine.exitLB = machine.LB;
+		machine.runDecoded();
+		machine.exitLB = exitLB;
+		return machine.status == Interpreter.running ? machine.CP : STOP;
+	}
+
+	// PRIMITIVES
+
+	public static int not(int a) {
+		return Interpreter.toInt(!Interpreter.isTrue(a));
+	}
+
+	public static int and(int a, int b) {
+		return Interpreter.toInt(Interpreter.isTrue(a) & Interpreter.isTrue(b));
+	}
+
+	public static int or(int a, int b) {
+		return Interpreter.toInt(Interpreter.isTrue(a) | Interpreter.isTrue(b));
+	}
+
+	public static int lt(int a, int b) {
+		return Interpreter.toInt(a < b);
+	}
+
+	public static int le(int a, int b) {
+		return Interpreter.toInt(a <= b);
+	}
+
+	public static int ge(int a, int b) {
+		return Interpreter.toInt(a >= b);
+	}
+
+	public static int gt(int a, int b) {
+		return Interpreter.toInt(a > b);
+	}
+
+	public static int eq(int a, int b) {
+		return Interpreter.toInt(a == b);
+	}
+
+	public static int ne(int a, int b) {
+		return Interpreter.toInt(a != b);
+	}
+
+	public static void putintnl(int v) {
+		Interpreter.machine.accumulator = v;
+		Interpreter.machine.io.putIntLine(v);
+	}
+
+	/**
+	 * Clears the fields of a newly allocated object or array
+	 */
+	public static void clear(int[] data, int from, int to) {
+		Arrays.fill(data, from, to, 0);
+	}
+
+	/**
+	 * @return 0 if array[index] can be accessed, otherwise the failure
+	 * status, checked in the same order as the interpreter
+	 */
+	public static int checkArray(int[] data, int array, int index, int ht) {
+		if (array == Machine.nullRep)
+			return Interpreter.failedNullRef;
+		if (array < ht + 2 || array > Interpreter.HB)
+			return Interpreter.failedHeapRef;
+		if (data[array - 2] != -2 || index < 0 || index >= data[array - 1])
+			return Interpreter.failedArrayIndex;
+		return 0;
+	}
+
+	/**
+	 * @return 0 if the length of array can be read, otherwise the failure
+	 * status
+	 */
+	public static int checkArrayLength(int[] data, int array, int ht) {
+		if (array == Machine.nullRep)
+			return Interpreter.failedNullRef;
+		if (array < ht + 2 || array > Interpreter.HB || data[array - 2] != -2)
+			return Interpreter.failedHeapRef;
+		return 0;
+	}
+
+	/**
+	 * @return 0 if field index of object can be accessed, otherwise the
+	 * failure status
+	 */
+	public static int checkField(int[] data, int object, int index, int ht) {
+		if (object == Machine.nullRep)
+			return Interpreter.failedNullRef;
+		if (object < ht + 2 || object > Interpreter.HB)
+			return Interpreter.failedHeapRef;
+		if (index < 0 || index >= data[object - 1])
+			return Interpreter.failedFieldIndex;
+		return 0;
+	}
+
+	// TRANSLATED PROGRAMS
+
+	/**
+	 * Loads the code store of a translated program and initializes the
+	 * machine, as Interpreter.main does before running it
+	 * @param code  instructions encoded by Translator.encode
+	 */
+	public static void load(String code) {
+		System.out.println("********** mJAM Interpreter (Version 2.3) **********");
+		Instruction[] instructions = new Instruction[Machine.CB + code.length() / 8];
+		for (int i = 0; i + 8 <= code.length(); i += 8) {
+			instructions[Machine.CB + i / 8] = new Instruction(word(code, i), word(code, i + 2),
+					word(code, i + 4), word(code, i + 6));
+		}
+		Machine.setCode(instructions);
+		Interpreter.code = instructions;
+		Interpreter.decoded = DecodedCode.decode(instructions, Machine.CT);
+		Interpreter.loadMachine();
+	}
+
+	private static int word(String code, int i) {
+		return code.charAt(i) << 16 | code.charAt(i + 1);
+	}
+
+	/**
+	 * Finishes a translated program: continues in the interpreter if the
+	 * main routine returned, then reports the status and exits with the
+	 * same code as Interpreter.interpret
+	 * @param result  value returned by the main routine
+	 */
+	public static void exit(int result) {
+		while (result != STOP)
+			result = interpret();
+		Interpreter.machine.showStatus();
+		System.exit(Interpreter.machine.status == Interpreter.halted ? 0 : 4);
+	}
+}
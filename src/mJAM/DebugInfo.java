@@ -0,0 +1,201 @@
+/**
+ * Reads and writes debug info files of mJAM programs
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Source lines and methods of the code of a program, which a compiler
+ * writes next to the object file xxx.mJAM as xxx.dbg:
+ *
+ *     mJAM debug info
+ *     source Calls.java
+ *     method 2 Calls.main
+ *     line 2 3
+ *     line 5 4
+ *
+ * The line table works like the one of a JVM class file: a line entry
+ * says that the code from its address up to the next entry was generated
+ * for that source line, and a method entry gives the name of the method
+ * whose code starts at its address.  Code before the first entry (the
+ * call of main) has no line and no method.
+ *
+ * The object file format stays as it was, so programs without a debug
+ * info file still load everywhere; the debugger, the profiler and -count
+ * use one when it is there.
+ */
+public final class DebugInfo {
+
+	private final static String header = "mJAM debug info";
+
+	// source file name as the compiler was given it
+	final String source;
+
+	// line table, ascending by address
+	private int[] starts = new int[64], lines = new int[64];
+	private int entries;
+
+	// method names by entry address
+	private final TreeMap<Integer, String> methods = new TreeMap<Integer, String>();
+
+	public DebugInfo(String source) {
+		this.source = source;
+	}
+
+	/**
+	 * Records that the code from addr on is for source line line, until the
+	 * next line recorded.  Recording a line at the address of the last one
+	 * replaces it, as for a statement that generated no code.
+	 */
+	public void line(int addr, int line) {
+		if (entries > 0 && starts[entries - 1] == addr) {
+			entries--;
+		}
+		if (entries > 0 && lines[entries - 1] == line)
+			return;
+		if (entries == starts.length) {
+			starts = Arrays.copyOf(starts, 2 * entries);
+			lines = Arrays.copyOf(lines, 2 * entries);
+		}
+		starts[entries] = addr;
+		lines[entries] = line;
+		entries++;
+	}
+
+	/**
+	 * Records that the code of method name starts at addr
+	 */
+	public void method(int addr, String name) {
+		methods.put(addr, name);
+	}
+
+	/**
+	 * @return name of the debug info file of an object file
+	 */
+	public static String fileName(String objectFileName) {
+		if (objectFileName.endsWith(".mJAM"))
+			return objectFileName.substring(0, objectFileName.length() - 5) + ".dbg";
+		return objectFileName + ".dbg";
+	}
+
+	public void write(String file) throws IOException {
+		try (FileWriter out = new FileWriter(file)) {
+			out.write(header + "\n");
+			out.write("source " + source + "\n");
+			for (Map.Entry<Integer, String> method : methods.entrySet())
+				out.write("method " + method.getKey() + " " + method.getValue() + "\n");
+			for (int i = 0; i < entries; i++)
+				out.write("line " + starts[i] + " " + lines[i] + "\n");
+		}
+	}
+
+	/**
+	 * @return the debug info in file
+	 * @throws IOException if it cannot be read or is not a debug info file
+	 */
+	static DebugInfo read(String file) throws IOException {
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			String line = in.readLine();
+			if (!header.equals(line) || (line = in.readLine()) == null || !line.startsWith("source "))
+				throw new IOException(file + " is not a debug info file");
+			DebugInfo info = new DebugInfo(line.substring("source ".length()));
+			while ((line = in.readLine()) != null) {
+				String[] words = line.split(" ", 3);
+				try {
+					if (words[0].equals("method") && words.length == 3)
+						info.method(Integer.parseInt(words[1]), words[2]);
+					else if (words[0].equals("line") && words.length == 3)
+						info.line(Integer.parseInt(words[1]), Integer.parseInt(words[2]));
+					else
+						throw new IOException(file + " is not a debug info file");
+				} catch (NumberFormatException e) {
+					throw new IOException(file + " is not a debug info file");
+				}
+			}
+			return info;
+		}
+	}
+
+	/**
+	 * @return the debug info of an object file, or null if it has none
+	 */
+	static DebugInfo forObjectFile(String objectFileName) {
+		String file = fileName(objectFileName);
+		if (!new File(file).exists())
+			return null;
+		try {
+			return read(file);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return source line of the code at addr, or 0 if it has none
+	 */
+	int lineAt(int addr) {
+		int i = entryAt(addr);
+		return i < 0 ? 0 : lines[i];
+	}
+
+	private int entryAt(int addr) {
+		int i = Arrays.binarySearch(starts, 0, entries, addr);
+		return i >= 0 ? i : -i - 2;
+	}
+
+	/**
+	 * @return addresses at which the code of a source line starts, in the
+	 * order of the line table, and their lines
+	 */
+	int[] lineStarts() {
+		return Arrays.copyOf(starts, entries);
+	}
+
+	int[] lineNumbers() {
+		return Arrays.copyOf(lines, entries);
+	}
+
+	/**
+	 * @return name of the method whose code holds addr, or null
+	 */
+	String methodAt(int addr) {
+		Map.Entry<Integer, String> method = methods.floorEntry(addr);
+		return method == null ? null : method.getValue();
+	}
+
+	/**
+	 * @return name of the method whose code starts at addr, or null
+	 */
+	String methodStartingAt(int addr) {
+		return methods.get(addr);
+	}
+
+	/**
+	 * @return the lines of the source file, looked up next to the debug
+	 * info file of objectFileName if the name recorded is not found
+	 */
+	List<String> sourceLines(String objectFileName) throws IOException {
+		File file = new File(source);
+		if (!file.exists())
+			file = new File(new File(fileName(objectFileName)).getAbsoluteFile().getParentFile(),
+					file.getName());
+		List<String> text = new ArrayList<String>();
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = in.readLine()) != null)
+				text.add(line);
+		}
+		return text;
+	}
+}
@@ -0,0 +1,433 @@
+/**
+ * Load-time decoded form of the mJAM code store
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import java.util.Arrays;
+
+/**
+ * Flat, pre-decoded copy of the instructions in the code store.  Each
+ * instruction is held as parallel int arrays (decoded operation, n, d) so
+ * that the run loop does not have to fetch Instruction objects, map the
+ * op field through Machine.intToOp or resolve register operands at run
+ * time.
+ *
+ * Register-relative operands are resolved when the code is decoded:
+ * operands relative to a register whose content is fixed for the whole run
+ * (CB, CT, CP, PB, PT, SB, ZR) become absolute addresses, while operands
+ * relative to LB or OB are tagged by choosing the LB or OB form of the
+ * decoded operation.  Calls to primitives are decoded into one operation per
+ * primitive.  Anything else (operands relative to ST, HT or HB, which
+ * depends on the size of each machine's data store, out of range code
+ * addresses, unknown primitives) is decoded as SLOW and executed by the
+ * original instruction-at-a-time interpreter.
+ *
+ * The arrays have one extra entry at index CT holding END, so that running
+ * off the end of the code store is detected without checking CP after every
+ * instruction.
+ *
+ * Facts that are only known once an instruction has run are handled by
+ * quickening: the interpreter rewrites the decoded operation in place into a
+ * quick form the first time it executes, recording what it learned in the
+ * cache array.  A CALLD becomes CALLD_QUICK holding the class descriptor it
+ * validated, and later calls through an instance of the same class skip the
+ * descriptor and method index checks (class descriptors are not expected to
+ * change once built).  A call site that sees a second class becomes
+ * CALLD_POLY, an inline cache of up to polymorphism descriptors kept in the
+ * sites array.  A site that sees more classes than that is megamorphic: it
+ * goes back to CALLD with cache megamorphic, validating the descriptor on
+ * every call and never quickening again.  Only the decoded arrays are
+ * rewritten, the code store seen by the debugger and the disassembler keeps
+ * the original instructions.
+ *
+ * Decoding also verifies the code, see Verifier: error tells why a
+ * malformed program should not be run, and room how many words the run loop
+ * needs between stack and heap at each instruction to push without checks.
+ */
+public final class DecodedCode {
+
+	// decoded operations
+	final static int
+		SLOW = 0, END = 1,
+		LOAD_ABS = 2, LOAD_LB = 3, LOAD_OB = 4,
+		LOADA_LB = 5, LOADA_OB = 6,
+		LOADI = 7, LOADL = 8,
+		STORE_ABS = 9, STORE_LB = 10, STORE_OB = 11, STOREI = 12,
+		CALL = 13, CALLI = 14, CALLD = 15, RETURN = 16,
+		PUSH = 17, POP = 18,
+		JUMP = 19, JUMPI = 20, JUMPIF = 21,
+		HALT = 22, SNAPSHOT = 23,
+		// primitives
+		P_ID = 24, P_NOT = 25, P_AND = 26, P_OR = 27,
+		P_SUCC = 28, P_PRED = 29, P_NEG = 30,
+		P_ADD = 31, P_SUB = 32, P_MULT = 33, P_DIV = 34, P_MOD = 35,
+		P_LT = 36, P_LE = 37, P_GE = 38, P_GT = 39, P_EQ = 40, P_NE = 41,
+		P_NEWOBJ = 42, P_NEWARR = 43,
+		P_ARRAYLEN = 44, P_ARRAYREF = 45, P_ARRAYUPD = 46,
+		P_FIELDREF = 47, P_FIELDUPD = 48,
+		P_PUTINTNL = 49,
+		PRIM = 50, // any other primitive, d = primitive number
+		// immediate forms
+		ADDL = 51, FIELDREFL = 52, FIELDUPDL = 53,
+		JUMPNE = 54, JUMPLT = 55, JUMPLE = 56, JUMPGE = 57, JUMPGT = 58,
+		// superinstructions, see Fusion
+		F_INCR = 59, F_CMPL_JUMPIF = 60, F_CMP2_JUMPIF = 61,
+		F_CMP_JUMPIF = 62, F_ARRAYREF = 63, F_INCRL = 64, F_JUMPCMP = 65,
+		// quick forms, rewritten in place by the interpreter
+		CALLD_QUICK = 66, // cache = validated class descriptor
+		// counting forms, installed by Jit
+		JIT_CALL = 67, JIT_CALLI = 68, JIT_JUMP = 69,
+		// counting back-edge, installed by Tracer
+		TRACE_JUMP = 70,
+		// breakpoint, installed by the debugger over the operation at a
+		// breakpoint, see Interpreter.setBreakpoint
+		BREAK = 71,
+		// quick form of a CALLD that has seen several class descriptors,
+		// cache = start of its entries in sites
+		CALLD_POLY = 72;
+
+	// class descriptors a CALLD_POLY site caches at most, and the cache of a
+	// CALLD that has seen more
+	final static int polymorphism = 4, megamorphic = -1;
+
+	final int[] op;  // decoded operation
+	final int[] n;   // n field, unchanged
+	final int[] d;   // operand, with fixed registers folded in
+	final int[] cache; // run-time facts recorded by quick forms
+	int[] sites = new int[0]; // class descriptors of CALLD_POLY sites, 0 if unused
+	final int CT;    // code top, index of the END entry
+	int[] room;      // words needed free at each instruction, see Verifier
+	String error;    // first malformed instruction, or null
+
+	private DecodedCode(int ct) {
+		CT = ct;
+		op = new int[ct + 1];
+		n = new int[ct + 1];
+		d = new int[ct + 1];
+		cache = new int[ct + 1];
+	}
+
+	private DecodedCode(DecodedCode dc) {
+		CT = dc.CT;
+		op = dc.op.clone();
+		n = dc.n;
+		d = dc.d;
+		cache = dc.cache.clone();
+		sites = dc.sites.clone();
+		room = dc.room;
+		error = dc.error;
+	}
+
+	/**
+	 * @return a copy that can be quickened without affecting this one; the
+	 * operands are shared, they do not change after fusion
+	 */
+	DecodedCode copy() {
+		return new DecodedCode(this);
+	}
+
+	/**
+	 * Decode the instructions code[CB .. ct-1]
+	 * @param code  code store
+	 * @param ct    code top
+	 * @return decoded code
+	 */
+	public static DecodedCode decode(Instruction[] code, int ct) {
+		DecodedCode dc = new DecodedCode(ct);
+		for (int addr = Machine.CB; addr < ct; addr++) {
+			Instruction inst = code[addr];
+			dc.n[addr] = inst.n;
+			dc.d[addr] = inst.d;
+			dc.op[addr] = dc.decodeOne(addr, inst);
+		}
+		dc.op[ct] = END;
+		Verifier verifier = Verifier.verify(code, dc);
+		dc.room = verifier.room;
+		dc.error = verifier.error;
+		return dc;
+	}
+
+	/**
+	 * @return decoded operation at addr as it was before fusion, quickening
+	 * and installing the counting forms of Jit and Tracer
+	 */
+	int unfused(int addr) {
+		switch (op[addr]) {
+		case F_INCR:
+		case F_CMPL_JUMPIF:
+		case F_CMP2_JUMPIF:
+		case F_ARRAYREF:
+		case F_INCRL:
+		case F_JUMPCMP:
+			return LOAD_LB;
+		case F_CMP_JUMPIF:
+			return decodePrimitive(d[addr]);
+		case CALLD_QUICK:
+		case CALLD_POLY:
+			return CALLD;
+		case JIT_CALL:
+			return CALL;
+		case JIT_CALLI:
+			return CALLI;
+		case JIT_JUMP:
+		case TRACE_JUMP:
+			return JUMP;
+		default:
+			return op[addr];
+		}
+	}
+
+	/**
+	 * Records in the inline cache of the CALLD at addr that it called
+	 * through class descriptor desc after validating it: a CALLD becomes
+	 * CALLD_QUICK, a CALLD_QUICK that missed becomes CALLD_POLY, a
+	 * CALLD_POLY adds desc while it has room and is megamorphic after that
+	 */
+	void cacheCall(int addr, int desc) {
+		switch (op[addr]) {
+		case CALLD:
+			if (cache[addr] != megamorphic) {
+				op[addr] = CALLD_QUICK;
+				cache[addr] = desc;
+			}
+			break;
+		case CALLD_QUICK:
+			int base = sites.length;
+			sites = Arrays.copyOf(sites, base + polymorphism);
+			sites[base] = cache[addr];
+			sites[base + 1] = desc;
+			op[addr] = CALLD_POLY;
+			cache[addr] = base;
+			break;
+		case CALLD_POLY:
+			for (int i = cache[addr]; i < cache[addr] + polymorphism; i++) {
+				if (sites[i] == 0) {
+					sites[i] = desc;
+					return;
+				}
+			}
+			op[addr] = CALLD;
+			cache[addr] = megamorphic;
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * @return true if register r holds the same value for the whole run
+	 */
+	private static boolean isFixed(int r) {
+		if (r < 0 || r >= Machine.intToReg.length)
+			return false;
+		switch (Machine.intToReg[r]) {
+		case ZR:
+		case CB:
+		case CT:
+		case CP:
+		case PB:
+		case PT:
+		case SB:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return content of fixed register r while executing the instruction at addr
+	 */
+	private int fixedContent(int r, int addr) {
+		switch (Machine.intToReg[r]) {
+		case CB:
+			return Interpreter.CB;
+		case CT:
+			return CT;
+		case CP:
+			return addr;
+		case PB:
+			return Machine.PB;
+		case PT:
+			return Machine.PT;
+		case SB:
+			return Interpreter.SB;
+		default:
+			return 0;
+		}
+	}
+
+	private boolean isCodeAddr(int addr) {
+		return addr >= Machine.CB && addr < CT;
+	}
+
+	private int decodeOne(int addr, Instruction inst) {
+		if (inst.op < 0 || inst.op >= Machine.intToOp.length)
+			return SLOW;
+		int r = inst.r;
+		boolean fixed = isFixed(r);
+		boolean lb = r == Machine.Reg.LB.ordinal();
+		boolean ob = r == Machine.Reg.OB.ordinal();
+		int abs = fixed ? inst.d + fixedContent(r, addr) : 0;
+
+		switch (Machine.intToOp[inst.op]) {
+		case LOAD:
+			if (fixed) {
+				d[addr] = abs;
+				return LOAD_ABS;
+			}
+			return lb ? LOAD_LB : ob ? LOAD_OB : SLOW;
+		case LOADA:
+			if (fixed) {
+				d[addr] = abs;
+				return LOADL;
+			}
+			return lb ? LOADA_LB : ob ? LOADA_OB : SLOW;
+		case LOADI:
+			return LOADI;
+		case LOADL:
+			return LOADL;
+		case STORE:
+			if (fixed) {
+				d[addr] = abs;
+				return STORE_ABS;
+			}
+			return lb ? STORE_LB : ob ? STORE_OB : SLOW;
+		case STOREI:
+			return STOREI;
+		case CALL:
+			if (!fixed)
+				return SLOW;
+			if (abs >= Machine.PB) {
+				if (abs >= Machine.PT)
+					return SLOW;
+				d[addr] = abs - Machine.PB;
+				return decodePrimitive(abs - Machine.PB);
+			}
+			d[addr] = abs;
+			return isCodeAddr(abs) ? CALL : SLOW;
+		case CALLI:
+			if (!fixed)
+				return SLOW;
+			d[addr] = abs;
+			return isCodeAddr(abs) ? CALLI : SLOW;
+		case CALLD:
+			return CALLD;
+		case RETURN:
+			return (inst.n == 0 || inst.n == 1) ? RETURN : SLOW;
+		case PUSH:
+			return PUSH;
+		case POP:
+			return POP;
+		case JUMP:
+			if (!fixed)
+				return SLOW;
+			d[addr] = abs;
+			return isCodeAddr(abs) ? JUMP : SLOW;
+		case JUMPI:
+			return JUMPI;
+		case JUMPIF:
+			if (!fixed)
+				return SLOW;
+			d[addr] = abs;
+			return isCodeAddr(abs) ? JUMPIF : SLOW;
+		case HALT:
+			return inst.n > 0 ? SNAPSHOT : HALT;
+		case ADDL:
+			return ADDL;
+		case FIELDREFL:
+			return FIELDREFL;
+		case FIELDUPDL:
+			return FIELDUPDL;
+		case JUMPNE:
+		case JUMPLT:
+		case JUMPLE:
+		case JUMPGE:
+		case JUMPGT:
+			if (!fixed)
+				return SLOW;
+			d[addr] = abs;
+			return isCodeAddr(abs) ? decodeJump(Machine.intToOp[inst.op]) : SLOW;
+		default:
+			Machine.Prim prim = Machine.primOf(Machine.intToOp[inst.op]);
+			if (prim == null)
+				return SLOW;
+			d[addr] = prim.ordinal();
+			return decodePrimitive(prim.ordinal());
+		}
+	}
+
+	private static int decodeJump(Machine.Op op) {
+		switch (op) {
+		case JUMPNE:
+			return JUMPNE;
+		case JUMPLT:
+			return JUMPLT;
+		case JUMPLE:
+			return JUMPLE;
+		case JUMPGE:
+			return JUMPGE;
+		default:
+			return JUMPGT;
+		}
+	}
+
+	private static int decodePrimitive(int id) {
+		switch (Machine.intToPrim[id]) {
+		case id:
+			return P_ID;
+		case not:
+			return P_NOT;
+		case and:
+			return P_AND;
+		case or:
+			return P_OR;
+		case succ:
+			return P_SUCC;
+		case pred:
+			return P_PRED;
+		case neg:
+			return P_NEG;
+		case add:
+			return P_ADD;
+		case sub:
+			return P_SUB;
+		case mult:
+			return P_MULT;
+		case div:
+			return P_DIV;
+		case mod:
+			return P_MOD;
+		case lt:
+			return P_LT;
+		case le:
+			return P_LE;
+		case ge:
+			return P_GE;
+		case gt:
+			return P_GT;
+		case eq:
+			return P_EQ;
+		case ne:
+			return P_NE;
+		case newobj:
+			return P_NEWOBJ;
+		case newarr:
+			return P_NEWARR;
+		case arraylen:
+			return P_ARRAYLEN;
+		case arrayref:
+			return P_ARRAYREF;
+		case arrayupd:
+			return P_ARRAYUPD;
+		case fieldref:
+			return P_FIELDREF;
+		case fieldupd:
+			return P_FIELDUPD;
+		case putintnl:
+			return P_PUTINTNL;
+		default:
+			return PRIM;
+		}
+	}
+}
@@ -58,7 +58,7 @@ public class Disassembler {
 	 * @param n   the integer to write.
 	 */
 	private void writeN(int n) {
-		asmWrite(String.format("%-6s","(" + n + ")"));
+		asmWrite(String.format("%-5s ","(" + n + ")"));
 	}
 
 	/**
@@ -90,7 +90,7 @@ public class Disassembler {
 			targetLabel = addrToLabel.get(instr.d);
 
 		Machine.Op instruction = Machine.intToOp[instr.op];
-		asmWrite(String.format("%-7s",instruction.toString()));
+		asmWrite(String.format("%-10s",instruction.toString()));
 		switch (instruction) {
 		case LOAD:
 			blankN();
@@ -173,7 +173,26 @@ public class Disassembler {
 			writeN(instr.n);
 			break;
 
+		case ADDL:
+		case FIELDREFL:
+		case FIELDUPDL:
+			blankN();
+			writeD(instr.d);
+			break;
+
+		case JUMPNE:
+		case JUMPLT:
+		case JUMPLE:
+		case JUMPGE:
+		case JUMPGT:
+			writeN(instr.n);
+			asmWrite(targetLabel);
+			break;
+
 		default:
+			if (Machine.primOf(instruction) != null)
+				break;
+
 			asmWrite("????  ");
 			writeN(instr.n);
 			writeD(instr.d);
@@ -183,23 +202,15 @@ public class Disassembler {
 	}
 
 	/**
-	 * disassembles program held in code store
+	 * Labels the targets of jumps and calls in code[CB .. ct-1] as in the
+	 * asm listing, L10 first
+	 * @return labels by code address
 	 */
-	void disassembleProgram(String asmFileName) {
-
-		try {
-			asmOut = new FileWriter(asmFileName);
-		} catch (IOException e) {
-			System.out.println("Disassembler: can not create asm output file "
-					+ asmName);
-			error = true;
-			return;
-		}
-
+	static Map<Integer, String> labels(Instruction[] code, int ct) {
 		// collect all addresses that may be the target of a jump instruction
 		SortedSet<Integer> targets = new TreeSet<Integer>();
-		for (int addr = Machine.CB; addr < Machine.CT; addr++) {
-			Instruction inst = Machine.code[addr];
+		for (int addr = Machine.CB; addr < ct; addr++) {
+			Instruction inst = code[addr];
 			Machine.Op op = Machine.intToOp[inst.op];
 			switch (op) {
 			case CALL:
@@ -214,6 +225,11 @@ public class Disassembler {
 				targets.add(inst.d);
 				break;
 			case JUMPIF:
+			case JUMPNE:
+			case JUMPLT:
+			case JUMPLE:
+			case JUMPGE:
+			case JUMPGT:
 				// a jump of any sort creates a branch target
 				targets.add(inst.d);
 				break;
@@ -223,12 +239,31 @@ public class Disassembler {
 		}
 
 		// map branch target addresses to unique labels
-		addrToLabel = new HashMap<Integer, String>();
+		Map<Integer, String> addrToLabel = new HashMap<Integer, String>();
 		int labelCounter = 10;
 		for (Integer addr : targets) {
 			String label = "L" + labelCounter++ ;
 			addrToLabel.put(addr, label);
 		}
+		return addrToLabel;
+	}
+
+	/**
+	 * disassembles program held in code store
+	 */
+	void disassembleProgram(String asmFileName) {
+
+		try {
+			asmOut = new FileWriter(asmFileName);
+		} catch (IOException e) {
+			System.out.println("Disassembler: can not create asm output file "
+					+ asmName);
+			error = true;
+			return;
+		}
+
+		Instruction[] code = Machine.code();
+		addrToLabel = labels(code, Machine.CT);
 
 		// disassemble each instruction
 		for (int addr = Machine.CB; addr < Machine.CT; addr++) {
@@ -243,7 +278,7 @@ public class Disassembler {
 				asmWrite("       ");
 
 			// instruction
-			writeInstruction(Machine.code[addr]);
+			writeInstruction(code[addr]);
 
 			// newline 
 			asmWrite("\n");
@@ -0,0 +1,202 @@
+/**
+ * Superinstruction fusion for decoded mJAM code
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import static mJAM.DecodedCode.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rewrites frequent instruction sequences in decoded code into single
+ * fused operations, so that the run loop dispatches once per sequence
+ * instead of once per instruction.
+ *
+ * Only the first instruction of a sequence is replaced.  The remaining
+ * instructions keep their own decoded operation, so a jump into the middle
+ * of a fused sequence still executes the rest of it correctly, and a fused
+ * operation that cannot complete (overflow, stack full, failing array
+ * access) simply executes its first instruction and lets the unfused tail
+ * reproduce the exact failure.  Fused operations read their extra operands
+ * from the d fields of the following entries; the n field of the first
+ * entry holds the primitive to apply (for comparisons, the one that holds
+ * exactly when the branch is taken).
+ */
+public final class Fusion {
+
+	// names of the fusions, in the order they are reported
+	final static String
+		INCR = "LOAD[LB] LOADL add|sub STORE[LB]",
+		CMPL_JUMPIF = "LOAD[LB] LOADL cmp JUMPIF",
+		CMP2_JUMPIF = "LOAD[LB] LOAD[LB] cmp JUMPIF",
+		CMP_JUMPIF = "cmp JUMPIF",
+		ARRAYREF = "LOAD[LB] LOAD[LB] arrayref",
+		INCRL = "LOAD[LB] ADDL STORE[LB]",
+		JUMPCMP = "LOAD[LB] JUMPIF|JUMPcmp";
+
+	private Fusion() {
+	}
+
+	/**
+	 * Fuse the hot sequences in decoded code.
+	 * @param dc  decoded code, rewritten in place
+	 * @return number of sites rewritten for each fusion
+	 */
+	public static Map<String, Integer> fuse(DecodedCode dc) {
+		Map<String, Integer> fired = new LinkedHashMap<String, Integer>();
+		fired.put(INCR, 0);
+		fired.put(CMPL_JUMPIF, 0);
+		fired.put(CMP2_JUMPIF, 0);
+		fired.put(CMP_JUMPIF, 0);
+		fired.put(ARRAYREF, 0);
+		fired.put(INCRL, 0);
+		fired.put(JUMPCMP, 0);
+
+		// match against the unfused operations, fused heads may overlap
+		int[] base = dc.op.clone();
+		int[] op = dc.op, n = dc.n;
+		for (int addr = Machine.CB; addr < dc.CT; addr++) {
+			int cmp;
+			if (matches(base, addr, LOAD_LB, LOADL, -1, STORE_LB)
+					&& (base[addr + 2] == P_ADD || base[addr + 2] == P_SUB)) {
+				op[addr] = F_INCR;
+				n[addr] = base[addr + 2];
+				count(fired, INCR);
+			} else if (matches(base, addr, LOAD_LB, LOADL, -1, JUMPIF)
+					&& (cmp = branchOn(base[addr + 2], n[addr + 3])) != 0) {
+				op[addr] = F_CMPL_JUMPIF;
+				n[addr] = cmp;
+				count(fired, CMPL_JUMPIF);
+			} else if (matches(base, addr, LOAD_LB, LOAD_LB, -1, JUMPIF)
+					&& (cmp = branchOn(base[addr + 2], n[addr + 3])) != 0) {
+				op[addr] = F_CMP2_JUMPIF;
+				n[addr] = cmp;
+				count(fired, CMP2_JUMPIF);
+			} else if (matches(base, addr, LOAD_LB, ADDL, STORE_LB)) {
+				op[addr] = F_INCRL;
+				count(fired, INCRL);
+			} else if (matches(base, addr, LOAD_LB, -1)
+					&& (cmp = jumpOn(base[addr + 1])) != 0) {
+				op[addr] = F_JUMPCMP;
+				n[addr] = cmp;
+				count(fired, JUMPCMP);
+			} else if (matches(base, addr, LOAD_LB, LOAD_LB, P_ARRAYREF)) {
+				op[addr] = F_ARRAYREF;
+				count(fired, ARRAYREF);
+			} else if (matches(base, addr, -1, JUMPIF)
+					&& (cmp = branchOn(base[addr], n[addr + 1])) != 0) {
+				op[addr] = F_CMP_JUMPIF;
+				n[addr] = cmp;
+				count(fired, CMP_JUMPIF);
+			}
+		}
+		return fired;
+	}
+
+	/**
+	 * @return true if the operations starting at addr are ops, where -1
+	 * matches any operation
+	 */
+	private static boolean matches(int[] base, int addr, int... ops) {
+		for (int i = 0; i < ops.length; i++) {
+			int at = addr + i;
+			if (at >= base.length || base[at] == END)
+				return false;
+			if (ops[i] != -1 && base[at] != ops[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Combines comparison primitive cmp with a following JUMPIF (n) into the
+	 * comparison that holds exactly when the branch is taken.
+	 * @return comparison to branch on, or 0 if cmp is not a comparison or
+	 * the branch can never be taken
+	 */
+	private static int branchOn(int cmp, int n) {
+		boolean ifTrue;
+		if (n == Machine.trueRep)
+			ifTrue = true;
+		else if (n == Machine.falseRep)
+			ifTrue = false;
+		else
+			return 0;
+		switch (cmp) {
+		case P_LT:
+			return ifTrue ? P_LT : P_GE;
+		case P_LE:
+			return ifTrue ? P_LE : P_GT;
+		case P_GE:
+			return ifTrue ? P_GE : P_LT;
+		case P_GT:
+			return ifTrue ? P_GT : P_LE;
+		case P_EQ:
+			return ifTrue ? P_EQ : P_NE;
+		case P_NE:
+			return ifTrue ? P_NE : P_EQ;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * @return comparison of the stack top with the literal n under which
+	 * compare-literal-and-branch operation jump branches, or 0 if jump is not
+	 * one
+	 */
+	private static int jumpOn(int jump) {
+		switch (jump) {
+		case JUMPIF:
+			return P_EQ;
+		case JUMPNE:
+			return P_NE;
+		case JUMPLT:
+			return P_LT;
+		case JUMPLE:
+			return P_LE;
+		case JUMPGE:
+			return P_GE;
+		case JUMPGT:
+			return P_GT;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Evaluates a comparison recorded by branchOn or jumpOn
+	 */
+	static boolean test(int cmp, int a, int b) {
+		switch (cmp) {
+		case P_LT:
+			return a < b;
+		case P_LE:
+			return a <= b;
+		case P_GE:
+			return a >= b;
+		case P_GT:
+			return a > b;
+		case P_EQ:
+			return a == b;
+		default:
+			return a != b;
+		}
+	}
+
+	private static void count(Map<String, Integer> fired, String fusion) {
+		fired.put(fusion, fired.get(fusion) + 1);
+	}
+
+	/**
+	 * Writes the number of sites rewritten by each fusion
+	 */
+	static void report(Map<String, Integer> fired) {
+		System.out.println("Superinstructions:");
+		for (Map.Entry<String, Integer> e : fired.entrySet()) {
+			System.out.println(String.format("  %6d  %s", e.getValue(), e.getKey()));
+		}
+	}
+}
@@ -0,0 +1,483 @@
+/**
+ * Binary dumps of the mJAM heap, and their analysis
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The objects in the heap of a machine and what refers to them, written
+ * with -heapdump at the end of a run, or by the debugger command heapdump,
+ * and analyzed offline with
+ *
+ *     java mJAM.HeapDump dump [object file]
+ *
+ * which reports, by allocation site, how many objects and words there are,
+ * how many are reachable, and how much of the heap each site keeps alive,
+ * and the objects that keep most of it alive.  With the object file and its
+ * debug info the sites are named by method and source line.  A run that
+ * fails keeps its stack, so a dump after failedDataStoreFull shows what
+ * filled the heap; after a normal halt only the static fields are left to
+ * refer to anything.
+ *
+ * The file holds big-endian ints, like an object file:
+ *
+ *     magic, version, HB, ST, HT, OB, number of blocks,
+ *     data[SB .. ST-1],
+ *     for each block from HT up: header, size, site, size words
+ *
+ * The blocks are those of the heap: header is the class object address, or
+ * -2 for an array, size the number of fields or elements, then the
+ * allocation site (see HeapProfiler, -1 if unknown) and the fields.  A free
+ * block of the collector has the header -3 and no words after the site, so
+ * a dump is not much larger than the live part of the heap.
+ *
+ * References are found as the collector finds them: any word on the stack,
+ * OB, and any field of a reachable object that is the address of an object
+ * is taken to refer to it.  The retained size of an object is the words of
+ * all objects that are reachable only through it, itself included: the
+ * objects it dominates in the reference graph from the roots, computed with
+ * the iterative algorithm of Cooper, Harvey and Kennedy.
+ */
+final class HeapDump {
+
+	final static int magic = 0x6D4A4844; // "mJHD"
+	final static int version = 1;
+	final static int freeTag = Collector.freeTag;
+
+	final int hb, st, ht, ob;
+	final int[] stack; // data[SB .. ST-1]
+
+	// the blocks from HT up: address of the header, header, size, site,
+	// and where their fields start in fields
+	final int blocks;
+	final int[] addr, header, size, site, start;
+	final int[] fields;
+
+	private HeapDump(int hb, int st, int ht, int ob, int[] stack, int blocks, int[] addr,
+			int[] header, int[] size, int[] site, int[] start, int[] fields) {
+		this.hb = hb;
+		this.st = st;
+		this.ht = ht;
+		this.ob = ob;
+		this.stack = stack;
+		this.blocks = blocks;
+		this.addr = addr;
+		this.header = header;
+		this.size = size;
+		this.site = site;
+		this.start = start;
+		this.fields = fields;
+	}
+
+	/**
+	 * @param siteOf  allocation site by block address, or null
+	 * @return the heap of machine, or null if it cannot be walked (after
+	 * newarr with a negative length)
+	 */
+	static HeapDump of(VirtualMachine machine, int[] siteOf) {
+		int[] data = machine.data;
+		int ht = machine.HT, hb = machine.HB, blocks = 0, words = 0;
+		for (int block = ht; block < hb; block += data[block + 1] + 2) {
+			if (block + 2 > hb || data[block + 1] < 0 || data[block + 1] > hb - block - 2)
+				return null;
+			blocks++;
+			if (data[block] != freeTag)
+				words += data[block + 1];
+		}
+		int[] addr = new int[blocks], header = new int[blocks], size = new int[blocks],
+				site = new int[blocks], start = new int[blocks], fields = new int[words];
+		int b = 0, at = 0;
+		for (int block = ht; block < hb; block += data[block + 1] + 2, b++) {
+			addr[b] = block;
+			header[b] = data[block];
+			size[b] = data[block + 1];
+			site[b] = siteOf != null && data[block] != freeTag ? siteOf[block] : -1;
+			start[b] = at;
+			if (data[block] != freeTag) {
+				System.arraycopy(data, block + 2, fields, at, size[b]);
+				at += size[b];
+			}
+		}
+		// the main program of miniJava returns past SB
+		int st = Math.max(machine.ST, Interpreter.SB);
+		return new HeapDump(hb, st, ht, machine.OB,
+				Arrays.copyOfRange(data, Interpreter.SB, st), blocks, addr, header, size, site,
+				start, fields);
+	}
+
+	void write(String file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)))) {
+			for (int word : new int[] { magic, version, hb, st, ht, ob, blocks })
+				out.writeInt(word);
+			for (int word : stack)
+				out.writeInt(word);
+			for (int b = 0; b < blocks; b++) {
+				out.writeInt(header[b]);
+				out.writeInt(size[b]);
+				out.writeInt(site[b]);
+				if (header[b] != freeTag) {
+					for (int i = start[b]; i < start[b] + size[b]; i++)
+						out.writeInt(fields[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the heap dump in file
+	 * @throws IOException if it cannot be read or is not a heap dump
+	 */
+	static HeapDump read(String file) throws IOException {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != magic || in.readInt() != version)
+				throw new IOException(file + " is not a heap dump");
+			int hb = in.readInt(), st = in.readInt(), ht = in.readInt(), ob = in.readInt(),
+					blocks = in.readInt();
+			if (st < Interpreter.SB || ht < st || ht > hb || blocks < 0 || blocks > hb - ht)
+				throw new IOException(file + " is not a valid heap dump");
+			int[] stack = new int[st - Interpreter.SB];
+			for (int i = 0; i < stack.length; i++)
+				stack[i] = in.readInt();
+			int[] addr = new int[blocks], header = new int[blocks], size = new int[blocks],
+					site = new int[blocks], start = new int[blocks];
+			int[] fields = new int[Math.min(hb - ht, 1 << 16)];
+			int block = ht, at = 0;
+			for (int b = 0; b < blocks; b++) {
+				addr[b] = block;
+				header[b] = in.readInt();
+				size[b] = in.readInt();
+				site[b] = in.readInt();
+				start[b] = at;
+				if (size[b] < 0 || size[b] > hb - block - 2)
+					throw new IOException(file + " is not a valid heap dump");
+				if (header[b] != freeTag) {
+					if (at + size[b] > fields.length)
+						fields = Arrays.copyOf(fields, Math.max(at + size[b], 2 * fields.length));
+					for (int i = 0; i < size[b]; i++)
+						fields[at++] = in.readInt();
+				}
+				block += size[b] + 2;
+			}
+			if (block != hb || in.read() >= 0)
+				throw new IOException(file + " is not a valid heap dump");
+			return new HeapDump(hb, st, ht, ob, stack, blocks, addr, header, size, site, start,
+					Arrays.copyOf(fields, at));
+		} catch (EOFException e) {
+			throw new IOException(file + " is not a valid heap dump");
+		}
+	}
+
+	/**
+	 * @return the block of the object at address ref, or -1 if ref is not
+	 * the address of an object in the heap
+	 */
+	int blockOf(int ref) {
+		if (ref - 2 < ht || ref - 2 >= hb)
+			return -1;
+		int b = Arrays.binarySearch(addr, ref - 2);
+		return b >= 0 && header[b] != freeTag ? b : -1;
+	}
+
+	/**
+	 * @return the blocks reachable from the stack and OB
+	 */
+	BitSet reachable() {
+		BitSet marked = new BitSet(blocks);
+		int[] work = new int[64];
+		int pending = 0;
+		for (int i = -1; i < stack.length; i++) {
+			int b = blockOf(i < 0 ? ob : stack[i]);
+			if (b >= 0 && !marked.get(b)) {
+				marked.set(b);
+				if (pending == work.length)
+					work = Arrays.copyOf(work, 2 * pending);
+				work[pending++] = b;
+			}
+		}
+		while (pending > 0) {
+			int from = work[--pending];
+			for (int i = start[from]; i < start[from] + size[from]; i++) {
+				int b = blockOf(fields[i]);
+				if (b >= 0 && !marked.get(b)) {
+					marked.set(b);
+					if (pending == work.length)
+						work = Arrays.copyOf(work, 2 * pending);
+					work[pending++] = b;
+				}
+			}
+		}
+		return marked;
+	}
+
+	/**
+	 * Computes the immediate dominators of the reachable objects
+	 * @param idom  set to the immediate dominator of each block, blocks for
+	 * the roots, -1 for unreachable blocks
+	 * @return the reachable blocks in reverse postorder from the roots
+	 */
+	int[] dominators(int[] idom) {
+		// graph of the reachable blocks, node = blocks for the roots
+		int root = blocks;
+		int[] succStart = new int[blocks + 2];
+		int[] rootSuccs = new int[stack.length + 1];
+		int roots = 0;
+		for (int i = -1; i < stack.length; i++) {
+			int b = blockOf(i < 0 ? ob : stack[i]);
+			if (b >= 0)
+				rootSuccs[roots++] = b;
+		}
+		int[] succ = new int[fields.length + roots];
+		int edges = 0;
+		for (int b = 0; b < blocks; b++) {
+			succStart[b] = edges;
+			if (header[b] == freeTag)
+				continue;
+			for (int i = start[b]; i < start[b] + size[b]; i++) {
+				int to = blockOf(fields[i]);
+				if (to >= 0)
+					succ[edges++] = to;
+			}
+		}
+		succStart[root] = edges;
+		System.arraycopy(rootSuccs, 0, succ, edges, roots);
+		edges += roots;
+		succStart[root + 1] = edges;
+
+		// postorder by depth-first search from the roots
+		int[] post = new int[blocks + 1], order = new int[blocks + 1];
+		Arrays.fill(post, -1);
+		int[] stackNode = new int[blocks + 1], stackEdge = new int[blocks + 1];
+		boolean[] seen = new boolean[blocks + 1];
+		int depth = 0, visited = 0;
+		stackNode[0] = root;
+		stackEdge[0] = succStart[root];
+		seen[root] = true;
+		while (depth >= 0) {
+			int node = stackNode[depth];
+			if (stackEdge[depth] < succStart[node + 1]) {
+				int to = succ[stackEdge[depth]++];
+				if (!seen[to]) {
+					seen[to] = true;
+					depth++;
+					stackNode[depth] = to;
+					stackEdge[depth] = succStart[to];
+				}
+			} else {
+				post[node] = visited;
+				order[visited++] = node;
+				depth--;
+			}
+		}
+
+		// predecessors of the reachable nodes
+		int[] predStart = new int[blocks + 2];
+		for (int from = 0; from <= blocks; from++) {
+			if (post[from] < 0)
+				continue;
+			for (int e = succStart[from]; e < succStart[from + 1]; e++)
+				predStart[succ[e] + 1]++;
+		}
+		for (int i = 0; i <= blocks; i++)
+			predStart[i + 1] += predStart[i];
+		int[] pred = new int[predStart[blocks + 1]], filled = Arrays.copyOf(predStart, blocks + 1);
+		for (int from = 0; from <= blocks; from++) {
+			if (post[from] < 0)
+				continue;
+			for (int e = succStart[from]; e < succStart[from + 1]; e++)
+				pred[filled[succ[e]]++] = from;
+		}
+
+		// iterate to the fixed point, in reverse postorder
+		int[] dom = new int[blocks + 1];
+		Arrays.fill(dom, -1);
+		dom[root] = root;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = visited - 2; i >= 0; i--) {
+				int node = order[i], newIdom = -1;
+				for (int e = predStart[node]; e < predStart[node + 1]; e++) {
+					int p = pred[e];
+					if (dom[p] < 0)
+						continue;
+					if (newIdom < 0)
+						newIdom = p;
+					else {
+						int a = p, b = newIdom;
+						while (a != b) {
+							while (post[a] < post[b])
+								a = dom[a];
+							while (post[b] < post[a])
+								b = dom[b];
+						}
+						newIdom = a;
+					}
+				}
+				if (dom[node] != newIdom) {
+					dom[node] = newIdom;
+					changed = true;
+				}
+			}
+		}
+		System.arraycopy(dom, 0, idom, 0, blocks);
+		int[] rpo = new int[visited - 1];
+		for (int i = 0; i < visited - 1; i++)
+			rpo[i] = order[visited - 2 - i];
+		return rpo;
+	}
+
+	/**
+	 * Writes the analysis of the dump: the blocks by allocation site (or by
+	 * class object for unknown sites), and the objects retaining most words
+	 * @param info  debug info of the program, or null
+	 */
+	void report(PrintStream out, DebugInfo info) {
+		int[] idom = new int[blocks];
+		int[] rpo = dominators(idom);
+		long[] retained = new long[blocks];
+		for (int i = rpo.length - 1; i >= 0; i--) {
+			int b = rpo[i];
+			retained[b] += size[b] + 2;
+			if (idom[b] != blocks)
+				retained[idom[b]] += retained[b];
+		}
+
+		// groups: by site, or by header for unknown sites
+		Map<Long, Integer> groupOf = new HashMap<Long, Integer>();
+		List<Integer> first = new ArrayList<Integer>();
+		int[] group = new int[blocks];
+		long objects = 0, words = 0, free = 0;
+		for (int b = 0; b < blocks; b++) {
+			if (header[b] == freeTag) {
+				free += size[b] + 2;
+				group[b] = -1;
+				continue;
+			}
+			objects++;
+			words += size[b] + 2;
+			long key = site[b] >= 0 ? site[b] : (1L << 32) + header[b];
+			Integer g = groupOf.get(key);
+			if (g == null) {
+				groupOf.put(key, g = first.size());
+				first.add(b);
+			}
+			group[b] = g;
+		}
+		int groups = first.size();
+		long[] count = new long[groups], groupWords = new long[groups],
+				live = new long[groups], groupRetained = new long[groups];
+		for (int b = 0; b < blocks; b++) {
+			if (group[b] >= 0) {
+				count[group[b]]++;
+				groupWords[group[b]] += size[b] + 2;
+			}
+		}
+		// a group retains what its objects retain that no other object of
+		// the group already retains: the objects without a dominator of the
+		// same group, found walking down the dominator tree
+		int[] childStart = new int[blocks + 2], child = new int[rpo.length];
+		for (int b : rpo)
+			childStart[idom[b] + 1]++;
+		for (int i = 0; i <= blocks; i++)
+			childStart[i + 1] += childStart[i];
+		int[] filled = Arrays.copyOf(childStart, blocks + 1);
+		for (int b : rpo)
+			child[filled[idom[b]]++] = b;
+		int[] active = new int[groups], walkNode = new int[rpo.length + 1], walkEdge = new int[rpo.length + 1];
+		int depth = 0;
+		walkNode[0] = blocks;
+		walkEdge[0] = childStart[blocks];
+		while (depth >= 0) {
+			int node = walkNode[depth];
+			if (walkEdge[depth] < childStart[node + 1]) {
+				int b = child[walkEdge[depth]++];
+				live[group[b]]++;
+				if (active[group[b]]++ == 0)
+					groupRetained[group[b]] += retained[b];
+				depth++;
+				walkNode[depth] = b;
+				walkEdge[depth] = childStart[b];
+			} else {
+				if (node != blocks)
+					active[group[node]]--;
+				depth--;
+			}
+		}
+
+		long reachableWords = 0;
+		for (int b : rpo)
+			reachableWords += size[b] + 2;
+		out.println(String.format("Heap of %d words from HT = %d to HB = %d:", hb - ht, ht, hb));
+		out.println(String.format("  %10d  objects and arrays, of %d words", objects, words));
+		out.println(String.format("  %10d  reachable, of %d words", rpo.length, reachableWords));
+		out.println(String.format("  %10d  words in free blocks", free));
+		out.println();
+		out.println(String.format("%12s%12s%12s%12s  %s", "objects", "words", "reachable", "retained",
+				"site"));
+		List<Integer> order = new ArrayList<Integer>();
+		for (int g = 0; g < groups; g++)
+			order.add(g);
+		order.sort((a, b) -> groupRetained[a] != groupRetained[b]
+				? Long.compare(groupRetained[b], groupRetained[a])
+				: Long.compare(groupWords[b], groupWords[a]));
+		for (int g : order)
+			out.println(String.format("%12d%12d%12d%12d  %s", count[g], groupWords[g], live[g],
+					groupRetained[g], groupName(first.get(g), info)));
+		out.println();
+		out.println(String.format("%12s%12s%12s  %s", "retained", "words", "object", "site"));
+		List<Integer> largest = new ArrayList<Integer>();
+		for (int b : rpo)
+			largest.add(b);
+		largest.sort((a, b) -> Long.compare(retained[b], retained[a]));
+		for (int b : largest.subList(0, Math.min(10, largest.size())))
+			out.println(String.format("%12d%12d%12d  %s", retained[b], size[b] + 2, addr[b] + 2,
+					groupName(b, info)));
+	}
+
+	/**
+	 * @return the site of block, or its kind if the site is unknown
+	 */
+	private String groupName(int b, DebugInfo info) {
+		if (site[b] >= 0)
+			return HeapProfiler.siteName(site[b], info).trim();
+		return header[b] == -2 ? "arrays of unknown site"
+				: "objects of class " + header[b] + ", unknown site";
+	}
+
+	/**
+	 * Reports on a heap dump
+	 * @param args  dump file, and optionally the object file of the program,
+	 * whose debug info names the allocation sites
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("usage: java mJAM.HeapDump dump [object file]");
+			System.exit(3);
+		}
+		try {
+			HeapDump dump = read(args[0]);
+			dump.report(System.out, args.length > 1 ? DebugInfo.forObjectFile(args[1]) : null);
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			System.exit(3);
+		}
+	}
+}
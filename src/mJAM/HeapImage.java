@@ -0,0 +1,185 @@
+/**
+ * Reads and writes images of the mJAM data store and machine snapshots
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A heap image is the used part of a data store saved to a file: the stack
+ * from SB to ST, and the heap from HT to HB.  By the time a program halts,
+ * main has returned below the static fields at the bottom of the stack, so
+ * the stack of a heap image is saved up to the end of the static fields
+ * that the PUSH instructions at CB reserve.  A run that starts from an
+ * image finds its heap and static fields as the run that saved it left
+ * them (the PUSH that reserves the static fields does not clear them), so
+ * a program can check whether its data structures are already there
+ * instead of building them again.
+ *
+ * A snapshot is a heap image that also holds the registers CP, LB and OB,
+ * so that a run can continue where the one that saved it was, e.g. after
+ * the setup phase of a program.  A heap image has CP = -1.
+ *
+ * The file holds big-endian ints, like an object file:
+ *
+ *     magic, version, HB, ST, HT, CP, LB, OB, code hash,
+ *     data[SB .. ST-1], data[HT .. HB-1]
+ *
+ * Images and snapshots only load into machines running the same code, with a
+ * data store of the same size.  They are read and written through
+ * memory-mapped buffers, so the data store is copied to and from the file in
+ * bulk, a few hundred megabytes at a time, without going through a stream.
+ * The run loops keep working on the int array of the data store.
+ */
+final class HeapImage {
+
+	final static int magic = 0x6D4A484D; // "mJHM"
+	final static int version = 2;
+	final static int headerWords = 9;
+
+	// most words mapped at once
+	private final static int chunkWords = 1 << 26;
+
+	private HeapImage() {
+	}
+
+	/**
+	 * @return size of the data store saved in image file
+	 */
+	static int size(String file) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+			return header(channel)[2];
+		}
+	}
+
+	/**
+	 * Writes the used part of the data store of machine to file, with the
+	 * registers if it is a snapshot
+	 */
+	static void write(VirtualMachine machine, String file, boolean snapshot) throws IOException {
+		int[] data = machine.data;
+		int st = snapshot ? machine.ST : Math.max(machine.ST, staticWords(machine));
+		int ht = machine.HT, hb = machine.HB;
+		int[] header = { magic, version, hb, st, ht, -1, 0, 0, codeHash(machine) };
+		if (snapshot) {
+			header[5] = machine.CP;
+			header[6] = machine.LB;
+			header[7] = machine.OB;
+		}
+		long words = headerWords + (long) (st - Interpreter.SB) + (hb - ht);
+		try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			map(channel, FileChannel.MapMode.READ_WRITE, 0, headerWords)
+					.put(header);
+			long at = headerWords;
+			at = transfer(channel, at, data, Interpreter.SB, st, true);
+			transfer(channel, at, data, ht, hb, true);
+			if (channel.size() != words * 4)
+				throw new IOException("short write to " + file);
+		}
+	}
+
+	/**
+	 * Reads image file into the data store of machine, which must have the
+	 * size of the saved one and run the same code, and sets ST and HT as
+	 * saved, and CP, LB and OB too if the file is a snapshot
+	 * @return true if the file is a snapshot
+	 */
+	static boolean read(VirtualMachine machine, String file) throws IOException {
+		Path path = Paths.get(file);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			int[] header = header(channel);
+			int hb = header[2], st = header[3], ht = header[4], cp = header[5];
+			if (hb != machine.HB)
+				throw new IOException(file + " is an image of a data store of " + hb
+						+ " words, not " + machine.HB);
+			if (header[8] != codeHash(machine))
+				throw new IOException(file + " was saved by another program");
+			if (st < Interpreter.SB || ht < st || ht > hb || cp < -1 || cp >= machine.CT
+					|| channel.size() != 4 * (headerWords + (long) (st - Interpreter.SB) + (hb - ht)))
+				throw new IOException(file + " is not a valid heap image");
+			long at = headerWords;
+			at = transfer(channel, at, machine.data, Interpreter.SB, st, false);
+			transfer(channel, at, machine.data, ht, hb, false);
+			machine.ST = st;
+			machine.HT = ht;
+			if (cp < 0)
+				return false;
+			machine.CP = cp;
+			machine.LB = header[6];
+			machine.OB = header[7];
+			return true;
+		}
+	}
+
+	/**
+	 * @return words of static fields reserved by the PUSH instructions the
+	 * code of machine starts with, as the CodeGenerator emits them
+	 */
+	static int staticWords(VirtualMachine machine) {
+		int words = 0;
+		for (int addr = Machine.CB; addr < machine.CT
+				&& machine.code[addr].op == Machine.Op.PUSH.ordinal(); addr++)
+			words += machine.code[addr].d;
+		return words;
+	}
+
+	/**
+	 * @return hash of the instructions machine runs
+	 */
+	static int codeHash(VirtualMachine machine) {
+		int hash = machine.CT;
+		for (int addr = Machine.CB; addr < machine.CT; addr++) {
+			Instruction inst = machine.code[addr];
+			hash = 31 * (31 * (31 * (31 * hash + inst.op) + inst.n) + inst.r) + inst.d;
+		}
+		return hash;
+	}
+
+	/**
+	 * @return header of an image, checked for magic and version
+	 */
+	private static int[] header(FileChannel channel) throws IOException {
+		if (channel.size() < 4 * headerWords)
+			throw new IOException("not a heap image");
+		int[] header = new int[headerWords];
+		map(channel, FileChannel.MapMode.READ_ONLY, 0, headerWords).get(header);
+		if (header[0] != magic || header[1] != version || header[2] < 1)
+			throw new IOException("not a heap image");
+		return header;
+	}
+
+	/**
+	 * Copies data[from .. to-1] to or from the file, starting at word at
+	 * @return word after the copied ones
+	 */
+	private static long transfer(FileChannel channel, long at, int[] data, int from, int to,
+			boolean write) throws IOException {
+		FileChannel.MapMode mode = write ? FileChannel.MapMode.READ_WRITE
+				: FileChannel.MapMode.READ_ONLY;
+		for (int i = from; i < to; ) {
+			int n = Math.min(chunkWords, to - i);
+			IntBuffer buffer = map(channel, mode, at, n);
+			if (write)
+				buffer.put(data, i, n);
+			else
+				buffer.get(data, i, n);
+			at += n;
+			i += n;
+		}
+		return at;
+	}
+
+	private static IntBuffer map(FileChannel channel, FileChannel.MapMode mode, long word, int words)
+			throws IOException {
+		return channel.map(mode, 4 * word, 4L * words).order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Allocation site profiler for mJAM programs
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import static mJAM.DecodedCode.*;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Records where the objects and arrays of a program are allocated, enabled
+ * with -allocs or -heapdump: the code address of the newobj or newarr that
+ * made each one.  At the end of the run it writes, for each allocation site,
+ * the number of allocations and words allocated (the two header words
+ * included), and how many of those objects and words are still reachable:
+ *
+ *      allocations       words   reachable  reach.words  site
+ *             1922        7688        1922         7688     25  Cache.remember line 16
+ *
+ * The run loop allocates without calling out, so install turns the newobj and
+ * newarr of the decoded code into SLOW operations, which executeOneOperation
+ * runs through callPrimitive, where allocated is called.  A run without the
+ * profiler is not slowed down at all; with it every allocation leaves the run
+ * loop.  The site of each object is kept by the address of its block, so the
+ * heap dump can tell where the objects in it come from, see HeapDump.
+ * Objects that a heap image or snapshot brought along have an unknown site.
+ */
+final class HeapProfiler {
+
+	private final VirtualMachine machine;
+
+	// allocation site of the block at each data store address, or -1
+	final int[] siteOf;
+
+	// allocations and words allocated at each code address
+	private final long[] allocations, words;
+
+	HeapProfiler(VirtualMachine machine) {
+		this.machine = machine;
+		siteOf = new int[machine.HB];
+		Arrays.fill(siteOf, -1);
+		allocations = new long[machine.CT];
+		words = new long[machine.CT];
+	}
+
+	/**
+	 * Makes the run loop leave the decoded code at every allocation
+	 */
+	void install() {
+		int[] op = machine.decoded.op;
+		for (int addr = Machine.CB; addr < machine.CT; addr++) {
+			if (op[addr] == P_NEWOBJ || op[addr] == P_NEWARR)
+				op[addr] = SLOW;
+		}
+	}
+
+	/**
+	 * Records that the code at site allocated the block of size words at
+	 * block, header included
+	 */
+	void allocated(int site, int block, int size) {
+		siteOf[block] = site;
+		if (site >= Machine.CB && site < allocations.length) {
+			allocations[site]++;
+			words[site] += size;
+		}
+	}
+
+	/**
+	 * @return the code address and source line of an allocation site
+	 * @param info  debug info of the program, or null
+	 */
+	static String siteName(int site, DebugInfo info) {
+		if (site < 0)
+			return "    ?  unknown site";
+		String name = String.format("%5d", site);
+		int line = info != null ? info.lineAt(site) : 0;
+		String method = info != null ? info.methodAt(site) : null;
+		if (method != null)
+			name += "  " + method;
+		if (line > 0)
+			name += " line " + line;
+		return name;
+	}
+
+	/**
+	 * Writes the allocations of each site to file, the sites that allocated
+	 * most words first, and a summary to the output of the machine
+	 * @param info  debug info of the program, or null
+	 */
+	void write(String file, DebugInfo info) throws IOException {
+		long[] reachable = new long[machine.CT], reachableWords = new long[machine.CT];
+		HeapDump heap = HeapDump.of(machine, siteOf);
+		if (heap != null) {
+			BitSet live = heap.reachable();
+			for (int b = live.nextSetBit(0); b >= 0; b = live.nextSetBit(b + 1)) {
+				int site = heap.site[b];
+				if (site >= Machine.CB && site < machine.CT) {
+					reachable[site]++;
+					reachableWords[site] += heap.size[b] + 2;
+				}
+			}
+		}
+		List<Integer> sites = new ArrayList<Integer>();
+		long total = 0, totalWords = 0;
+		for (int site = Machine.CB; site < machine.CT; site++) {
+			if (allocations[site] > 0) {
+				sites.add(site);
+				total += allocations[site];
+				totalWords += words[site];
+			}
+		}
+		sites.sort((a, b) -> Long.compare(words[b], words[a]));
+		try (FileWriter out = new FileWriter(file)) {
+			out.write(String.format("%12s%12s%12s%13s  %s%n",
+					"allocations", "words", "reachable", "reach.words", "site"));
+			for (int site : sites)
+				out.write(String.format("%12d%12d%12d%13d  %s%n", allocations[site], words[site],
+						reachable[site], reachableWords[site], siteName(site, info)));
+		}
+		PrintStream out = machine.out;
+		out.println("Allocations:");
+		out.println(String.format("  %10d  allocations of %d words, at %d sites, in %s",
+				total, totalWords, sites.size(), file));
+		for (int site : sites.subList(0, Math.min(5, sites.size())))
+			out.println(String.format("  %10d  words  %s", words[site], siteName(site, info).trim()));
+		if (heap == null)
+			out.println("  the heap cannot be walked, reachable objects are not counted");
+	}
+}
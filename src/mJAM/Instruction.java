@@ -25,9 +25,10 @@ public class Instruction {
 	// assumed:
 	//
 	//  type
-	//    OpCode = 0..15;  {4 bits unsigned}
+	//    OpCode = 0..63;  {6 bits unsigned}
 	//    Register = 0..15; (4 bits unsigned)
-	//    Length = 0..255;  {8 bits unsigned}
+	//    Length = 0..255;  {8 bits unsigned, or a 32 bit literal for JUMPIF
+	//                         and the other compare-and-branch operations}
 	//    Operand = -2147483648 .. +2147483647;  (32 bits signed for use with LOADL)
 	public int op; // OpCode
 	public int r;  // RegisterNumber
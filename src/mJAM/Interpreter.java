@@ -12,688 +12,298 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.TreeMap;
+
+import static mJAM.DecodedCode.*;
 
 // import mJAM.Machine.Reg;
 
 public class Interpreter {
 
-	// DATA STORE
-	static int[] data = new int[1024];
+	// DATA STORE, allocated by loadMachine
+	static int[] data;
 
 	// DATA STORE REGISTERS AND OTHER REGISTERS
-	final static int CB = 0, SB = 0, HB = 1024; // = upper bound of data array + 1
+	final static int CB = 0, SB = 0;
+	static int HB = VirtualMachine.defaultSize; // = upper bound of data array + 1, see -datastore
 										
 
-	static int CT, CP, ST, HT, LB, OB, status, temp;
+	static int CT, CP, ST, HT, LB, OB, status;
 
-	// machine status values
-	final static int running = 0, halted = 1, failedDataStoreFull = 2,
+	// machine status values, also those of miniJava.TreeInterpreter
+	public final static int running = 0, halted = 1, failedDataStoreFull = 2,
 			failedInvalidCodeAddress = 3, failedInvalidInstruction = 4,
 			failedOverflow = 5, failedZeroDivide = 6, failedIOError = 7,
 			failedArrayIndex = 8, failedNullRef = 9, failedHeapRef =10,
-			failedFieldIndex = 11, failedMethodIndex = 12;
+			failedFieldIndex = 11, failedMethodIndex = 12,
+			failedFuelExhausted = 13;
 
 	static long accumulator;
 
+	// machine running the program in the code store, see VirtualMachine.
+	// It shares the data store above; the registers above are a copy for the
+	// run loops and the debugger that work on them, and are exchanged with
+	// the machine around every call into it.  Compiled code and the tracer
+	// work on the machine itself.
+	static VirtualMachine machine;
+
+	// CODE STORE, as instructions and decoded, at load time
+	static Instruction[] code;
+	static DecodedCode decoded;
+
+	// interpreter options
+	static boolean fuse = true, reportFusions = false;
+
+	// run with the top of stack cached in a local, see TosInterpreter
+	static boolean cacheTop = false;
+
+	// run closure-compiled code, see ClosureCompiler
+	static boolean closures = false;
+
+	// compile hot code to JVM bytecode, see Jit
+	static boolean jit = false;
+
+	// compile traces of hot loops to JVM bytecode, see Tracer
+	static boolean trace = false;
+
+	// instructions the program may execute, see VirtualMachine.setFuel
+	static long fuel = VirtualMachine.unlimited;
+
+	// collect garbage when the heap is full, see Collector
+	static boolean gc = false;
+
+	// heap image to start from if it exists, and to save after a halt
+	static String imageFile;
+
+	// snapshot saved at HALT n > 0, and snapshot to continue from
+	static String snapshotFile, restoreFile;
+
+	// folded stacks of a profile of the run, and instructions between its
+	// samples, see Profiler
+	static String profileFile;
+	static long sampleInterval = Profiler.defaultInterval;
+	static Profiler profiler;
+
+	// execution counts of the source lines, written to countFile, see
+	// LineCounter
+	static String countFile;
+	static LineCounter lineCounter;
+
+	// allocations by site, and heap dump, written at the end of the run,
+	// see HeapProfiler and HeapDump
+	static String allocsFile, heapDumpFile;
+
 	// Debugger state
 	enum DebuggerStatus {
 		PAUSED, RUNNING
 	}
 
 	static DebuggerStatus debuggerStatus = DebuggerStatus.PAUSED;
-	static ArrayList<Integer> breakpoints = new ArrayList<Integer>();
-	static ArrayList<String> sourceLines;
-
-	static int content(int r) {
-		// Returns the current content of register r,
-		Machine.Reg reg = Machine.intToReg[r];
-		switch (reg) {
-		case CB:
-			return CB;
-		case CT:
-			return CT;
-		case PB:
-			return Machine.PB;
-		case PT:
-			return Machine.PT;
-		case SB:
-			return SB;
-		case ST:
-			return ST;
-		case HB:
-			return HB;
-		case HT:
-			return HT;
-		case LB:
-			return LB;
-		case OB:
-			return OB;
-		case CP:
-			return CP;
-		default:
-			return 0;
-		}
-	}
+	static ArrayList<String> asmLines;
+
+	// source lines of the program and the code generated for each of them,
+	// if the compiler wrote a debug info file, see DebugInfo
+	static DebugInfo debugInfo;
+	static List<String> programLines;
+
+	// breakpoints by code address, and the conditions of conditional ones.
+	// A breakpoint replaces its decoded operation by BREAK, so that the run
+	// loop stops there; plainOps keeps the decoded operations to put back.
+	static BitSet breakpoints = new BitSet();
+	static Map<Integer, Condition> conditions = new HashMap<Integer, Condition>();
+	static int[] plainOps;
+
+	// watched data store addresses, with the value last seen at each
+	static TreeMap<Integer, Integer> watchpoints = new TreeMap<Integer, Integer>();
 
 	// PROGRAM STATUS
 
 	static void dump() {
-		// Writes a summary of the machine state.
-		int addr, dynamicLink;
-		System.out.println("");
-		System.out.println("At instruction " + CP
-				+ ", state of mJAM data store and registers is:");
-		System.out.println("");
-		if (HT == HB)
-			System.out.println("            |--------|          (heap is empty)");
-		else {
-			System.out.println("      HB--> ");
-			System.out.println("            |--------|");
-			for (addr = HB - 1; addr >= HT; addr--) {
-				System.out.print(rightPad(6, addr + ":"));
-				if (addr == OB)
-					System.out.print("OB--> ");
-				else if (addr == HT)
-					System.out.print("HT--> ");
-				else
-					System.out.print("      ");
-				System.out.println("|" + leftPad(8, String.valueOf(data[addr]))
-						+ "|");
-			}
-			System.out.println("            |--------|");
-		}
-		System.out.println("            |////////|");
-		System.out.println("            |////////|");
-		if (ST == SB)
-			System.out.println("            |--------|          (stack is empty)");
-		else {
-			dynamicLink = LB;
-			System.out.println("      ST--> |////////|");
-			System.out.println("            |--------|");
-			for (addr = ST - 1; addr >= SB; addr--) {
-				System.out.print(rightPad(6, addr + ": "));
-				if (addr == SB)
-					System.out.print("SB--> ");
-				else if (addr == LB)
-					System.out.print("LB--> ");
-				else
-					System.out.print("      ");
-				if ((addr == dynamicLink) && (dynamicLink != SB))
-					System.out.print("|OB="
-							+ leftPad(5, String.valueOf(data[addr])) + "|");
-				else if ((addr == dynamicLink + 1) && (dynamicLink != SB))
-					System.out.print("|DL="
-							+ leftPad(5, String.valueOf(data[addr])) + "|");
-				else if ((addr == dynamicLink + 2) && (dynamicLink != SB))
-					System.out.print("|RA="
-							+ leftPad(5, String.valueOf(data[addr])) + "|");
-				else
-					System.out.print("|"
-							+ leftPad(8, String.valueOf(data[addr])) + "|");
-				System.out.println("");
-				if (addr == dynamicLink) {
-					System.out.println("            |--------|");
-					dynamicLink = data[addr + 1];
-				}
-			}
-		}
-		System.out.println("");
+		toMachine();
+		machine.dump();
 	}
 
-	private static String leftPad(int len, String s) {
-		int aLen = Math.max(len, s.length());
-		StringBuffer buf = new StringBuffer(s);
-		String r = buf.insert(0, "        ").toString();
-		return r.substring(r.length() - aLen, r.length());
+	static void snapshot() {
+		toMachine();
+		machine.snapshot();
 	}
 
-	private static String rightPad(int len, String s) {
-		int aLen = Math.max(len, s.length());
-		String r = s + "        ";
-		return r.substring(0, aLen);
+	static void showStatus() {
+		toMachine();
+		machine.showStatus();
 	}
 
-	static void showStatus() {
-		// Writes an indication of whether and why the program has terminated.
-		System.out.println("");
-		System.out.print("*** ");
-		switch (status) {
-		case running:
-			System.out.println("Program is running.");
-			break;
-		case halted:
-			System.out.println("Program has halted normally.");
-			break;
-		case failedDataStoreFull:
-			System.out.println("Program has failed due to exhaustion of Data Store.");
-			break;
-		case failedInvalidCodeAddress:
-			System.out.println("Program has failed due to an invalid code address.");
-			break;
-		case failedInvalidInstruction:
-			System.out.println("Program has failed due to an invalid instruction.");
-			break;
-		case failedOverflow:
-			System.out.println("Program has failed due to overflow.");
-			break;
-		case failedZeroDivide:
-			System.out.println("Program has failed due to division by zero.");
-			break;
-		case failedIOError:
-			System.out.println("Program has failed due to an IO error.");
-			break;
-		case failedArrayIndex:
-			System.out.println("Program has failed due to an array index error.");
-			break;
-		case failedNullRef:
-			System.out.println("Program has failed due to a null pointer reference.");
-			break;
-		case failedHeapRef:
-			System.out.println("Program has failed due to an invalid Heap reference.");
-			break;
-		case failedFieldIndex:
-			System.out.println("Program has failed due to a field index error.");
-			break;
-		case failedMethodIndex:
-			System.out.println("Program has failed due to an improper method index in CALLD.");
-			break;
-		default:
-			System.out.println("Machine is in an unknown state.");
-			break;
+	static void writeHeapDump(String file) {
+		toMachine();
+		HeapDump heap = HeapDump.of(machine,
+				machine.heapProfiler != null ? machine.heapProfiler.siteOf : null);
+		if (heap == null) {
+			System.out.println("Unable to write heap dump " + file + ", the heap cannot be walked");
+			return;
+		}
+		try {
+			heap.write(file);
+			System.out.println("Wrote heap dump " + file);
+		} catch (IOException e) {
+			System.out.println("Unable to write heap dump " + file);
 		}
-		if (status != halted)
-			dump();
 	}
 
 	// INTERPRETATION
 
-	static void checkSpace(int spaceNeeded) {
-		// Signals failure if there is not enough space to expand the stack or
-		// heap by spaceNeeded.
-		if (HT - ST < spaceNeeded)
-			status = failedDataStoreFull;
+	static boolean isTrue(int datum) {
+		// Tests whether the given datum represents true.
+		return (datum == Machine.trueRep);
 	}
 
-	static boolean invalidHeapRef(int addr) {
-		// if addr is null ptr or outside of heap bounds, sets status to failure
-		if (addr == Machine.nullRep)
-			status = failedNullRef;
-		else if (addr < HT + 2 || addr > HB)
-			status = failedHeapRef;
-		return (status != running);
+	static int toInt(boolean b) {
+		return b ? Machine.trueRep : Machine.falseRep;
 	}
 
-	static boolean isTrue(int datum) {
-		// Tests whether the given datum represents true.
-		return (datum == Machine.trueRep);
+	// Executes one instruction for the debugger, and pauses it at a
+	// breakpoint or when a watched word has changed.  Only the debugger runs
+	// instructions one at a time with these checks, interpret runs the
+	// program in runDecoded.
+	static void interpretOneOperation() {
+		executeOneOperation();
+		machine.io.flush();
+
+		if (watchpointHit() | breakpointHit())
+			debuggerStatus = DebuggerStatus.PAUSED;
 	}
 
-	static int overflowChecked(long datum) {
-		// Signals failure if the datum is too large to fit into a single word,
-		// otherwise returns the datum as a single word.
-		if ((Machine.minintRep <= datum) && (datum <= Machine.maxintRep))
-			return (int) datum;
-		else {
-			status = failedOverflow;
-			return 0;
-		}
+	/**
+	 * @return true if the machine is at a breakpoint whose condition holds
+	 */
+	static boolean breakpointHit() {
+		if (status != running || !breakpoints.get(CP))
+			return false;
+		Condition condition = conditions.get(CP);
+		if (condition != null && !condition.holds())
+			return false;
+		System.out.println("Breakpoint hit: " + asmLines.get(CP));
+		return true;
 	}
 
-	static int toInt(boolean b) {
-		return b ? Machine.trueRep : Machine.falseRep;
+	/**
+	 * Prints the source line the code at CP was generated for, if the
+	 * program has debug info
+	 */
+	static void showSource() {
+		if (debugInfo == null || status != running)
+			return;
+		int line = debugInfo.lineAt(CP);
+		if (line <= 0 || line > programLines.size())
+			return;
+		String method = debugInfo.methodAt(CP);
+		System.out.println(debugInfo.source + ":" + line + (method != null ? " in " + method : "")
+				+ ":  " + programLines.get(line - 1).trim());
 	}
 
-	static int currentChar;
-
-	static int readInt() throws java.io.IOException {
-		int temp = 0;
-		int sign = 1;
-
-		do {
-			currentChar = System.in.read();
-		} while (Character.isWhitespace((char) currentChar));
-
-		if ((currentChar == '-') || (currentChar == '+'))
-			do {
-				sign = (currentChar == '-') ? -1 : 1;
-				currentChar = System.in.read();
-			} while ((currentChar == '-') || currentChar == '+');
-
-		if (Character.isDigit((char) currentChar))
-			do {
-				temp = temp * 10 + (currentChar - '0');
-				currentChar = System.in.read();
-			} while (Character.isDigit((char) currentChar));
-
-		return sign * temp;
-	}
-
-	// Invoke primitive operation with argument(s) on the stack
-	// primitives are static and are not supplied an instance on the stack.
-	static void callPrimitive(int id) {
-
-		int addr, size, index;
-		char ch;
-
-		Machine.Prim prim = Machine.intToPrim[id];
-		switch (prim) {
-		case id:
-			break; // nothing to be done
-		case not:
-			data[ST - 1] = toInt(!isTrue(data[ST - 1]));
-			break;
-		case and:
-			ST = ST - 1;
-			data[ST - 1] = toInt(isTrue(data[ST - 1]) & isTrue(data[ST]));
-			break;
-		case or:
-			ST = ST - 1;
-			data[ST - 1] = toInt(isTrue(data[ST - 1]) | isTrue(data[ST]));
-			break;
-		case succ:
-			data[ST - 1] = overflowChecked(data[ST - 1] + 1);
-			break;
-		case pred:
-			data[ST - 1] = overflowChecked(data[ST - 1] - 1);
-			break;
-		case neg:
-			data[ST - 1] = overflowChecked(-data[ST - 1]);
-			break;
-		case add:
-			ST = ST - 1;
-			accumulator = data[ST - 1];
-			data[ST - 1] = overflowChecked(accumulator + data[ST]);
-			break;
-		case sub:
-			ST = ST - 1;
-			accumulator = data[ST - 1];
-			data[ST - 1] = overflowChecked(accumulator - data[ST]);
-			break;
-		case mult:
-			ST = ST - 1;
-			accumulator = data[ST - 1];
-			data[ST - 1] = overflowChecked(accumulator * data[ST]);
-			break;
-		case div:
-			ST = ST - 1;
-			accumulator = data[ST - 1];
-			if (data[ST] != 0)
-				data[ST - 1] = (int) (accumulator / data[ST]);
-			else
-				status = failedZeroDivide;
-			break;
-		case mod:
-			ST = ST - 1;
-			accumulator = data[ST - 1];
-			if (data[ST] != 0)
-				data[ST - 1] = (int) (accumulator % data[ST]);
-			else
-				status = failedZeroDivide;
-			break;
-		case lt:
-			ST = ST - 1;
-			data[ST - 1] = toInt(data[ST - 1] < data[ST]);
-			break;
-		case le:
-			ST = ST - 1;
-			data[ST - 1] = toInt(data[ST - 1] <= data[ST]);
-			break;
-		case ge:
-			ST = ST - 1;
-			data[ST - 1] = toInt(data[ST - 1] >= data[ST]);
-			break;
-		case gt:
-			ST = ST - 1;
-			data[ST - 1] = toInt(data[ST - 1] > data[ST]);
-			break;
-		case eq:
-			ST = ST - 1;
-			data[ST - 1] = toInt(data[ST - 1] == data[ST]);
-			break;
-		case ne:
-			ST = ST - 1;
-			data[ST - 1] = toInt(data[ST - 1] != data[ST]);
-			break;
-		case eol:
-			data[ST] = toInt(currentChar == '\n');
-			ST = ST + 1;
-			break;
-		case eof:
-			data[ST] = toInt(currentChar == -1);
-			ST = ST + 1;
-			break;
-		case get:
-			ST = ST - 1;
-			addr = data[ST];
-			try {
-				currentChar = System.in.read();
-			} catch (java.io.IOException s) {
-				status = failedIOError;
-			}
-			data[addr] = (int) currentChar;
-			break;
-		case put:
-			ST = ST - 1;
-			ch = (char) data[ST];
-			System.out.print(ch);
-			break;
-		case geteol:
-			try {
-				while ((currentChar = System.in.read()) != '\n')
-					;
-			} catch (java.io.IOException s) {
-				status = failedIOError;
-			}
-			break;
-		case puteol:
-			System.out.println("");
-			break;
-		case getint:
-			ST = ST - 1;
-			addr = data[ST];
-			try {
-				accumulator = readInt();
-			} catch (java.io.IOException s) {
-				status = failedIOError;
-			}
-			data[addr] = (int) accumulator;
-			break;
-		case putint:
-			ST = ST - 1;
-			accumulator = data[ST];
-			System.out.print(accumulator);
-			break;
-		// output with prefix for tester
-		case putintnl:
-			ST = ST - 1;
-			accumulator = data[ST];
-			System.out.print(">>> " + accumulator + "\n");
-			break;
-		case alloc:
-			size = data[ST - 1];
-			checkSpace(size);
-			HT = HT - size;
-			data[ST - 1] = HT;
-			break;
-		case dispose:
-			ST = ST - 1; // no action taken at present
-			break;
-		case newobj:
-			// ..., class obj addr, number of fields ==> ..., new obj addr
-			size = data[ST - 1] + 2; // number of fields + 2 word descriptor
-			checkSpace(size);
-			HT = HT - size;          // reserve space
-			data[HT] = data[ST - 2]; // set class object addr
-			data[HT + 1] = size - 2; // set size of object
-			data[ST - 2] = HT + 2;   // addr of new object instance, returned on stack
-			ST = ST - 1;             // net effect of pop 2 args, push 1 result
-			for (int i = 2; i < size; i++) {
-				data[HT + i] = 0;    // zero all fields of new object
-			}
-			break;
-		case newarr:
-			// ..., number of elements ==> ..., new int[] addr
-			size = data[ST - 1] + 2;  // array  + 2 word descriptor
-			checkSpace(size);
-			HT = HT - size;
-			data[HT] = -2;            // tag for array
-			data[HT + 1] = size - 2;  // size of array
-			data[ST - 1] = HT + 2;    // addr of array instance, returned on stack
-			for (int i = 2; i < size; i++) {
-				data[HT + i] = 0;     // zero all elements of new array
-			}
-			break;
-		case arraylen:
-			// ..., array addr a ==> ... , array.length
-			addr = data[ST-1];
-			if (invalidHeapRef(addr))
-				break;                   // invalid heap address
-			if (data[addr - 2] != -2) {
-				status = failedHeapRef;  // not tagged as array in heap
-				break;
-			}
-			data[ST-1] = data[addr - 1]; // return array length field
-			break;
-		case arrayref:
-			// ..., array addr a, element index i ==> ..., a[i]
-			addr = data[ST - 2];
-			if (invalidHeapRef(addr))
-				break;
-			index = data[ST - 1];
-			if (data[addr - 2] != -2 || index < 0 || index >= data[addr - 1]) {
-				status = failedArrayIndex;
-				break;
+	/**
+	 * @return true if a watched word has changed since it was last seen
+	 */
+	static boolean watchpointHit() {
+		boolean hit = false;
+		for (Map.Entry<Integer, Integer> watch : watchpoints.entrySet()) {
+			int value = data[watch.getKey()];
+			if (value != watch.getValue()) {
+				System.out.println("Watchpoint hit: " + watch.getKey() + " changed from "
+						+ watch.getValue() + " to " + value);
+				watch.setValue(value);
+				hit = true;
 			}
-			data[ST - 2] = data[addr + index];  // result element, returned on stack
-			ST = ST - 1;                        // pop two args, return one result
-			break;
-		case arrayupd:
-			// ..., array addr a, element index i, new value v ==> ...
-			// and a[i] := v
-			addr = data[ST - 3];
-			if (invalidHeapRef(addr))
-				break;
-			index = data[ST - 2];
-			if (data[addr - 2] != -2 || index < 0 || index >= data[addr - 1]) {
-				status = failedArrayIndex;
-				break;
-			}
-			data[addr + index] = data[ST - 1]; // update array element
-			ST = ST - 3;                       // pop 3 args, return no result
-			break;
-		case fieldref:
-			// ..., obj addr a, field index i ==> ..., value of ith field of a
-			addr = data[ST - 2];
-			if (invalidHeapRef(addr))
-				break;
-			index = data[ST - 1];
-			if (index < 0 || index >= data[addr - 1]) {
-				status = failedFieldIndex;
-				break;
-			}
-			data[ST - 2] = data[addr + index];   // field to stack top
-			ST = ST - 1;                         // pop two args, return one result
-			break;
-		case fieldupd:
-			// ..., obj addr a, field index i, new value v ==> ...
-			// and a.i := v
-			addr = data[ST - 3];
-			if (invalidHeapRef(addr))
-				break;
-			index = data[ST - 2];
-			if (index < 0 || index >= data[addr - 1]) {
-				status = failedFieldIndex;	
-				break;	
-			}	
-			data[addr + index] = data[ST - 1];	// update field to new value
-			ST = ST - 3;						// pop 3 args, return no result
-			break;
 		}
+		return hit;
 	}
 
-	static void interpretOneOperation() {
-		// Fetch instruction ...
-		Instruction currentInstr = Machine.code[CP];
-		// Decode instruction ...
-		int op = currentInstr.op;
-		int r = currentInstr.r;
-		int n = currentInstr.n;
-		int d = currentInstr.d;
-		int addr;
-		// Execute instruction ...
-
-		Machine.Op operation = Machine.intToOp[op];
-
-		switch (operation) {
-		case LOAD:
-			addr = d + content(r);
-			checkSpace(1);
-			data[ST] = data[addr];
-			ST = ST + 1;
-			CP = CP + 1;
-			break;
-		case LOADA:
-			addr = d + content(r);
-			checkSpace(1);
-			data[ST] = addr;
-			ST = ST + 1;
-			CP = CP + 1;
-			break;
-		case LOADI:
-			ST = ST - 1;
-			addr = data[ST];
-			checkSpace(1);
-			data[ST] = data[addr];
-			ST = ST + 1;
-			CP = CP + 1;
-			break;
-		case LOADL:
-			checkSpace(1);
-			data[ST] = d;
-			ST = ST + 1;
-			CP = CP + 1;
-			break;
-		case STORE:
-			addr = d + content(r);
-			ST = ST - 1;
-			data[addr] = data[ST];
-			CP = CP + 1;
-			break;
-		case STOREI:
-			ST = ST - 1;
-			addr = data[ST];
-			ST = ST - 1;
-			data[addr] = data[ST];
-			CP = CP + 1;
-			break;
-			
-		case CALL:
-			// call static method, including primitives
-			// arguments are on stack
-			addr = d + content(r);      // effective address
-			if (addr >= Machine.PB) {
-				callPrimitive(addr - Machine.PB);
-				CP = CP + 1;
-			} else {
-				// static method in code segment, no instance addr on stack
-				checkSpace(3);
-				data[ST] = OB;         // save caller OB in callee frame
-				data[ST + 1] = LB;     // save caller LB in callee frame (dynamic link)
-				data[ST + 2] = CP + 1; // save caller return address in callee frame
-				OB = Machine.nullRep;  // set callee OB (null since no instance) 
-				LB = ST;               // set LB = start of callee frame
-				ST = ST + 3;           // set ST = end of callee frame
-				CP = addr;             // execution resumes at addr specified in CALL inst
-			}
-			break;
-			
-		case CALLI:
-			// call instance method
-			// arguments on stack, followed by instance address
-			addr = d + content(r);      // effective address
-			if (addr >= Machine.CT) {
-				// no instance methods outside of code segment
-				status = failedInvalidInstruction;
-				break;
-			}
-			// instance address is last arg on stack and is overwritten by frame
-			checkSpace(2);
-			temp = data[ST - 1];   // save instance address temporarily
-			data[ST - 1] = OB;     // save caller OB in callee frame
-			data[ST] = LB;         // save caller LB in callee frame (dynamic link)
-			data[ST + 1] = CP + 1; // save caller return address in callee frame
-			OB = temp;             // set OB for callee
-			LB = ST - 1;           // set LB = start of callee frame
-			ST = ST + 2;           // set ST = end of callee frame 
-			CP = addr;             // execution resumes at addr specified in CALL inst
-			break;
-			
-		case RETURN: 
-			// d = number of method args (does not include instance addr for CALLI)
-			// n = size of result (0 or 1)
-			if (n < 0 || n > 1) {
-				status = failedInvalidInstruction;
-				break;
-			}
-			addr = LB - d;          // addr of caller args
-			OB = data[LB];          // restore caller OB, LB, CP
-			CP = data[LB + 2];
-			LB = data[LB + 1];
-			if (n == 1)
-				data[addr] = data[ST - 1];  // return value if any
-			ST = addr + n;          // caller stack top
-			break;
-			
-		case CALLD: 
-			// dynamic method dispatch of method with index d (origin 0)
-			// arguments on stack, followed by instance addr
-			{
-				addr = data[ST - 1];    // instance addr
-				if (invalidHeapRef(addr))
-					break;
-				int classDescAddr = data[addr - 2];
-				if (classDescAddr >= ST || classDescAddr <= SB || d >= data[classDescAddr + 1] || d < 0) {
-					status = failedMethodIndex;
-					break;
-				}
-				ST = ST - 1;
-				checkSpace(3);
-				data[ST] = OB;
-				data[ST + 1] = LB;
-				data[ST + 2] = CP + 1;
-				OB = addr;
-				LB = ST;
-				ST = ST + 3;
-				CP = data[classDescAddr + 2 + n];
-			}
-			break;
-		case PUSH: // push d elements on stack
-			checkSpace(d);
-			ST = ST + d;
-			CP = CP + 1;
-			break;
-		case POP: // pop d elements off stack
-			ST = ST - d;
-			CP = CP + 1;
-			break;
-		case JUMP:
-			CP = d + content(r);
-			break;
-		case JUMPI:
-			ST = ST - 1;
-			CP = data[ST];
-			break;
-		case JUMPIF:
-			ST = ST - 1;
-			if (data[ST] == n)
-				CP = d + content(r);
-			else
-				CP = CP + 1;
-			break;
-		case HALT:
-			if (n > 0) {
-				// halt n > 0 --> snapshot machine state and continue execution
-				dump();
-				CP = CP + 1;
-			} else
-				status = halted;
-			break;
+	static void executeOneOperation() {
+		toMachine();
+		machine.executeOneOperation();
+		fromMachine();
+	}
+
+	/**
+	 * @return true if compare-literal-and-branch operation op branches when
+	 * the stack top is value and the literal is n
+	 */
+	static boolean jumpTaken(Machine.Op op, int value, int n) {
+		switch (op) {
+		case JUMPNE:
+			return value != n;
+		case JUMPLT:
+			return value < n;
+		case JUMPLE:
+			return value <= n;
+		case JUMPGE:
+			return value >= n;
+		case JUMPGT:
+			return value > n;
+		default:
+			return value == n;
 		}
+	}
 
-		if ((CP < CB) || (CP >= CT))
-			status = failedInvalidCodeAddress;
+	/**
+	 * Allocates an object that does not fit between stack and heap, see
+	 * VirtualMachine.allocate
+	 * @return address of the object, or -1 if the heap is full
+	 */
+	static int allocate(int header, int size) {
+		toMachine();
+		int addr = machine.allocate(header, size);
+		fromMachine();
+		return addr;
+	}
 
-		if (breakpoints.indexOf(CP) != -1) {
-			debuggerStatus = DebuggerStatus.PAUSED;
-			System.out.println("Breakpoint hit: " + sourceLines.get(CP));
-		}
+	/**
+	 * Runs the decoded program on machine from the current machine state
+	 * until it halts or fails
+	 */
+	static void runDecoded() {
+		toMachine();
+		machine.runDecoded();
+		fromMachine();
+	}
+
+	private static void toMachine() {
+		machine.CP = CP;
+		machine.ST = ST;
+		machine.HT = HT;
+		machine.LB = LB;
+		machine.OB = OB;
+		machine.status = status;
+		machine.accumulator = accumulator;
+	}
+
+	private static void fromMachine() {
+		CP = machine.CP;
+		ST = machine.ST;
+		HT = machine.HT;
+		LB = machine.LB;
+		OB = machine.OB;
+		status = machine.status;
+		accumulator = machine.accumulator;
+	}
+
+	/**
+	 * Sets up machine for the program in the code store
+	 */
+	static void loadMachine() {
+		data = new int[HB];
+		machine = new VirtualMachine(new Program(code, Machine.CT, decoded),
+				decoded, data, System.in, System.out);
 	}
 
 	static void initMachine() {
 		// Initialize registers ...
 		ST = SB;
-		HT = HB;
+		HT = machine.heapTop;
 		LB = SB;
 		CP = CB;
 		OB = -1; // invalid instance addr
@@ -702,11 +312,25 @@ public class Interpreter {
 	}
 
 	static void interpretProgram() {
-		// Runs the program in code store.
-		initMachine();
-		do {
-			interpretOneOperation();
-		} while (status == running);
+		// Runs the program in code store, from a restored snapshot if any.
+		if (restoreFile != null)
+			fromMachine();
+		else
+			initMachine();
+		if (lineCounter != null) {
+			toMachine();
+			lineCounter.run();
+			fromMachine();
+		} else if (profiler != null) {
+			toMachine();
+			profiler.run();
+			fromMachine();
+		} else if (closures)
+			ClosureCompiler.run();
+		else if (cacheTop)
+			TosInterpreter.run();
+		else
+			runDecoded();
 	}
 
 	static void runProgramFromStart() {
@@ -715,10 +339,168 @@ public class Interpreter {
 	}
 
 	static void continueProgram() {
+		runUntilReturn(SB - 1);
+	}
+
+	/**
+	 * Executes one instruction, and all of a routine it calls
+	 */
+	static void stepOver() {
+		int op = plainOps[CP];
 		debuggerStatus = DebuggerStatus.RUNNING;
-		do {
+		interpretOneOperation();
+		if (op == CALL || op == CALLI || op == CALLD)
+			runUntilReturn(LB);
+	}
+
+	/**
+	 * Runs until a breakpoint or watchpoint is hit or the frame at exitLB
+	 * returns.  Without watchpoints the program runs in runDecoded, which
+	 * stops at the BREAK operations of the breakpoints, so the debugger only
+	 * steps through the instructions at breakpoints.
+	 */
+	static void runUntilReturn(int exitLB) {
+		debuggerStatus = DebuggerStatus.RUNNING;
+		while (status == running && debuggerStatus == DebuggerStatus.RUNNING && LB >= exitLB) {
 			interpretOneOperation();
-		} while (status == running && debuggerStatus == DebuggerStatus.RUNNING);
+			if (watchpoints.isEmpty() && status == running
+					&& debuggerStatus == DebuggerStatus.RUNNING && LB >= exitLB) {
+				machine.exitLB = exitLB;
+				runDecoded();
+				machine.exitLB = SB - 1;
+				machine.io.flush();
+				if (breakpointHit())
+					debuggerStatus = DebuggerStatus.PAUSED;
+			}
+		}
+	}
+
+	static void setBreakpoint(int addr, Condition condition) {
+		breakpoints.set(addr);
+		if (condition != null)
+			conditions.put(addr, condition);
+		else
+			conditions.remove(addr);
+		decoded.op[addr] = BREAK;
+	}
+
+	static void clearBreakpoint(int addr) {
+		breakpoints.clear(addr);
+		conditions.remove(addr);
+		decoded.op[addr] = plainOps[addr];
+	}
+
+	/**
+	 * Condition of a breakpoint: two operands and a comparison, e.g.
+	 * "3[LB] > 10" or "ST >= 900".  An operand is a number, a register, or
+	 * a data store word addressed as by LOAD, d[r].
+	 */
+	static final class Condition {
+		private final static String[] relations = { "==", "!=", "<=", ">=", "<", ">" };
+
+		private final String text, relation;
+		private final Operand left, right;
+
+		private Condition(String text, Operand left, String relation, Operand right) {
+			this.text = text;
+			this.left = left;
+			this.relation = relation;
+			this.right = right;
+		}
+
+		/**
+		 * @return the condition in text, or null if it is not one
+		 */
+		static Condition parse(String text) {
+			for (String relation : relations) {
+				int at = text.indexOf(relation);
+				if (at >= 0) {
+					Operand left = Operand.parse(text.substring(0, at).trim());
+					Operand right = Operand.parse(text.substring(at + relation.length()).trim());
+					if (left == null || right == null)
+						return null;
+					return new Condition(text.trim(), left, relation, right);
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return data store address d[r] or d in text, or -1 if it is not one
+		 */
+		static int address(String text) {
+			Operand operand = Operand.parse(text);
+			return operand == null ? -1 : operand.address();
+		}
+
+		boolean holds() {
+			int a, b;
+			try {
+				a = left.value();
+				b = right.value();
+			} catch (ArrayIndexOutOfBoundsException e) {
+				return false; // a word outside the data store
+			}
+			switch (relation) {
+			case "==":
+				return a == b;
+			case "!=":
+				return a != b;
+			case "<=":
+				return a <= b;
+			case ">=":
+				return a >= b;
+			case "<":
+				return a < b;
+			default:
+				return a > b;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+
+	private static final class Operand {
+		private final Machine.Reg reg; // null for a number
+		private final int d;
+		private final boolean word;
+
+		private Operand(Machine.Reg reg, int d, boolean word) {
+			this.reg = reg;
+			this.d = d;
+			this.word = word;
+		}
+
+		static Operand parse(String text) {
+			try {
+				int open = text.indexOf('[');
+				if (open < 0) {
+					if (text.matches("-?\\d+"))
+						return new Operand(null, Integer.parseInt(text), false);
+					return new Operand(Machine.Reg.valueOf(text.toUpperCase()), 0, false);
+				}
+				if (!text.endsWith("]"))
+					return null;
+				return new Operand(Machine.Reg.valueOf(text.substring(open + 1,
+						text.length() - 1).toUpperCase()), Integer.parseInt(text.substring(0, open)), true);
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+		}
+
+		int address() {
+			if (reg == null)
+				return d;
+			toMachine();
+			return d + machine.content(reg.ordinal());
+		}
+
+		int value() {
+			return word ? data[address()] : address();
+		}
 	}
 
 	static void printHelp() {
@@ -728,18 +510,31 @@ public class Interpreter {
 				"l or list [offset] [size]:",
 				"     print the instructions around CP + offset, with size lines on either side",
 				"     offset = 0 and size = 2 by default",
-				"b or break [address]:",
-				"     set a breakpoint at address",
-				"     address = CP by default",
+				"b or break [address] [if condition]:",
+				"     set a breakpoint at address, that stops only if condition holds",
+				"     address = CP by default, condition compares two numbers, registers",
+				"     or words d[r], e.g. 'b 12 if 3[LB] >= 100'",
 				"del:",
 				"     delete one or more breakpoints",
+				"w or watch address:",
+				"     stop when the word at data store address d or d[r] changes",
+				"unwatch:",
+				"     delete one or more watchpoints",
 				"n or next:",
 				"     execute one instruction",
+				"o or over:",
+				"     execute one instruction, and all of a routine it calls",
+				"out:",
+				"     continue until the current routine returns",
 				"c or continue:",
 				"     continue running the program from current position, until next breakpoint or completion",
 				"r or run:",
 				"     run the program from start, until next breakpoint or completion",
-				"i or info:", "     list the current breakpoints",
+				"i or info:", "     list the current breakpoints and watchpoints",
+				"s or snapshot file:",
+				"     save the machine state to file, to continue from with -restore file",
+				"heapdump file:",
+				"     save the objects in the heap to file, see java mJAM.HeapDump",
 				"q, quit or <EOF>:", "     quit the debugger",
 				"Simply press enter to repeat the last command", "? or help:",
 				"     print this help" };
@@ -788,46 +583,124 @@ public class Interpreter {
 					size = scanner.nextInt();
 
 				for (int i = CP + offset - size; i <= CP + offset + size; ++i) {
-					if (i >= 0 && i < sourceLines.size())
+					if (i >= 0 && i < asmLines.size())
 						System.out.println((i == CP ? " >" : "  ")
-								+ sourceLines.get(i));
+								+ asmLines.get(i));
 				}
 			} else if (command.equalsIgnoreCase("b")
 					|| command.equalsIgnoreCase("break")) {
 				int addr = scanner.hasNextInt() ? scanner.nextInt() : CP;
-				if (!breakpoints.contains(addr))
-					breakpoints.add(addr);
-				System.out.println("Added breakpoint at "
-						+ sourceLines.get(addr));
+				Condition condition = null;
+				boolean valid = true;
+				if (scanner.hasNext("if")) {
+					scanner.next();
+					condition = scanner.hasNextLine() ? Condition.parse(scanner.nextLine()) : null;
+					valid = condition != null;
+				}
+				if (addr < CB || addr >= CT || addr >= asmLines.size())
+					System.out.println("No instruction at " + addr);
+				else if (!valid)
+					System.out.println("Invalid condition, type 'help' for the form of one");
+				else {
+					setBreakpoint(addr, condition);
+					System.out.println("Added breakpoint at "
+							+ asmLines.get(addr) + (condition != null ? "  if " + condition : ""));
+				}
 			} else if (command.equalsIgnoreCase("del")) {
 				while (scanner.hasNextInt()) {
-					int addr = scanner.nextInt(), idx = breakpoints
-							.indexOf(addr);
-					if (idx != -1) {
-						breakpoints.remove(idx);
+					int addr = scanner.nextInt();
+					if (addr >= 0 && breakpoints.get(addr)) {
+						clearBreakpoint(addr);
 					} else {
 						System.out.println("No breakpoint at " + addr);
 					}
 				}
+			} else if (command.equalsIgnoreCase("w")
+					|| command.equalsIgnoreCase("watch")) {
+				if (!scanner.hasNext())
+					System.out.println("Watch needs an address");
+				while (scanner.hasNext()) {
+					String operand = scanner.next();
+					int addr = Condition.address(operand);
+					if (addr < 0 || addr >= HB) {
+						System.out.println("No data store address " + operand);
+					} else {
+						watchpoints.put(addr, data[addr]);
+						System.out.println("Watching " + addr + " = " + data[addr]);
+					}
+				}
+			} else if (command.equalsIgnoreCase("unwatch")) {
+				while (scanner.hasNextInt()) {
+					int addr = scanner.nextInt();
+					if (watchpoints.remove(addr) == null)
+						System.out.println("No watchpoint at " + addr);
+				}
 			} else if (command.equalsIgnoreCase("n")
 					|| command.equalsIgnoreCase("next")) {
 				if (status == running) {
 					interpretOneOperation();
+					showSource();
+				} else {
+					System.out.println("Program is not running");
+				}
+			} else if (command.equalsIgnoreCase("o")
+					|| command.equalsIgnoreCase("over")) {
+				if (status == running) {
+					stepOver();
+					showSource();
+				} else {
+					System.out.println("Program is not running");
+				}
+			} else if (command.equalsIgnoreCase("out")) {
+				if (status == running) {
+					runUntilReturn(LB);
+					showSource();
 				} else {
 					System.out.println("Program is not running");
 				}
 			} else if (command.equalsIgnoreCase("c")
 					|| command.equalsIgnoreCase("continue")) {
-				continueProgram();
+				if (status == running) {
+					continueProgram();
+					showSource();
+				} else {
+					System.out.println("Program is not running");
+				}
 			} else if (command.equalsIgnoreCase("r")
 					|| command.equalsIgnoreCase("run")) {
 				runProgramFromStart();
+				showSource();
 			} else if (command.equalsIgnoreCase("i")
 					|| command.equalsIgnoreCase("info")) {
 				System.out.println("Breakpoints:");
-				for (int b : breakpoints) {
-					System.out.println("\t" + sourceLines.get(b));
+				for (int b = breakpoints.nextSetBit(0); b >= 0; b = breakpoints.nextSetBit(b + 1)) {
+					Condition condition = conditions.get(b);
+					System.out.println("\t" + asmLines.get(b)
+							+ (condition != null ? "  if " + condition : ""));
+				}
+				System.out.println("Watchpoints:");
+				for (Map.Entry<Integer, Integer> watch : watchpoints.entrySet()) {
+					System.out.println("\t" + watch.getKey() + " = " + watch.getValue());
 				}
+			} else if (command.equalsIgnoreCase("s")
+					|| command.equalsIgnoreCase("snapshot")) {
+				if (!scanner.hasNext())
+					System.out.println("Snapshot needs a file name");
+				else {
+					String file = scanner.next();
+					try {
+						toMachine();
+						machine.saveSnapshot(file);
+						System.out.println("Saved snapshot at " + CP + " to " + file);
+					} catch (IOException e) {
+						System.out.println("Unable to save snapshot " + file);
+					}
+				}
+			} else if (command.equalsIgnoreCase("heapdump")) {
+				if (!scanner.hasNext())
+					System.out.println("Heapdump needs a file name");
+				else
+					writeHeapDump(scanner.next());
 			} else if (command.equalsIgnoreCase("q")
 					|| command.equalsIgnoreCase("quit")) {
 				scanner.close();
@@ -845,16 +718,63 @@ public class Interpreter {
 	public static void main(String[] args) {
 		System.out.println("********** mJAM Interpreter (Version 2.3) **********");
 
+		// options precede the file names
+		int argi = 0;
+		while (argi < args.length && args[argi].startsWith("-")) {
+			String option = args[argi++];
+			if (option.equals("-nofuse"))
+				fuse = false;
+			else if (option.equals("-fusions"))
+				reportFusions = true;
+			else if (option.equals("-tos"))
+				cacheTop = true;
+			else if (option.equals("-closures"))
+				closures = true;
+			else if (option.equals("-jit"))
+				jit = true;
+			else if (option.equals("-trace"))
+				trace = true;
+			else if (option.equals("-gc"))
+				gc = true;
+			else if (option.equals("-image") && argi < args.length)
+				imageFile = args[argi++];
+			else if (option.equals("-snapshot") && argi < args.length)
+				snapshotFile = args[argi++];
+			else if (option.equals("-restore") && argi < args.length)
+				restoreFile = args[argi++];
+			else if (option.equals("-profile") && argi < args.length)
+				profileFile = args[argi++];
+			else if (option.equals("-count") && argi < args.length)
+				countFile = args[argi++];
+			else if (option.equals("-allocs") && argi < args.length)
+				allocsFile = args[argi++];
+			else if (option.equals("-heapdump") && argi < args.length)
+				heapDumpFile = args[argi++];
+			else if (option.equals("-sample") && argi < args.length)
+				sampleInterval = Math.max(1, Long.parseLong(args[argi++]));
+			else if (option.equals("-fuel") && argi < args.length)
+				fuel = Long.parseLong(args[argi++]);
+			else if (option.equals("-datastore") && argi < args.length) {
+				try {
+					HB = VirtualMachine.checkSize(Integer.parseInt(args[argi++]));
+				} catch (IllegalArgumentException e) {
+					System.out.println("Invalid data store size " + args[argi - 1]);
+					System.exit(3);
+				}
+			} else
+				System.out.println("Unknown option " + option);
+		}
+
 		String objectFileName;
-		if (args.length >= 1)
-			objectFileName = args[0];
+		if (args.length >= argi + 1)
+			objectFileName = args[argi];
 		else
 			objectFileName = "obj.mJAM";
 
-		String sourceFileName;
-		if (args.length >= 2) {
-			sourceFileName = args[1];
-			debug(objectFileName, sourceFileName);
+		String asmFileName;
+		if (args.length >= argi + 2) {
+			asmFileName = args[argi + 1];
+			debug(objectFileName, asmFileName);
 		} else {
 			interpret(objectFileName);
 		}
@@ -867,8 +787,110 @@ public class Interpreter {
 			System.out.println("Unable to load object file " + objectFileName);
 			return;
 		}
+		code = Machine.code();
+		decoded = DecodedCode.decode(code, Machine.CT);
+		if (decoded.error != null) {
+			System.out.println("Invalid object file " + objectFileName + ": " + decoded.error);
+			return;
+		}
+		if (fuse) {
+			Map<String, Integer> fired = Fusion.fuse(decoded);
+			if (reportFusions)
+				Fusion.report(fired);
+		}
+		DebugInfo info = null;
+		if (countFile != null) {
+			try {
+				info = DebugInfo.read(DebugInfo.fileName(objectFileName));
+			} catch (IOException e) {
+				System.out.println("Unable to load debug info " + DebugInfo.fileName(objectFileName));
+				return;
+			}
+			// counting runs one instruction at a time, a profile would be of that
+			profileFile = null;
+		}
+		// the profiler samples the decoded run loop, lines are counted by
+		// executeOneOperation and allocation sites recorded by callPrimitive,
+		// and only the decoded run loop meters a budget
+		boolean heapProfile = allocsFile != null || heapDumpFile != null;
+		if (fuel != VirtualMachine.unlimited || profileFile != null || countFile != null
+				|| heapProfile)
+			closures = cacheTop = false;
+		if (closures)
+			ClosureCompiler.compile();
+		// compiled code is not metered, does not yield and allocates by
+		// itself, a budget, the profilers or counting keep the run loop in
+		// charge
+		if (fuel != VirtualMachine.unlimited || profileFile != null || countFile != null
+				|| heapProfile)
+			jit = trace = false;
+		if (jit)
+			Jit.install(decoded);
+		if (trace)
+			Tracer.install(decoded);
+		boolean image = imageFile != null && new File(imageFile).exists();
+		try {
+			if (restoreFile != null)
+				HB = HeapImage.size(restoreFile);
+			else if (image)
+				HB = HeapImage.size(imageFile);
+			loadMachine();
+			if (restoreFile != null)
+				machine.restore(restoreFile);
+			else if (image)
+				machine.loadImage(imageFile);
+		} catch (IOException e) {
+			System.out.println("Unable to load " + (restoreFile != null
+					? "snapshot " + restoreFile : "heap image " + imageFile)
+					+ ": " + e.getMessage());
+			return;
+		}
+		machine.setFuel(fuel);
+		machine.setSnapshotFile(snapshotFile);
+		if (gc)
+			machine.enableCollector();
+		if (profileFile != null)
+			profiler = new Profiler(machine, sampleInterval, DebugInfo.forObjectFile(objectFileName));
+		if (countFile != null)
+			lineCounter = new LineCounter(machine, info);
+		if (heapProfile)
+			machine.enableHeapProfiler();
 		interpretProgram();
 		showStatus();
+		if (gc)
+			machine.collector.report();
+		if (profiler != null) {
+			try {
+				profiler.write(profileFile);
+			} catch (IOException e) {
+				System.out.println("Unable to write profile " + profileFile);
+			}
+		}
+		if (lineCounter != null) {
+			try {
+				lineCounter.write(countFile, objectFileName);
+			} catch (IOException e) {
+				System.out.println("Unable to write line counts " + countFile
+						+ ", or to read the source " + info.source);
+			}
+		}
+		if (allocsFile != null) {
+			try {
+				machine.heapProfiler.write(allocsFile, DebugInfo.forObjectFile(objectFileName));
+			} catch (IOException e) {
+				System.out.println("Unable to write allocations " + allocsFile);
+			}
+		}
+		if (heapDumpFile != null)
+			writeHeapDump(heapDumpFile);
+		if (imageFile != null && status == halted) {
+			try {
+				toMachine();
+				machine.saveImage(imageFile);
+			} catch (IOException e) {
+				System.out.println("Unable to save heap image " + imageFile + ": " + e.getMessage());
+			}
+		}
 		// mJAM exit code reflects normal termination or mJAM failure
 		if (status == halted)
 			System.exit(0);
@@ -876,31 +898,51 @@ public class Interpreter {
 			System.exit(4);
 	}
 
-	public static void debug(String objectFileName, String sourceFileName) {
+	public static void debug(String objectFileName, String asmFileName) {
 		ObjectFile objectFile = new ObjectFile(objectFileName);
 		if (objectFile.read()) {
 			System.out.println("Unable to load object file " + objectFileName);
 			return;
 		}
+		code = Machine.code();
+		decoded = DecodedCode.decode(code, Machine.CT);
+		if (decoded.error != null) {
+			System.out.println("Invalid object file " + objectFileName + ": " + decoded.error);
+			return;
+		}
+		loadMachine();
+		// allocation sites for heap dumps
+		machine.enableHeapProfiler();
+		plainOps = decoded.op.clone();
 
-		sourceLines = new ArrayList<String>();
+		asmLines = new ArrayList<String>();
 		try {
 			BufferedReader reader = new BufferedReader(new FileReader(new File(
-					sourceFileName)));
+					asmFileName)));
 			String line = reader.readLine();
 			while (line != null) {
-				sourceLines.add(line);
+				asmLines.add(line);
 				line = reader.readLine();
 			}
 			reader.close();
 		} catch (FileNotFoundException e) {
-			System.out.println("Unable to load source file " + sourceFileName);
+			System.out.println("Unable to load source file " + asmFileName);
 			return;
 		} catch (IOException ie) {
-			System.out.println("Unable to load source file " + sourceFileName);
+			System.out.println("Unable to load source file " + asmFileName);
 			return;
 		}
 
+		debugInfo = DebugInfo.forObjectFile(objectFileName);
+		if (debugInfo != null) {
+			try {
+				programLines = debugInfo.sourceLines(objectFileName);
+			} catch (IOException e) {
+				System.out.println("Unable to load source file " + debugInfo.source);
+				debugInfo = null;
+			}
+		}
+
 		debugProgram();
 	}
 }
@@ -0,0 +1,178 @@
+/**
+ * Tiered just-in-time compilation of hot mJAM code
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import static mJAM.DecodedCode.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+
+/**
+ * Second tier of the decoded run loop, enabled with -jit.
+ *
+ * install replaces the calls and backward jumps of the decoded code by
+ * counting forms (JIT_CALL, JIT_CALLI, JIT_JUMP), so the run loop counts
+ * calls per routine and back-edges per loop header.  When a count reaches its
+ * threshold, the routine is compiled by BytecodeCompiler into a hidden class,
+ * together with every routine it can call, and the run loop switches to the
+ * compiled method.  A hot call simply calls the compiled routine.  A hot loop
+ * switches in the middle of its routine (on-stack replacement): compiled
+ * methods accept their loop headers as entry points and pick up the current
+ * frame, which lives in the data store, so no state has to be translated.
+ *
+ * Compiled code returns to the run loop when its routine returns.  When it
+ * reaches an instruction it has no translation for, or when a routine it
+ * called returns to another address than the one following the call (the
+ * guard on the link data), it deoptimizes: the registers are written back and
+ * the interpreter finishes the routine, see CompiledRuntime.interpret.
+ */
+final class Jit {
+
+	// counts at which a routine or loop is compiled
+	final static int callThreshold = 1000, loopThreshold = 10000;
+
+	// compiled method to enter at each code address, or null
+	static MethodHandle[] code;
+
+	private static DecodedCode dc;
+	private static int[] counts;
+	private static BitSet loopHeaders;
+	private static BitSet[] bodies;  // body of the routine at each entry
+	private static int[] routineOf;  // entry of a routine containing each address
+
+	private final static MethodType routineType =
+			MethodType.methodType(int.class, int.class);
+
+	private Jit() {
+	}
+
+	/**
+	 * Installs the counting forms in decoded code
+	 */
+	static void install(DecodedCode decoded) {
+		dc = decoded;
+		code = new MethodHandle[dc.CT + 1];
+		counts = new int[dc.CT + 1];
+		loopHeaders = new BitSet(dc.CT + 1);
+		bodies = new BitSet[dc.CT + 1];
+		routineOf = new int[dc.CT + 1];
+		Arrays.fill(routineOf, -1);
+
+		BitSet entries = BytecodeCompiler.routineEntries(dc);
+		for (int entry = entries.nextSetBit(0); entry >= 0; entry = entries.nextSetBit(entry + 1)) {
+			bodies[entry] = BytecodeCompiler.routineBody(dc, entry);
+			BitSet body = bodies[entry];
+			for (int addr = body.nextSetBit(0); addr >= 0; addr = body.nextSetBit(addr + 1)) {
+				if (routineOf[addr] < 0)
+					routineOf[addr] = entry;
+			}
+		}
+		for (int addr = Machine.CB; addr < dc.CT; addr++) {
+			switch (dc.op[addr]) {
+			case CALL:
+				dc.op[addr] = JIT_CALL;
+				break;
+			case CALLI:
+				dc.op[addr] = JIT_CALLI;
+				break;
+			case JUMP:
+				if (dc.d[addr] <= addr) {
+					dc.op[addr] = JIT_JUMP;
+					loopHeaders.set(dc.d[addr]);
+				}
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Counts a call of the routine at addr or a back-edge to loop header addr
+	 * @return true if this made addr hot and it can now be entered in
+	 * compiled code
+	 */
+	static boolean hot(int addr, int threshold) {
+		if (++counts[addr] != threshold || routineOf[addr] < 0)
+			return false;
+		compile(routineOf[addr]);
+		return code[addr] != null;
+	}
+
+	/**
+	 * Compiles the routine at root and all routines it can call into one
+	 * hidden class, so that calls among them are direct
+	 */
+	private static void compile(int root) {
+		BitSet unit = new BitSet(dc.CT + 1);
+		Deque<Integer> work = new ArrayDeque<Integer>();
+		work.push(root);
+		while (!work.isEmpty()) {
+			int entry = work.pop();
+			if (unit.get(entry))
+				continue;
+			unit.set(entry);
+			BitSet body = bodies[entry];
+			for (int addr = body.nextSetBit(0); addr >= 0; addr = body.nextSetBit(addr + 1)) {
+				int op = dc.unfused(addr);
+				if (op == CALL || op == CALLI)
+					work.push(dc.d[addr]);
+			}
+		}
+
+		ClassFileWriter cf = new ClassFileWriter("mJAM/JitCode");
+		BytecodeCompiler compiler = new BytecodeCompiler(dc, cf);
+		BitSet compiled = new BitSet(dc.CT + 1);
+		for (int entry = unit.nextSetBit(0); entry >= 0; entry = unit.nextSetBit(entry + 1)) {
+			if (compiler.compileRoutine(entry, bodies[entry], entries(entry)))
+				compiled.set(entry);
+		}
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(cf.toBytes(), true);
+			for (int entry = compiled.nextSetBit(0); entry >= 0; entry = compiled.nextSetBit(entry + 1)) {
+				MethodHandle method = lookup.findStatic(lookup.lookupClass(),
+						BytecodeCompiler.methodName(entry), routineType);
+				BitSet entries = entries(entry);
+				for (int addr = entries.nextSetBit(0); addr >= 0; addr = entries.nextSetBit(addr + 1)) {
+					if (code[addr] == null)
+						code[addr] = method;
+				}
+			}
+		} catch (IllegalAccessException | NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return addresses the compiled routine at entry can be started at: the
+	 * entry itself and its loop headers
+	 */
+	private static BitSet entries(int entry) {
+		BitSet entries = (BitSet) loopHeaders.clone();
+		entries.and(bodies[entry]);
+		entries.set(entry);
+		return entries;
+	}
+
+	/**
+	 * Runs compiled code from addr with the current machine state, until its
+	 * routine returns or the program stops
+	 * @return code address returned to, or CompiledRuntime.STOP
+	 */
+	static int enter(int addr) {
+		try {
+			return (int) code[addr].invokeExact(addr);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * Execution counts of the source lines of mJAM programs
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Counts how often each source line of a program runs, enabled with -count,
+ * and writes the counts next to the source in the format of gcov:
+ *
+ *             -:    1:class Calls {
+ *         20000:    8:            sum = sum + c.step(i);
+ *         #####:   44:                i = 0;
+ *
+ * "-" for a line without code, ##### for one whose code never ran.
+ *
+ * The machine runs one instruction at a time and counts each execution of
+ * each instruction; a line has run as often as the first instruction of its
+ * code, the most often of them if the line table gives it several pieces of
+ * code (the condition of a while loop and the jump back to it).  Counting is
+ * a few times slower than the decoded run loop and ignores the fuel, like
+ * the -tos and -closures engines.
+ */
+final class LineCounter {
+
+	private final VirtualMachine machine;
+	private final DebugInfo info;
+	private final long[] counts;
+
+	LineCounter(VirtualMachine machine, DebugInfo info) {
+		this.machine = machine;
+		this.info = info;
+		counts = new long[machine.CT];
+	}
+
+	/**
+	 * Runs the program from where the machine is until it halts or fails,
+	 * counting the executions of each instruction
+	 */
+	void run() {
+		long[] counts = this.counts;
+		long executed = 0;
+		try {
+			while (machine.status == Interpreter.running) {
+				counts[machine.CP]++;
+				machine.executeOneOperation();
+				executed++;
+			}
+		} finally {
+			machine.executed += executed;
+			machine.io.flush();
+		}
+	}
+
+	/**
+	 * Writes the source with the count of each line to file, and a summary
+	 * to the output of the machine
+	 * @param objectFileName  object file the program came from, next to
+	 * which the source is looked for if it was moved
+	 */
+	void write(String file, String objectFileName) throws IOException {
+		List<String> source = info.sourceLines(objectFileName);
+		long[] lineCounts = new long[source.size() + 1];
+		boolean[] code = new boolean[source.size() + 1];
+		int[] starts = info.lineStarts(), lines = info.lineNumbers();
+		for (int i = 0; i < starts.length; i++) {
+			int line = lines[i];
+			if (line > 0 && line <= source.size() && starts[i] < counts.length) {
+				code[line] = true;
+				lineCounts[line] = Math.max(lineCounts[line], counts[starts[i]]);
+			}
+		}
+		int withCode = 0, run = 0;
+		try (FileWriter out = new FileWriter(file)) {
+			out.write(String.format("%9s:%5d:Source:%s%n", "-", 0, info.source));
+			for (int line = 1; line <= source.size(); line++) {
+				String count = "-";
+				if (code[line]) {
+					withCode++;
+					if (lineCounts[line] > 0)
+						run++;
+					count = lineCounts[line] > 0 ? Long.toString(lineCounts[line]) : "#####";
+				}
+				out.write(String.format("%9s:%5d:%s%n", count, line, source.get(line - 1)));
+			}
+		}
+		PrintStream out = machine.out;
+		out.println("Line counts:");
+		out.println(String.format("  %10d  of %d lines with code run, in %s", run, withCode, file));
+	}
+}
@@ -1,5 +1,7 @@
 package mJAM;
 
+import java.util.Arrays;
+
 /**
  * Defines names and sizes of mJAM instructions and primitives
  * @author prins
@@ -26,10 +28,113 @@ public final class Machine {
 	    JUMP,
 	    JUMPI,
 	    JUMPIF,
-	    HALT;
+	    HALT,
+	    // extended ISA: the following operations are appended so that
+	    // the encoding of the operations above is unchanged
+	    // primitives as operations, operands and results on the stack
+	    NOT,
+	    AND,
+	    OR,
+	    NEG,
+	    ADD,
+	    SUB,
+	    MULT,
+	    DIV,
+	    MOD,
+	    LT,
+	    LE,
+	    GE,
+	    GT,
+	    EQ,
+	    NE,
+	    ARRAYLEN,
+	    ARRAYREF,
+	    ARRAYUPD,
+	    FIELDREF,
+	    FIELDUPD,
+	    // immediate forms, operand d
+	    ADDL,      // add literal d to stack top
+	    FIELDREFL, // load field d of object on stack top
+	    FIELDUPDL, // store stack top into field d of object below it
+	    // compare stack top with literal n and branch to d[r]
+	    // (JUMPIF is the "equal" member of this family)
+	    JUMPNE,
+	    JUMPLT,
+	    JUMPLE,
+	    JUMPGE,
+	    JUMPGT;
 	}
 	public static Op [] intToOp = Op.values();
 
+	/**
+	 * @return primitive carried out by operation op, or null if op is not a
+	 * primitive operation
+	 */
+	public static Prim primOf(Op op) {
+		switch (op) {
+		case NOT:
+			return Prim.not;
+		case AND:
+			return Prim.and;
+		case OR:
+			return Prim.or;
+		case NEG:
+			return Prim.neg;
+		case ADD:
+			return Prim.add;
+		case SUB:
+			return Prim.sub;
+		case MULT:
+			return Prim.mult;
+		case DIV:
+			return Prim.div;
+		case MOD:
+			return Prim.mod;
+		case LT:
+			return Prim.lt;
+		case LE:
+			return Prim.le;
+		case GE:
+			return Prim.ge;
+		case GT:
+			return Prim.gt;
+		case EQ:
+			return Prim.eq;
+		case NE:
+			return Prim.ne;
+		case ARRAYLEN:
+			return Prim.arraylen;
+		case ARRAYREF:
+			return Prim.arrayref;
+		case ARRAYUPD:
+			return Prim.arrayupd;
+		case FIELDREF:
+			return Prim.fieldref;
+		case FIELDUPD:
+			return Prim.fieldupd;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the n field of op is a literal value rather than a
+	 * length (JUMPIF and the compare-literal-and-branch operations)
+	 */
+	public static boolean hasLiteralN(Op op) {
+		switch (op) {
+		case JUMPIF:
+		case JUMPNE:
+		case JUMPLT:
+		case JUMPLE:
+		case JUMPGE:
+		case JUMPGT:
+			return true;
+		default:
+			return false;
+		}
+	}
+
 
 	/**
 	 * mJAM registers
@@ -103,11 +208,14 @@ public final class Machine {
   
   // CODE STORE REGISTERS
   public final static int CB = 0; // start of code space
-  public final static int PB = 1024; // size of code space reserved for instructions
+  public final static int PB = 1 << 24; // primitives base, above any code address
   public final static int PT = PB + Prim.values().length;  // code space reserved for primitives
 
-  // CODE STORE
-  public static Instruction[] code = new Instruction[PB];
+  // CODE STORE: the fields op, n, r, d of the instruction at addr are
+  // codeStore[4 * addr .. 4 * addr + 3], for CB <= addr < CT.  The array
+  // doubles when it is full, so emitting an instruction allocates nothing
+  // otherwise; code() gives the instructions as objects.
+  static int[] codeStore = new int[4 * 1024];
   public static int CT = CB;
   
   public static void initCodeGen() {
@@ -181,18 +289,54 @@ public static void emit(Op op, int d) {
    * helper operation for emit using integer values
    */
 private static void emit (int op, int n, int r, int d) {
-    if (n > 255) {
+    if (n > 255 && !hasLiteralN(intToOp[op])) {
         System.out.println("length of operand can't exceed 255 words");
         n = 255; // to allow code generation to continue
     }
-    if (CT >= Machine.PB)
+    if (CT >= Machine.PB) {
         System.out.println("mJAM: code segment capacity exceeded");
-    
-    Instruction nextInstr = new Instruction(op, n, r, d);
-        Machine.code[CT] = nextInstr;
-        CT = CT + 1;
+        return;
+    }
+    if (4 * CT == codeStore.length)
+        codeStore = Arrays.copyOf(codeStore, 2 * codeStore.length);
+    int at = 4 * CT;
+    codeStore[at] = op;
+    codeStore[at + 1] = n;
+    codeStore[at + 2] = r;
+    codeStore[at + 3] = d;
+    CT = CT + 1;
   }
 
+/**
+ * @return the instructions in the code store, code()[addr] for
+ * CB <= addr < CT, as objects that do not change with the code store
+ */
+public static Instruction[] code() {
+	Instruction[] code = new Instruction[CT];
+	for (int addr = CB; addr < CT; addr++) {
+		int at = 4 * addr;
+		code[addr] = new Instruction(codeStore[at], codeStore[at + 1], codeStore[at + 2],
+				codeStore[at + 3]);
+	}
+	return code;
+}
+
+/**
+ * Replaces the code store by the instructions code[CB .. code.length-1],
+ * as loaded from an object file
+ */
+static void setCode(Instruction[] code) {
+	codeStore = new int[4 * Math.max(1024, code.length)];
+	for (int addr = CB; addr < code.length; addr++) {
+		int at = 4 * addr;
+		codeStore[at] = code[addr].op;
+		codeStore[at + 1] = code[addr].n;
+		codeStore[at + 2] = code[addr].r;
+		codeStore[at + 3] = code[addr].d;
+	}
+	CT = code.length;
+}
+
 /**
  * @return address (relative to CB) of next instruction to be generated
  */
@@ -214,7 +358,7 @@ public static void patch(int addr, int displacement) {
 		System.out.println("patch:  target address of patch is out of range");
 		return;
 	}
-	Machine.code[addr].d = displacement;
+	codeStore[4 * addr + 3] = displacement;
 	return;
 }
 
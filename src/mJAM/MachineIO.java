@@ -0,0 +1,139 @@
+/**
+ * Buffered input and output of an mJAM machine
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+/**
+ * The streams of one VirtualMachine as the I/O primitives use them.
+ *
+ * Output of put, putint, putintnl and puteol is collected in a byte buffer,
+ * numbers are written into it digit by digit, without a String for each,
+ * and the buffer goes to the output stream in one write when it is full,
+ * when the program reads input, and when the machine stops running, i.e.
+ * at HALT, on failure, at a snapshot and whenever a slice ends.  Anything
+ * else the machine writes (dumps, status, statistics) flushes it first, so
+ * the order of the output is unchanged.
+ *
+ * Input of get, getint and geteol is read into a byte buffer as much at a
+ * time as the input stream has ready.
+ */
+final class MachineIO {
+
+	final static int bufferSize = 8192;
+
+	private final InputStream in;
+	private final PrintStream out;
+
+	private final byte[] output = new byte[bufferSize];
+	private int outputs;
+
+	private final byte[] input = new byte[bufferSize];
+	private int inputAt, inputs;
+
+	private final static byte[] prompt = { '>', '>', '>', ' ' };
+	private final static byte[] eol = System.lineSeparator().getBytes();
+
+	MachineIO(InputStream in, PrintStream out) {
+		this.in = in;
+		this.out = out;
+	}
+
+	/**
+	 * @return next byte of input, or -1 at the end
+	 */
+	int read() throws IOException {
+		if (inputAt == inputs) {
+			flush();
+			inputs = in.read(input, 0, input.length);
+			inputAt = 0;
+			if (inputs <= 0) {
+				inputs = 0;
+				return -1;
+			}
+		}
+		return input[inputAt++] & 0xFF;
+	}
+
+	/**
+	 * Writes character c, as PrintStream.print would
+	 */
+	void put(char c) {
+		if (c >= 0x80) {
+			flush();
+			out.print(c);
+			return;
+		}
+		if (outputs == output.length)
+			flush();
+		output[outputs++] = (byte) c;
+	}
+
+	/**
+	 * Writes v in decimal
+	 */
+	void putInt(long v) {
+		if (outputs > output.length - 20)
+			flush();
+		if (v == Long.MIN_VALUE) {
+			flush();
+			out.print(v);
+			return;
+		}
+		if (v < 0) {
+			output[outputs++] = '-';
+			v = -v;
+		}
+		int end = outputs + digits(v);
+		for (int at = end - 1; at >= outputs; at--) {
+			output[at] = (byte) ('0' + v % 10);
+			v /= 10;
+		}
+		outputs = end;
+	}
+
+	/**
+	 * Writes v as putintnl does: ">>> v" and a newline
+	 */
+	void putIntLine(long v) {
+		if (outputs > output.length - 25)
+			flush();
+		System.arraycopy(prompt, 0, output, outputs, prompt.length);
+		outputs += prompt.length;
+		putInt(v);
+		output[outputs++] = '\n';
+	}
+
+	/**
+	 * Writes the line separator, as PrintStream.println would
+	 */
+	void putEol() {
+		if (outputs > output.length - eol.length)
+			flush();
+		System.arraycopy(eol, 0, output, outputs, eol.length);
+		outputs += eol.length;
+	}
+
+	/**
+	 * Writes the buffered output to the output stream
+	 */
+	void flush() {
+		if (outputs > 0) {
+			out.write(output, 0, outputs);
+			outputs = 0;
+		}
+	}
+
+	private static int digits(long v) {
+		int n = 1;
+		while (v >= 10) {
+			v /= 10;
+			n++;
+		}
+		return n;
+	}
+}
@@ -5,10 +5,13 @@
  */
 package mJAM;
 
-import java.io.FileInputStream;
-import java.io.DataInputStream;
+import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 public class ObjectFile {
 	
@@ -28,43 +31,51 @@ public class ObjectFile {
 		boolean failed = false;
 		try {
 			FileOutputStream objectFile = new FileOutputStream(objectFileName);
-			DataOutputStream is = new DataOutputStream(objectFile);
-			for (int i = Machine.CB; i < Machine.CT; i++ ){
-				Instruction inst = Machine.code[i];
-				is.writeInt(inst.op);
-				is.writeInt(inst.n);
-				is.writeInt(inst.r);
-				is.writeInt(inst.d);
-			}
-			objectFile.close();
+			DataOutputStream is = new DataOutputStream(new BufferedOutputStream(objectFile));
+			for (int i = 4 * Machine.CB; i < 4 * Machine.CT; i++)
+				is.writeInt(Machine.codeStore[i]);
+			is.close();
 		}
 		catch (Exception e) {failed = true;}
 		return failed;
 	}
 
 	/**
-	 * Read binary object file into code store, setting CT 
-	 * @return true if object code read fails
+	 * Read binary object file into code store, setting CT.  Object files
+	 * written before the extended ISA only use the first sixteen operations and
+	 * load unchanged.
+	 * @return true if object code read fails or contains an unknown operation
 	 */
 	public boolean read() {
-		boolean failed = false;
+		Instruction[] code = readCode();
+		if (code == null)
+			return true;
+		Machine.setCode(code);
+		return false;
+	}
+
+	/**
+	 * Read binary object file without touching the code store
+	 * @return instructions for code[CB ..], or null if object code read fails,
+	 * contains an unknown operation or does not fit below the primitives
+	 */
+	Instruction[] readCode() {
+		byte[] bytes;
 		try {
-			FileInputStream objectFile = new FileInputStream(objectFileName);
-			DataInputStream is = new DataInputStream(objectFile);
-			
-			Machine.CT = Machine.CB;
-			while (is.available() > 0 && Machine.CT < Machine.PB){
-				Instruction inst = new Instruction();
-				inst.op = is.readInt();
-				inst.n = is.readInt();
-				inst.r = is.readInt();
-				inst.d = is.readInt();
-				Machine.code[Machine.CT++] = inst;
-			}
-			objectFile.close();
+			bytes = Files.readAllBytes(Paths.get(objectFileName));
 		} catch (Exception e) {
-			failed = true;
-		}	
-		return failed;
+			return null;
+		}
+		if (bytes.length % 16 != 0 || bytes.length / 16 > Machine.PB - Machine.CB)
+			return null;
+		IntBuffer words = ByteBuffer.wrap(bytes).asIntBuffer();
+		Instruction[] code = new Instruction[Machine.CB + bytes.length / 16];
+		for (int ct = Machine.CB; ct < code.length; ct++) {
+			int op = words.get(), n = words.get(), r = words.get(), d = words.get();
+			if (op < 0 || op >= Machine.intToOp.length)
+				return null;
+			code[ct] = new Instruction(op, n, r, d);
+		}
+		return code;
 	}
 }
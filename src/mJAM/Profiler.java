@@ -0,0 +1,197 @@
+/**
+ * Sampling profiler for mJAM programs
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Samples the call stack of the program one VirtualMachine runs, enabled
+ * with -profile, and writes the samples as folded stacks, one line for each
+ * stack that was seen:
+ *
+ *     start;L10;L21;L21 42
+ *
+ * the routines from the outermost to the one running, and the number of
+ * samples taken in it, the format flame graph tools read (flamegraph.pl,
+ * speedscope and others).
+ *
+ * The run loop keeps the registers in locals, where another thread cannot
+ * see them, so the samples are not taken by a timer thread.  The machine
+ * runs in slices of interval instructions instead (see runSlice), and when
+ * it yields the profiler takes a sample from CP and the frames on the
+ * stack, following the dynamic links data[LB+1] and the return addresses
+ * data[LB+2].  A slice ends at a transfer of control, which the loop checks
+ * for its fuel anyway, so profiling adds nothing to it; a sample every
+ * 10000 instructions costs well under a percent.  Samples count
+ * instructions rather than time, and a program has the same profile on
+ * every run.  Samples are due every interval instructions of the whole run
+ * on average, not interval instructions after the transfer of control the
+ * last slice ran over to, and the gap between two of them varies, from a
+ * seeded generator, so that they do not lock onto a loop of the program and
+ * keep landing at the same place in it.  A slice that ran over more than one
+ * due sample is counted as that many samples.
+ *
+ * Routines are named by the methods of the debug info file if the program
+ * has one (see DebugInfo), by the labels of the asm listing otherwise (see
+ * Disassembler.labels); the code at CB that calls main is start.  An
+ * address belongs to the routine with the closest entry below it, as it
+ * does in the code miniJava generates; the targets of CALLD are not known
+ * in advance and are counted in the routine before them.  Compiled code
+ * does not yield, so a program is profiled on the decoded run loop, without
+ * -jit, -trace, -tos or -closures.
+ */
+final class Profiler {
+
+	final static long defaultInterval = 10000;
+
+	// frames a sample follows at most; a deeper stack loses its outermost
+	// frames, shown as ...
+	final static int maxDepth = 1000;
+
+	private final VirtualMachine machine;
+	private final long interval;
+
+	// gaps between samples, the same on every run
+	private final Random gaps = new Random(0x6D4A414DL);
+
+	// routine entry of each code address, and the name of each entry
+	private final int[] routineOf;
+	private final String[] names;
+
+	// samples by folded stack, and by running routine
+	private final Map<String, long[]> stacks = new HashMap<String, long[]>();
+	private final long[] self;
+	private final int[] frames = new int[maxDepth];
+	long samples;
+
+	/**
+	 * @param info  debug info of the program, or null
+	 */
+	Profiler(VirtualMachine machine, long interval, DebugInfo info) {
+		this.machine = machine;
+		this.interval = interval;
+		int ct = machine.CT;
+		Instruction[] code = machine.code;
+		Map<Integer, String> labels = Disassembler.labels(code, ct);
+
+		BitSet entries = new BitSet(ct);
+		entries.set(Machine.CB);
+		for (int addr = Machine.CB; addr < ct; addr++) {
+			Instruction inst = code[addr];
+			Machine.Op op = Machine.intToOp[inst.op];
+			if ((op == Machine.Op.CALL || op == Machine.Op.CALLI)
+					&& inst.r == Machine.Reg.CB.ordinal() && inst.d >= Machine.CB && inst.d < ct)
+				entries.set(inst.d);
+		}
+		routineOf = new int[ct];
+		names = new String[ct];
+		self = new long[ct];
+		int entry = Machine.CB;
+		for (int addr = Machine.CB; addr < ct; addr++) {
+			if (entries.get(addr)) {
+				entry = addr;
+				String method = info != null ? info.methodStartingAt(addr) : null;
+				names[addr] = addr == Machine.CB ? "start" : method != null ? method : labels.get(addr);
+			}
+			routineOf[addr] = entry;
+		}
+	}
+
+	/**
+	 * Runs the program from where the machine is until it halts or fails,
+	 * and samples its stack every interval instructions on average
+	 */
+	void run() {
+		long due = machine.executed + gap();
+		while (machine.runSlice(due - machine.executed)) {
+			long weight = 0;
+			while (due <= machine.executed) {
+				due += gap();
+				weight++;
+			}
+			if (weight > 0)
+				sample(weight);
+		}
+	}
+
+	/**
+	 * @return instructions to the next sample, from 1 to 2 * interval - 1,
+	 * interval on average
+	 */
+	private long gap() {
+		return 1 + (long) (gaps.nextDouble() * (2.0 * interval - 1));
+	}
+
+	/**
+	 * Adds the current stack of the machine to the profile, as weight
+	 * samples
+	 */
+	void sample(long weight) {
+		int[] data = machine.data;
+		int cp = machine.CP, lb = machine.LB, depth = 0;
+		if (cp < Machine.CB || cp >= machine.CT)
+			return;
+		while (depth < maxDepth) {
+			frames[depth++] = routineOf[cp];
+			if (routineOf[cp] == Machine.CB)
+				break;
+			// the caller continues after the call that made the frame at lb
+			if (lb < Interpreter.SB || lb + 2 >= machine.ST)
+				break;
+			int ra = data[lb + 2];
+			if (ra <= Machine.CB || ra > machine.CT)
+				break;
+			cp = ra - 1;
+			lb = data[lb + 1];
+		}
+		StringBuilder folded = new StringBuilder();
+		if (depth == maxDepth && frames[depth - 1] != Machine.CB)
+			folded.append("...;");
+		for (int i = depth - 1; i >= 0; i--) {
+			folded.append(names[frames[i]]);
+			if (i > 0)
+				folded.append(';');
+		}
+		long[] count = stacks.get(folded.toString());
+		if (count == null)
+			stacks.put(folded.toString(), count = new long[1]);
+		count[0] += weight;
+		self[frames[0]] += weight;
+		samples += weight;
+	}
+
+	/**
+	 * Writes the folded stacks to file, sorted, and a summary of the
+	 * routines that ran most to the output of the machine
+	 */
+	void write(String file) throws IOException {
+		try (FileWriter out = new FileWriter(file)) {
+			for (Map.Entry<String, long[]> stack : new TreeMap<String, long[]>(stacks).entrySet())
+				out.write(stack.getKey() + " " + stack.getValue()[0] + "\n");
+		}
+		PrintStream out = machine.out;
+		out.println("Profile:");
+		out.println(String.format("  %10d  samples, one every %d instructions on average, in %s",
+				samples, interval, file));
+		List<Integer> hot = new ArrayList<Integer>();
+		for (int addr = Machine.CB; addr < machine.CT; addr++) {
+			if (self[addr] > 0)
+				hot.add(addr);
+		}
+		hot.sort((a, b) -> Long.compare(self[b], self[a]));
+		for (int addr : hot.subList(0, Math.min(5, hot.size())))
+			out.println(String.format("  %10d  %5.1f%%  %s", self[addr],
+					100.0 * self[addr] / samples, names[addr]));
+	}
+}
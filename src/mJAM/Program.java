@@ -0,0 +1,62 @@
+/**
+ * Loaded mJAM code shared by virtual machines
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import java.io.IOException;
+
+/**
+ * An mJAM program loaded once, for any number of VirtualMachine instances.
+ *
+ * Holds the instructions and their decoded and fused form.  Neither is
+ * changed once the program is loaded: each machine quickens a copy of the
+ * decoded operations of its own, so machines sharing a program can run on
+ * different threads.
+ */
+public final class Program {
+
+	final Instruction[] code; // code[CB .. CT-1]
+	final int CT;
+	final DecodedCode decoded;
+
+	Program(Instruction[] code, int ct, DecodedCode decoded) {
+		this.code = code;
+		this.CT = ct;
+		this.decoded = decoded;
+	}
+
+	/**
+	 * Decodes, verifies and fuses the instructions code[CB .. ct-1]
+	 * @throws IllegalArgumentException if the code is malformed, see Verifier
+	 */
+	public Program(Instruction[] code, int ct) {
+		this(code, ct, DecodedCode.decode(code, ct));
+		if (decoded.error != null)
+			throw new IllegalArgumentException(decoded.error);
+		Fusion.fuse(decoded);
+	}
+
+	/**
+	 * Loads an object file, without using the code store of Machine
+	 * @throws IOException if it cannot be read, holds an unknown operation or
+	 * is malformed
+	 */
+	public static Program load(String objectFileName) throws IOException {
+		Instruction[] code = new ObjectFile(objectFileName).readCode();
+		if (code == null)
+			throw new IOException("Unable to load object file " + objectFileName);
+		try {
+			return new Program(code, Machine.CB + code.length);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid object file " + objectFileName + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return number of instructions
+	 */
+	public int size() {
+		return CT - Machine.CB;
+	}
+}
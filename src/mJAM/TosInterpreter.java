@@ -0,0 +1,691 @@
+/**
+ * Top-of-stack caching run loop for decoded mJAM code
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import static mJAM.DecodedCode.*;
+import static mJAM.Interpreter.*;
+
+/**
+ * Alternative to Interpreter.runDecoded that keeps the value on top of the
+ * stack in a local variable (tos) instead of in the data store.
+ *
+ * While the stack is not empty, tos holds the value of data[ST-1] and the
+ * data store entry itself may be stale; all entries below it are up to
+ * date.  Pushing spills tos to the data store, popping reloads it.  Locals
+ * live on the stack too, so loads and stores that may reach the top entry
+ * (LB, SB and indirect addressing) go through read and write.  Before any
+ * instruction that needs the complete stack in memory (calls, returns,
+ * PUSH, dump, the slow path) tos is spilled.
+ *
+ * Superinstructions that start with LOAD[LB] and have no case of their own
+ * execute only that LOAD, which is correct since the tail of a fused sequence
+ * is left unfused.  All other decoded operations without a case of their own
+ * are executed one original instruction at a time by
+ * Interpreter.executeOneOperation.
+ */
+final class TosInterpreter {
+
+	private TosInterpreter() {
+	}
+
+	/**
+	 * Runs the decoded program from the current machine state until it halts
+	 * or fails.
+	 */
+	static void run() {
+		final int[] op = decoded.op, nf = decoded.n, df = decoded.d;
+		final int[] data = Interpreter.data;
+		final int ct = decoded.CT;
+		final int reserve = machine.reserve;
+		int cp = CP, st = ST, lb = LB, ob = OB, ht = HT;
+		int tos = st > SB ? data[st - 1] : 0;
+		int addr, index, size, value, d;
+		long result;
+
+		loop: while (true) {
+			d = df[cp];
+			switch (op[cp]) {
+			case LOAD_ABS:
+				if (st >= ht) {
+					status = failedDataStoreFull;
+					break loop;
+				}
+				value = d == st - 1 ? tos : data[d];
+				if (st > SB)
+					data[st - 1] = tos;
+				tos = value;
+				st++;
+				cp++;
+				break;
+			case LOAD_LB:
+			case F_INCR:
+			case F_CMPL_JUMPIF:
+			case F_CMP2_JUMPIF:
+			case F_ARRAYREF:
+				// fused heads starting with LOAD[LB] run just that LOAD
+				if (st >= ht) {
+					status = failedDataStoreFull;
+					break loop;
+				}
+				addr = lb + d;
+				value = addr == st - 1 ? tos : data[addr];
+				if (st > SB)
+					data[st - 1] = tos;
+				tos = value;
+				st++;
+				cp++;
+				break;
+			case LOAD_OB:
+				if (st >= ht) {
+					status = failedDataStoreFull;
+					break loop;
+				}
+				addr = ob + d;
+				value = addr == st - 1 ? tos : data[addr];
+				if (st > SB)
+					data[st - 1] = tos;
+				tos = value;
+				st++;
+				cp++;
+				break;
+			case LOADA_LB:
+				if (st >= ht) {
+					status = failedDataStoreFull;
+					break loop;
+				}
+				if (st > SB)
+					data[st - 1] = tos;
+				tos = lb + d;
+				st++;
+				cp++;
+				break;
+			case LOADA_OB:
+				if (st >= ht) {
+					status = failedDataStoreFull;
+					break loop;
+				}
+				if (st > SB)
+					data[st - 1] = tos;
+				tos = ob + d;
+				st++;
+				cp++;
+				break;
+			case LOADL:
+				if (st >= ht) {
+					status = failedDataStoreFull;
+					break loop;
+				}
+				if (st > SB)
+					data[st - 1] = tos;
+				tos = d;
+				st++;
+				cp++;
+				break;
+			case LOADI:
+				tos = tos == st - 1 ? tos : data[tos];
+				cp++;
+				break;
+			case STORE_ABS:
+				value = tos;
+				st--;
+				if (st > SB)
+					tos = data[st - 1];
+				if (d == st - 1)
+					tos = value;
+				else
+					data[d] = value;
+				cp++;
+				break;
+			case STORE_LB:
+				value = tos;
+				st--;
+				if (st > SB)
+					tos = data[st - 1];
+				addr = lb + d;
+				if (addr == st - 1)
+					tos = value;
+				else
+					data[addr] = value;
+				cp++;
+				break;
+			case STORE_OB:
+				value = tos;
+				st--;
+				if (st > SB)
+					tos = data[st - 1];
+				addr = ob + d;
+				if (addr == st - 1)
+					tos = value;
+				else
+					data[addr] = value;
+				cp++;
+				break;
+			case STOREI:
+				addr = tos;
+				value = data[st - 2];
+				st -= 2;
+				if (st > SB)
+					tos = data[st - 1];
+				if (addr == st - 1)
+					tos = value;
+				else
+					data[addr] = value;
+				cp++;
+				break;
+			case CALL:
+				if (ht - st < 3) {
+					status = failedDataStoreFull;
+					break loop;
+				}
+				if (st > SB)
+					data[st - 1] = tos;
+				data[st] = ob;
+				data[st + 1] = lb;
+				data[st + 2] = cp + 1;
+				tos = cp + 1;
+				ob = Machine.nullRep;
+				lb = st;
+				st = st + 3;
+				cp = d;
+				break;
+			case CALLI:
+				if (ht - st < 2) {
+					status = failedDataStoreFull;
+					break loop;
+				}
+				addr = tos;
+				data[st - 1] = ob;
+				data[st] = lb;
+				data[st + 1] = cp + 1;
+				tos = cp + 1;
+				ob = addr;
+				lb = st - 1;
+				st = st + 2;
+				cp = d;
+				break;
+			case RETURN:
+				// d = number of method args, n = size of result (0 or 1)
+				data[st - 1] = tos;
+				addr = lb - d;
+				size = nf[cp];
+				ob = data[lb];
+				cp = data[lb + 2];
+				lb = data[lb + 1];
+				if (size == 1)
+					data[addr] = tos;
+				st = addr + size;
+				if (st > SB)
+					tos = data[st - 1];
+				if (cp < CB || cp >= ct) {
+					status = failedInvalidCodeAddress;
+					break loop;
+				}
+				break;
+			case PUSH:
+				if (ht - st < d) {
+					status = failedDataStoreFull;
+					break loop;
+				}
+				if (st > SB)
+					data[st - 1] = tos;
+				st = st + d;
+				if (st > SB)
+					tos = data[st - 1];
+				cp++;
+				break;
+			case POP:
+				if (d != 0) {
+					st = st - d;
+					if (st > SB)
+						tos = data[st - 1];
+				}
+				cp++;
+				break;
+			case JUMP:
+				cp = d;
+				break;
+			case JUMPIF:
+				value = tos;
+				st--;
+				if (st > SB)
+					tos = data[st - 1];
+				if (value == nf[cp])
+					cp = d;
+				else
+					cp++;
+				break;
+			case JUMPNE:
+				value = tos;
+				st--;
+				if (st > SB)
+					tos = data[st - 1];
+				if (value != nf[cp])
+					cp = d;
+				else
+					cp++;
+				break;
+			case JUMPLT:
+				value = tos;
+				st--;
+				if (st > SB)
+					tos = data[st - 1];
+				if (value < nf[cp])
+					cp = d;
+				else
+					cp++;
+				break;
+			case JUMPLE:
+				value = tos;
+				st--;
+				if (st > SB)
+					tos = data[st - 1];
+				if (value <= nf[cp])
+					cp = d;
+				else
+					cp++;
+				break;
+			case JUMPGE:
+				value = tos;
+				st--;
+				if (st > SB)
+					tos = data[st - 1];
+				if (value >= nf[cp])
+					cp = d;
+				else
+					cp++;
+				break;
+			case JUMPGT:
+				value = tos;
+				st--;
+				if (st > SB)
+					tos = data[st - 1];
+				if (value > nf[cp])
+					cp = d;
+				else
+					cp++;
+				break;
+			case HALT:
+				status = halted;
+				break loop;
+			case END:
+				status = failedInvalidCodeAddress;
+				break loop;
+
+			// primitives
+			case P_ID:
+				cp++;
+				break;
+			case P_NOT:
+				tos = toInt(!isTrue(tos));
+				cp++;
+				break;
+			case P_AND:
+				st--;
+				tos = toInt(isTrue(data[st - 1]) & isTrue(tos));
+				cp++;
+				break;
+			case P_OR:
+				st--;
+				tos = toInt(isTrue(data[st - 1]) | isTrue(tos));
+				cp++;
+				break;
+			case P_NEG:
+				result = -(long) tos;
+				cp++;
+				if (result != (int) result) {
+					tos = 0;
+					status = failedOverflow;
+					break loop;
+				}
+				tos = (int) result;
+				break;
+			case P_ADD:
+				st--;
+				result = (long) data[st - 1] + tos;
+				cp++;
+				if (result != (int) result) {
+					tos = 0;
+					status = failedOverflow;
+					break loop;
+				}
+				tos = (int) result;
+				break;
+			case P_SUB:
+				st--;
+				result = (long) data[st - 1] - tos;
+				cp++;
+				if (result != (int) result) {
+					tos = 0;
+					status = failedOverflow;
+					break loop;
+				}
+				tos = (int) result;
+				break;
+			case P_MULT:
+				st--;
+				result = (long) data[st - 1] * tos;
+				cp++;
+				if (result != (int) result) {
+					tos = 0;
+					status = failedOverflow;
+					break loop;
+				}
+				tos = (int) result;
+				break;
+			case P_DIV:
+				cp++;
+				if (tos == 0) {
+					data[st - 1] = tos;
+					st--;
+					tos = data[st - 1];
+					status = failedZeroDivide;
+					break loop;
+				}
+				st--;
+				tos = (int) ((long) data[st - 1] / tos);
+				break;
+			case P_MOD:
+				cp++;
+				if (tos == 0) {
+					data[st - 1] = tos;
+					st--;
+					tos = data[st - 1];
+					status = failedZeroDivide;
+					break loop;
+				}
+				st--;
+				tos = (int) ((long) data[st - 1] % tos);
+				break;
+			case P_LT:
+				st--;
+				tos = toInt(data[st - 1] < tos);
+				cp++;
+				break;
+			case P_LE:
+				st--;
+				tos = toInt(data[st - 1] <= tos);
+				cp++;
+				break;
+			case P_GE:
+				st--;
+				tos = toInt(data[st - 1] >= tos);
+				cp++;
+				break;
+			case P_GT:
+				st--;
+				tos = toInt(data[st - 1] > tos);
+				cp++;
+				break;
+			case P_EQ:
+				st--;
+				tos = toInt(data[st - 1] == tos);
+				cp++;
+				break;
+			case P_NE:
+				st--;
+				tos = toInt(data[st - 1] != tos);
+				cp++;
+				break;
+			case P_NEWOBJ:
+				size = tos + 2;
+				if (ht - st < size + reserve) {
+					data[st - 1] = tos;
+					CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+					addr = allocate(data[st - 2], size);
+					ht = HT;
+					if (addr < 0) {
+						status = failedDataStoreFull;
+						break loop;
+					}
+					st--;
+					tos = addr;
+					cp++;
+					break;
+				}
+				ht = ht - size;
+				data[ht] = data[st - 2];
+				data[ht + 1] = size - 2;
+				for (int i = 2; i < size; i++)
+					data[ht + i] = 0;
+				st--;
+				tos = ht + 2;
+				cp++;
+				break;
+			case P_NEWARR:
+				size = tos + 2;
+				if (ht - st < size + reserve) {
+					data[st - 1] = tos;
+					CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+					addr = allocate(-2, size);
+					ht = HT;
+					if (addr < 0) {
+						status = failedDataStoreFull;
+						break loop;
+					}
+					tos = addr;
+					cp++;
+					break;
+				}
+				ht = ht - size;
+				data[ht] = -2;
+				data[ht + 1] = size - 2;
+				for (int i = 2; i < size; i++)
+					data[ht + i] = 0;
+				tos = ht + 2;
+				cp++;
+				break;
+			case P_ARRAYLEN:
+				addr = tos;
+				cp++;
+				if (addr == Machine.nullRep) {
+					status = failedNullRef;
+					break loop;
+				}
+				if (addr < ht + 2 || addr > HB || data[addr - 2] != -2) {
+					status = failedHeapRef;
+					break loop;
+				}
+				tos = data[addr - 1];
+				break;
+			case P_ARRAYREF:
+				addr = data[st - 2];
+				cp++;
+				if (addr == Machine.nullRep) {
+					status = failedNullRef;
+					break loop;
+				}
+				if (addr < ht + 2 || addr > HB) {
+					status = failedHeapRef;
+					break loop;
+				}
+				if (data[addr - 2] != -2 || tos < 0 || tos >= data[addr - 1]) {
+					status = failedArrayIndex;
+					break loop;
+				}
+				tos = data[addr + tos];
+				st--;
+				break;
+			case P_ARRAYUPD:
+				addr = data[st - 3];
+				cp++;
+				if (addr == Machine.nullRep) {
+					status = failedNullRef;
+					break loop;
+				}
+				if (addr < ht + 2 || addr > HB) {
+					status = failedHeapRef;
+					break loop;
+				}
+				index = data[st - 2];
+				if (data[addr - 2] != -2 || index < 0 || index >= data[addr - 1]) {
+					status = failedArrayIndex;
+					break loop;
+				}
+				data[addr + index] = tos;
+				st = st - 3;
+				if (st > SB)
+					tos = data[st - 1];
+				break;
+			case P_FIELDREF:
+				addr = data[st - 2];
+				cp++;
+				if (addr == Machine.nullRep) {
+					status = failedNullRef;
+					break loop;
+				}
+				if (addr < ht + 2 || addr > HB) {
+					status = failedHeapRef;
+					break loop;
+				}
+				if (tos < 0 || tos >= data[addr - 1]) {
+					status = failedFieldIndex;
+					break loop;
+				}
+				tos = data[addr + tos];
+				st--;
+				break;
+			case P_FIELDUPD:
+				addr = data[st - 3];
+				cp++;
+				if (addr == Machine.nullRep) {
+					status = failedNullRef;
+					break loop;
+				}
+				if (addr < ht + 2 || addr > HB) {
+					status = failedHeapRef;
+					break loop;
+				}
+				index = data[st - 2];
+				if (index < 0 || index >= data[addr - 1]) {
+					status = failedFieldIndex;
+					break loop;
+				}
+				data[addr + index] = tos;
+				st = st - 3;
+				if (st > SB)
+					tos = data[st - 1];
+				break;
+			case P_PUTINTNL:
+				accumulator = tos;
+				st--;
+				if (st > SB)
+					tos = data[st - 1];
+				machine.io.putIntLine(accumulator);
+				cp++;
+				break;
+
+			// immediate forms
+			case ADDL:
+				result = (long) tos + d;
+				cp++;
+				if (result != (int) result) {
+					tos = 0;
+					status = failedOverflow;
+					break loop;
+				}
+				tos = (int) result;
+				break;
+			case FIELDREFL:
+				addr = tos;
+				cp++;
+				if (addr == Machine.nullRep) {
+					status = failedNullRef;
+					break loop;
+				}
+				if (addr < ht + 2 || addr > HB) {
+					status = failedHeapRef;
+					break loop;
+				}
+				if (d < 0 || d >= data[addr - 1]) {
+					status = failedFieldIndex;
+					break loop;
+				}
+				tos = data[addr + d];
+				break;
+			case FIELDUPDL:
+				addr = data[st - 2];
+				cp++;
+				if (addr == Machine.nullRep) {
+					status = failedNullRef;
+					break loop;
+				}
+				if (addr < ht + 2 || addr > HB) {
+					status = failedHeapRef;
+					break loop;
+				}
+				if (d < 0 || d >= data[addr - 1]) {
+					status = failedFieldIndex;
+					break loop;
+				}
+				data[addr + d] = tos;
+				st = st - 2;
+				if (st > SB)
+					tos = data[st - 1];
+				break;
+
+			// superinstructions on locals
+			case F_INCRL:
+				if (st < ht) {
+					addr = lb + d;
+					result = (long) (addr == st - 1 ? tos : data[addr]) + df[cp + 1];
+					if (result == (int) result) {
+						addr = lb + df[cp + 2];
+						if (addr == st - 1)
+							tos = (int) result;
+						else
+							data[addr] = (int) result;
+						cp += 3;
+						break;
+					}
+				}
+				// execute the LOAD on its own
+				if (st >= ht) {
+					status = failedDataStoreFull;
+					break loop;
+				}
+				addr = lb + d;
+				value = addr == st - 1 ? tos : data[addr];
+				if (st > SB)
+					data[st - 1] = tos;
+				tos = value;
+				st++;
+				cp++;
+				break;
+			case F_JUMPCMP:
+				if (st < ht) {
+					addr = lb + d;
+					if (Fusion.test(nf[cp], addr == st - 1 ? tos : data[addr], nf[cp + 1]))
+						cp = df[cp + 1];
+					else
+						cp += 2;
+					break;
+				}
+				status = failedDataStoreFull;
+				break loop;
+
+			default:
+				// everything else runs one original instruction with the
+				// whole stack in memory
+				if (st > SB)
+					data[st - 1] = tos;
+				CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+				if (op[cp] == SNAPSHOT) {
+					snapshot();
+					CP = CP + 1;
+				} else
+					executeOneOperation();
+				cp = CP; st = ST; lb = LB; ob = OB; ht = HT;
+				if (st > SB)
+					tos = data[st - 1];
+				if (status != running)
+					break loop;
+				break;
+			}
+		}
+		if (st > SB)
+			data[st - 1] = tos;
+		CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Trace-recording compilation of hot mJAM loops
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import static mJAM.DecodedCode.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Tracing tier of the decoded run loop, enabled with -trace.
+ *
+ * install replaces the backward jumps of the decoded code by TRACE_JUMP, so
+ * the run loop counts the back-edges to each loop header.  When a loop is
+ * hot, the next iteration is recorded: the interpreter executes it one
+ * instruction at a time and the tracer writes down every code address it
+ * passes, also inside the routines the loop body calls, until control comes
+ * back to the header in the same frame.  BytecodeCompiler turns the trace
+ * into a straight-line method that repeats the recorded iteration, with the
+ * calls inlined and the conditional jumps replaced by guards.
+ *
+ * From then on the back-edge runs the trace.  Whenever a guard fails, the
+ * trace writes back the registers and returns the code address where the
+ * recorded path was left, and the run loop continues there; frames live in
+ * the data store, so this also works in the middle of an inlined call.  A
+ * loop that cannot be recorded (an instruction without a translation, a trace
+ * that is too long, a return out of the loop's routine) is not tried again.
+ */
+final class Tracer {
+
+	// back-edges at which a loop is recorded
+	final static int threshold = 1000;
+
+	// longest trace recorded
+	final static int maxLength = 2000;
+
+	// compiled trace of each loop header, or null
+	static MethodHandle[] traces;
+
+	private static DecodedCode dc;
+	private static int[] counts;
+
+	private final static MethodType traceType =
+			MethodType.methodType(int.class, int.class);
+
+	private Tracer() {
+	}
+
+	/**
+	 * Installs the counting back-edges in decoded code
+	 */
+	static void install(DecodedCode decoded) {
+		dc = decoded;
+		traces = new MethodHandle[dc.CT + 1];
+		counts = new int[dc.CT + 1];
+		for (int addr = Machine.CB; addr < dc.CT; addr++) {
+			if (dc.unfused(addr) == JUMP && dc.d[addr] <= addr)
+				dc.op[addr] = TRACE_JUMP;
+		}
+	}
+
+	/**
+	 * Counts a back-edge to header
+	 * @return true if this made the loop hot
+	 */
+	static boolean hot(int header) {
+		return ++counts[header] == threshold;
+	}
+
+	/**
+	 * Runs the loop at header from the machine state, which has just taken a
+	 * back-edge to it: the compiled trace if there is one, otherwise one
+	 * iteration that is recorded and compiled.  Leaves the state at the
+	 * address the interpreter has to continue at.
+	 */
+	static void enter(int header) {
+		if (traces[header] == null) {
+			record(header);
+			return;
+		}
+		try {
+			int result = (int) traces[header].invokeExact(header);
+			if (result != CompiledRuntime.STOP)
+				Interpreter.machine.CP = result;
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Executes one iteration of the loop at header and compiles its trace
+	 */
+	private static void record(int header) {
+		VirtualMachine machine = Interpreter.machine;
+		int[] trace = new int[maxLength];
+		int length = 0;
+		int frame = machine.LB;
+		boolean closed = false;
+		while (machine.status == Interpreter.running && length < maxLength) {
+			int cp = machine.CP;
+			if (cp == header && length > 0) {
+				closed = machine.LB == frame;
+				break;
+			}
+			int op = dc.unfused(cp);
+			if (!BytecodeCompiler.translates(op) || op == HALT || op == END)
+				break;
+			trace[length++] = cp;
+			machine.executeOneOperation();
+			if (op == RETURN && machine.LB < frame)
+				break;
+		}
+		if (!closed)
+			return;
+
+		int[] recorded = new int[length];
+		System.arraycopy(trace, 0, recorded, 0, length);
+		ClassFileWriter cf = new ClassFileWriter("mJAM/TraceCode");
+		if (!new BytecodeCompiler(dc, cf).compileTrace(header, recorded))
+			return;
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(cf.toBytes(), true);
+			traces[header] = lookup.findStatic(lookup.lookupClass(),
+					BytecodeCompiler.traceName(header), traceType);
+		} catch (IllegalAccessException | NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * Translates mJAM object files into JVM class files
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import static mJAM.ClassFileWriter.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Ahead-of-time translator from an mJAM object file to a class file with a
+ * main method, so that a program compiled once to mJAM can be run at JVM
+ * speed any number of times.
+ *
+ * usage: java mJAM.Translator objectFile [className]
+ *
+ * The class is written to className.class next to the object file (by
+ * default the class is named after the object file).  It needs the mJAM
+ * classes on the class path when it runs, e.g.
+ *
+ *     java -cp bin:tests prog
+ *
+ * Each routine becomes a static method compiled by BytecodeCompiler.  The
+ * instructions are also embedded in the class, so that parts of the program
+ * without a translation can still be run by the interpreter.  Output and
+ * exit code are the same as for mJAM.Interpreter.
+ */
+public class Translator {
+
+	// characters per string constant holding embedded instructions
+	final static int chunkSize = 8000;
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("usage: java mJAM.Translator objectFile [className]");
+			System.exit(3);
+		}
+		String objectFileName = args[0];
+		File objectFile = new File(objectFileName);
+		String className = args.length >= 2 ? args[1] : className(objectFile.getName());
+
+		if (new ObjectFile(objectFileName).read()) {
+			System.out.println("Unable to load object file " + objectFileName);
+			System.exit(3);
+		}
+		String error = DecodedCode.decode(Machine.code(), Machine.CT).error;
+		if (error != null) {
+			System.out.println("Invalid object file " + objectFileName + ": " + error);
+			System.exit(3);
+		}
+		byte[] classFile = translate(className);
+		File out = new File(objectFile.getAbsoluteFile().getParentFile(), className + ".class");
+		try (FileOutputStream os = new FileOutputStream(out)) {
+			os.write(classFile);
+		} catch (IOException e) {
+			System.out.println("Unable to write class file " + out);
+			System.exit(3);
+		}
+		System.out.println("Translated " + objectFileName + " to " + out);
+	}
+
+	/**
+	 * @return a valid class name derived from file name
+	 */
+	static String className(String fileName) {
+		int dot = fileName.lastIndexOf('.');
+		if (dot > 0)
+			fileName = fileName.substring(0, dot);
+		StringBuilder name = new StringBuilder();
+		for (char c : fileName.toCharArray())
+			name.append(Character.isJavaIdentifierPart(c) ? c : '_');
+		if (name.length() == 0 || !Character.isJavaIdentifierStart(name.charAt(0)))
+			name.insert(0, '_');
+		return name.toString();
+	}
+
+	/**
+	 * Translates the program in the code store
+	 * @param className  name of the class, in the unnamed package
+	 * @return class file
+	 */
+	static byte[] translate(String className) {
+		Instruction[] instructions = Machine.code();
+		DecodedCode dc = DecodedCode.decode(instructions, Machine.CT);
+		ClassFileWriter cf = new ClassFileWriter(className);
+		BytecodeCompiler compiler = new BytecodeCompiler(dc, cf);
+
+		BitSet entries = BytecodeCompiler.routineEntries(dc);
+		for (int entry = entries.nextSetBit(0); entry >= 0; entry = entries.nextSetBit(entry + 1)) {
+			BitSet only = new BitSet();
+			only.set(entry);
+			compiler.compileRoutine(entry, BytecodeCompiler.routineBody(dc, entry), only);
+		}
+
+		// main: load the code store, run the main routine and exit
+		ClassFileWriter.Method main = cf.method("main", "([Ljava/lang/String;)V", 2, 1);
+		String code = encode(instructions, Machine.CT);
+		for (int i = 0; i < code.length() || i == 0; i += chunkSize) {
+			main.ldc(cf.string(code.substring(i, Math.min(code.length(), i + chunkSize))));
+			if (i > 0)
+				main.op2(INVOKEVIRTUAL, cf.methodRef("java/lang/String", "concat",
+						"(Ljava/lang/String;)Ljava/lang/String;"));
+		}
+		main.invokestatic(BytecodeCompiler.runtime, "load", "(Ljava/lang/String;)V");
+		main.iconst(Machine.CB);
+		main.invokestatic(className, BytecodeCompiler.methodName(Machine.CB), "(I)I");
+		main.invokestatic(BytecodeCompiler.runtime, "exit", "(I)V");
+		main.op(RETURN);
+		main.end();
+
+		return cf.toBytes();
+	}
+
+	/**
+	 * @return the instructions code[CB .. ct-1] as a string, each field in two
+	 * characters, decoded by CompiledRuntime.load
+	 */
+	static String encode(Instruction[] code, int ct) {
+		StringBuilder s = new StringBuilder();
+		for (int i = Machine.CB; i < ct; i++) {
+			for (int v : new int[] { code[i].op, code[i].n, code[i].r, code[i].d }) {
+				s.append((char) (v >>> 16));
+				s.append((char) v);
+			}
+		}
+		return s.toString();
+	}
+}
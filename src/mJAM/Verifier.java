@@ -0,0 +1,359 @@
+/**
+ * Load-time verification of mJAM code
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import static mJAM.DecodedCode.*;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Checks the decoded code of a program before it runs, and computes how much
+ * room between stack and heap each instruction needs.
+ *
+ * The code is split into routines: the main program at CB and every target
+ * of a CALL or CALLI.  The body of a routine is the code reachable from its
+ * entry without following calls.  Every reachable instruction must be well
+ * formed: a known operation, a valid register field, a jump or call target
+ * inside the code store (or a known primitive), a RETURN with a result of 0
+ * or 1 words, and no running off the end of the code store.  The first
+ * instruction that is not is reported in error, and the loaders refuse the
+ * object file instead of failing in the middle of a run.
+ *
+ * The operand stack depth of a routine is then followed through its body,
+ * counting from the start of its frame (SB for the main program), with calls
+ * taking the effect of the callee's RETURN.  A routine is verified if the
+ * depth at each instruction is the same on every path to it.  (It may go
+ * below zero: the main program of miniJava returns from main past SB, for an
+ * argument it never pushed.)  Its largest depth is then known, and every
+ * instruction in it gets as its room the words the routine may still push
+ * after it.  The run loop checks for that room when a routine is entered or
+ * returned to and after anything that moves HT or leaves the loop, and
+ * executes LOAD, LOADA, LOADL and PUSH without checking for space.  Code that
+ * is not part of a verified routine (dynamic jumps, CALLD targets, stack
+ * depth that depends on the path) has room unverified, which is never
+ * available, and is run one instruction at a time with all checks, as is any
+ * code entered with less room than it needs, so a program fails with
+ * failedDataStoreFull at exactly the same instruction as before.
+ */
+final class Verifier {
+
+	// room of instructions outside verified routines, more than any data
+	// store has, also when 3 words for a frame are added
+	final static int unverified = Integer.MAX_VALUE - 3;
+
+	// stack effect of each primitive, by ordinal
+	private final static int[] primitiveEffect = {
+		0, 0, -1, -1,             // id, not, and, or
+		0, 0, 0,                  // succ, pred, neg
+		-1, -1, -1, -1, -1,       // add, sub, mult, div, mod
+		-1, -1, -1, -1, -1, -1,   // lt, le, ge, gt, eq, ne
+		1, 1,                     // eol, eof
+		-1, -1, 0, 0, -1, -1, -1, // get, put, geteol, puteol, getint, putint, putintnl
+		0, -1,                    // alloc, dispose
+		-1, 0,                    // newobj, newarr
+		0, -1, -3,                // arraylen, arrayref, arrayupd
+		-1, -3                    // fieldref, fieldupd
+	};
+
+	private final Instruction[] code;
+	private final DecodedCode dc;
+	private final int ct;
+
+	// words the run loop needs free at each instruction, room[CT] = 0
+	final int[] room;
+
+	// first malformed instruction, as a message, or null
+	String error;
+	private int errorAddr;
+
+	// routine entries, and the result and argument words of each routine's
+	// RETURN (-1 if it has none, or several that disagree)
+	private final BitSet entries = new BitSet();
+	private final int[] results, args;
+
+	private Verifier(Instruction[] code, DecodedCode dc) {
+		this.code = code;
+		this.dc = dc;
+		this.ct = dc.CT;
+		room = new int[ct + 1];
+		results = new int[ct];
+		args = new int[ct];
+	}
+
+	/**
+	 * Verifies decoded code before fusion, see DecodedCode.decode
+	 * @param code  the instructions dc was decoded from
+	 */
+	static Verifier verify(Instruction[] code, DecodedCode dc) {
+		Verifier v = new Verifier(code, dc);
+		v.findRoutines();
+		Arrays.fill(v.room, 0, v.ct, unverified);
+		for (int entry = v.entries.nextSetBit(0); entry >= 0; entry = v.entries.nextSetBit(entry + 1))
+			v.followDepth(entry);
+		return v;
+	}
+
+	/**
+	 * Finds the routines reachable from CB, checks their instructions and
+	 * collects their RETURNs
+	 */
+	private void findRoutines() {
+		ArrayDeque<Integer> pending = new ArrayDeque<Integer>();
+		if (ct > Machine.CB) {
+			entries.set(Machine.CB);
+			pending.add(Machine.CB);
+		}
+		while (!pending.isEmpty()) {
+			int entry = pending.poll();
+			results[entry] = args[entry] = -2; // no RETURN yet
+			BitSet body = new BitSet();
+			ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+			work.push(entry);
+			body.set(entry);
+			while (!work.isEmpty()) {
+				int addr = work.pop();
+				int op = dc.op[addr];
+				if (op == SLOW) {
+					checkSlow(addr);
+				} else if (op == RETURN) {
+					int n = code[addr].n, d = code[addr].d;
+					if (results[entry] == -2) {
+						results[entry] = n;
+						args[entry] = d;
+					} else if (results[entry] != n || args[entry] != d)
+						results[entry] = args[entry] = -1;
+				} else if ((op == CALL || op == CALLI) && !entries.get(dc.d[addr])) {
+					entries.set(dc.d[addr]);
+					pending.add(dc.d[addr]);
+				}
+				if (isJump(op) && !body.get(dc.d[addr])) {
+					body.set(dc.d[addr]);
+					work.push(dc.d[addr]);
+				}
+				if (fallsThrough(addr)) {
+					if (addr + 1 == ct)
+						report(addr, "runs off the end of the code store");
+					else if (!body.get(addr + 1)) {
+						body.set(addr + 1);
+						work.push(addr + 1);
+					}
+				}
+			}
+			if (results[entry] == -2)
+				results[entry] = args[entry] = -1;
+		}
+	}
+
+	/**
+	 * Reports the instruction at addr if SLOW stands for a malformed one,
+	 * rather than an operand relative to ST, HT or HB or a dynamic call
+	 */
+	private void checkSlow(int addr) {
+		Instruction inst = code[addr];
+		if (inst.op < 0 || inst.op >= Machine.intToOp.length) {
+			report(addr, "unknown operation " + inst.op);
+			return;
+		}
+		Machine.Op op = Machine.intToOp[inst.op];
+		switch (op) {
+		case LOAD:
+		case LOADA:
+		case STORE:
+		case CALL:
+		case CALLI:
+		case JUMP:
+		case JUMPIF:
+		case JUMPNE:
+		case JUMPLT:
+		case JUMPLE:
+		case JUMPGE:
+		case JUMPGT:
+			if (inst.r < 0 || inst.r >= Machine.intToReg.length)
+				report(addr, "invalid register " + inst.r);
+			else if (isFixedTarget(op, inst.r))
+				report(addr, op + " to " + inst.d + "[" + Machine.intToReg[inst.r]
+						+ "], outside the code store");
+			break;
+		case RETURN:
+			report(addr, "RETURN with a result of " + inst.n + " words");
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * @return true if op is a jump or call whose target register r is fixed,
+	 * so that a SLOW decoding means the target is invalid
+	 */
+	private static boolean isFixedTarget(Machine.Op op, int r) {
+		if (op == Machine.Op.LOAD || op == Machine.Op.LOADA || op == Machine.Op.STORE)
+			return false;
+		switch (Machine.intToReg[r]) {
+		case ZR:
+		case CB:
+		case CT:
+		case CP:
+		case PB:
+		case PT:
+		case SB:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private void report(int addr, String message) {
+		if (error == null || addr < errorAddr) {
+			error = "instruction " + addr + ": " + message;
+			errorAddr = addr;
+		}
+	}
+
+	private static boolean isJump(int op) {
+		return op == JUMP || op == JUMPIF || (op >= JUMPNE && op <= JUMPGT);
+	}
+
+	/**
+	 * @return true if execution can continue at addr + 1
+	 */
+	private boolean fallsThrough(int addr) {
+		switch (dc.op[addr]) {
+		case JUMP:
+		case JUMPI:
+		case RETURN:
+		case HALT:
+			return false;
+		case SLOW:
+			Instruction inst = code[addr];
+			if (inst.op < 0 || inst.op >= Machine.intToOp.length)
+				return false;
+			switch (Machine.intToOp[inst.op]) {
+			case LOAD:
+			case LOADA:
+			case STORE:
+				return true;
+			case CALL:
+			case CALLI:
+				// a call relative to a register that is not fixed
+				return inst.r >= 0 && inst.r < Machine.intToReg.length
+						&& !isFixedTarget(Machine.intToOp[inst.op], inst.r);
+			default:
+				return false;
+			}
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Follows the stack depth through the routine at entry and, if it is
+	 * verified, lowers the room of its instructions to what it still pushes
+	 */
+	private void followDepth(int entry) {
+		int[] depth = new int[ct];
+		Arrays.fill(depth, Integer.MIN_VALUE);
+		ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+		depth[entry] = 0;
+		work.push(entry);
+		int max = 0;
+		while (!work.isEmpty()) {
+			int addr = work.pop();
+			int op = dc.op[addr], in = depth[addr], out;
+			switch (op) {
+			case LOAD_ABS:
+			case LOAD_LB:
+			case LOAD_OB:
+			case LOADA_LB:
+			case LOADA_OB:
+			case LOADL:
+				out = in + 1;
+				break;
+			case STORE_ABS:
+			case STORE_LB:
+			case STORE_OB:
+				out = in - 1;
+				break;
+			case STOREI:
+				out = in - 2;
+				break;
+			case PUSH:
+				out = in + dc.d[addr];
+				break;
+			case POP:
+				out = in - dc.d[addr];
+				break;
+			case CALL:
+			case CALLI:
+				// the continuation only if the callee has one kind of RETURN
+				if (results[dc.d[addr]] < 0)
+					continue;
+				out = in - args[dc.d[addr]] + results[dc.d[addr]] - (op == CALLI ? 1 : 0);
+				break;
+			case SLOW:
+				// a LOAD, LOADA or STORE relative to ST, HT or HB; anything
+				// else is malformed or a dynamic call
+				if (code[addr].op < 0 || code[addr].op >= Machine.intToOp.length)
+					continue;
+				switch (Machine.intToOp[code[addr].op]) {
+				case LOAD:
+				case LOADA:
+					out = in + 1;
+					break;
+				case STORE:
+					out = in - 1;
+					break;
+				default:
+					continue;
+				}
+				break;
+			case CALLD:
+			case JUMPI:
+			case RETURN:
+			case HALT:
+				continue;
+			case JUMPIF:
+			case JUMPNE:
+			case JUMPLT:
+			case JUMPLE:
+			case JUMPGE:
+			case JUMPGT:
+			case ADDL:
+			case FIELDREFL:
+			case FIELDUPDL:
+				out = in + (op == ADDL || op == FIELDREFL ? 0 : op == FIELDUPDL ? -2 : -1);
+				break;
+			default:
+				// JUMP, SNAPSHOT and the primitives
+				out = op >= P_ID && op <= PRIM ? in + primitiveEffect[dc.d[addr]] : in;
+				break;
+			}
+			max = Math.max(max, out);
+			if (isJump(op) && !merge(depth, work, dc.d[addr], out))
+				return;
+			if (op != JUMP && addr + 1 < ct && !merge(depth, work, addr + 1, out))
+				return;
+		}
+		for (int addr = 0; addr < ct; addr++) {
+			if (depth[addr] != Integer.MIN_VALUE)
+				room[addr] = Math.min(room[addr], max - depth[addr]);
+		}
+	}
+
+	/**
+	 * Records depth at addr, queueing addr when it is first reached
+	 * @return false if addr was reached before with another depth
+	 */
+	private static boolean merge(int[] depth, ArrayDeque<Integer> work, int addr, int at) {
+		if (depth[addr] == Integer.MIN_VALUE) {
+			depth[addr] = at;
+			work.push(addr);
+			return true;
+		}
+		return depth[addr] == at;
+	}
+}
@@ -0,0 +1,2020 @@
+/**
+ * mJAM virtual machine instances
+ * @version COMP 520 V2.3
+ */
+package mJAM;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+import static mJAM.DecodedCode.*;
+import static mJAM.Interpreter.*;
+
+/**
+ * One mJAM machine: a data store, the registers, and the streams the
+ * program reads and writes, running a Program that may be shared with any
+ * number of other machines.  Machines are independent of each other and of
+ * the command line interpreter, so many programs can run in one JVM, on
+ * different threads, e.g.
+ *
+ *     Program program = Program.load("test.mJAM");
+ *     VirtualMachine.Result result = new VirtualMachine(program, in, out).run();
+ *
+ * A machine runs the decoded run loop.  The alternative engines selected by
+ * options of Interpreter (-tos, -closures, -jit, -trace) work on
+ * Interpreter.machine only, the machine of the command line.
+ */
+public final class VirtualMachine {
+
+	// CODE STORE
+	final Instruction[] code;
+	final int CT;
+	final DecodedCode decoded; // quickened by this machine only
+
+	// DATA STORE, the stack growing up from SB and the heap down from HB
+	final int[] data;
+	final int HB; // = data.length
+
+	// words in the data store unless a size is given
+	public final static int defaultSize = 1024;
+
+	// largest data store, about the largest int array
+	public final static int maxSize = Integer.MAX_VALUE - 8;
+
+	// HT when a run starts: HB, or the heap top of a loaded heap image
+	int heapTop;
+
+	// file each HALT n > 0 saves a snapshot to, or null to dump the state
+	String snapshotFile;
+
+	// collector of the heap, or null if a full heap is a failure
+	Collector collector;
+
+	// words between stack and heap that allocations leave to the stack while
+	// the collector can still free space elsewhere
+	int reserve;
+
+	// recorder of the allocation sites of objects, or null
+	HeapProfiler heapProfiler;
+
+	// REGISTERS
+	int CP, ST, HT, LB, OB, status, temp;
+
+	long accumulator;
+
+	// instructions executed by the run loop, a superinstruction counting
+	// as the instructions it stands for
+	long executed;
+
+	// instructions the machine may still execute before it fails with
+	// failedFuelExhausted, unlimited by default, see setFuel
+	long fuel = unlimited;
+
+	// instructions after which the run loop yields, see runSlice
+	long slice = unlimited;
+
+	final static long unlimited = Long.MAX_VALUE;
+
+	// frame of the routine runDecoded finishes after compiled code gave it
+	// up: the loop returns as soon as a RETURN sets LB below it, and does not
+	// switch back to compiled code in that frame (none at the top level)
+	int exitLB = SB - 1;
+
+	// names of the status values, indexed by value
+	private final static String[] statusNames = { "running", "halted",
+			"failedDataStoreFull", "failedInvalidCodeAddress",
+			"failedInvalidInstruction", "failedOverflow", "failedZeroDivide",
+			"failedIOError", "failedArrayIndex", "failedNullRef", "failedHeapRef",
+			"failedFieldIndex", "failedMethodIndex", "failedFuelExhausted" };
+
+	// STREAMS, which the I/O primitives use through io
+	final InputStream in;
+	final PrintStream out;
+	final MachineIO io;
+
+	/**
+	 * Machine for program reading System.in and writing System.out
+	 */
+	public VirtualMachine(Program program) {
+		this(program, System.in, System.out);
+	}
+
+	/**
+	 * Machine for program with its own input and output
+	 */
+	public VirtualMachine(Program program, InputStream in, PrintStream out) {
+		this(program, defaultSize, in, out);
+	}
+
+	/**
+	 * Machine for program with a data store of the given number of words
+	 * @throws IllegalArgumentException if size is not between 1 and maxSize
+	 */
+	public VirtualMachine(Program program, int size, InputStream in, PrintStream out) {
+		this(program, program.decoded.copy(), new int[checkSize(size)], in, out);
+	}
+
+	VirtualMachine(Program program, DecodedCode decoded, int[] data,
+			InputStream in, PrintStream out) {
+		this.code = program.code;
+		this.CT = program.CT;
+		this.decoded = decoded;
+		this.data = data;
+		this.HB = data.length;
+		this.heapTop = HB;
+		this.in = in;
+		this.out = out;
+		this.io = new MachineIO(in, out);
+		initMachine();
+	}
+
+	/**
+	 * Outcome of a run
+	 */
+	public static final class Result {
+		public final int status;
+		public final long instructions; // executed, see VirtualMachine.executed
+
+		Result(int status, long instructions) {
+			this.status = status;
+			this.instructions = instructions;
+		}
+
+		/**
+		 * @return name of status, as declared in Interpreter
+		 */
+		public String statusName() {
+			return status >= 0 && status < statusNames.length
+					? statusNames[status] : "unknown";
+		}
+
+		/**
+		 * @return true if the program halted normally
+		 */
+		public boolean halted() {
+			return status == Interpreter.halted;
+		}
+
+		/**
+		 * @return exit code of mJAM.Interpreter for the same run: 0 if the
+		 * program halted, 4 if it failed
+		 */
+		public int exitCode() {
+			return halted() ? 0 : 4;
+		}
+	}
+
+	/**
+	 * Runs the program from the start until it halts or fails.  The machine
+	 * can be run again afterwards, the data store is not cleared.
+	 */
+	public Result run() {
+		initMachine();
+		try {
+			runDecoded();
+		} finally {
+			io.flush();
+		}
+		return result();
+	}
+
+	/**
+	 * Runs the program from where it stopped, at first from the start, for
+	 * about the given number of instructions, so that many machines can take
+	 * turns on a few threads.  The machine yields at the first transfer of
+	 * control after that many instructions, so a slice can run over by a
+	 * straight-line sequence of instructions.
+	 * @return true if the program yielded and is still running, false if it
+	 * halted or failed
+	 */
+	public boolean runSlice(long instructions) {
+		if (status != running)
+			return false;
+		slice = instructions;
+		try {
+			runDecoded();
+		} finally {
+			slice = unlimited;
+			io.flush();
+		}
+		return status == running;
+	}
+
+	/**
+	 * Limits the instructions the machine executes from now on, in all runs
+	 * together.  When the program has used them up it fails with status
+	 * failedFuelExhausted, at the first transfer of control, so a program
+	 * that never halts is stopped after a deterministic number of
+	 * instructions.  Only the decoded run loop meters instructions, so the
+	 * Interpreter option -fuel turns the -tos, -closures, -jit and -trace
+	 * engines off.
+	 */
+	public void setFuel(long instructions) {
+		fuel = instructions;
+	}
+
+	/**
+	 * Lets the machine collect garbage when an object does not fit between
+	 * stack and heap, instead of failing with failedDataStoreFull
+	 */
+	public void enableCollector() {
+		if (collector == null) {
+			collector = new Collector(this);
+			reserve = Math.max(16, HB / 16);
+		}
+	}
+
+	/**
+	 * Records the allocation site of every object allocated from now on,
+	 * see HeapProfiler.  Allocations leave the decoded run loop, and the
+	 * machine must not run compiled code.
+	 */
+	public void enableHeapProfiler() {
+		if (heapProfiler == null) {
+			heapProfiler = new HeapProfiler(this);
+			heapProfiler.install();
+		}
+	}
+
+	/**
+	 * Loads a heap image saved by saveImage into the data store.  Runs from
+	 * then on start with its heap and static fields, see HeapImage.
+	 * @throws IOException if the image cannot be read or was saved from a
+	 * data store of another size
+	 */
+	public void loadImage(String file) throws IOException {
+		HeapImage.read(this, file);
+		heapTop = HT;
+		initMachine();
+	}
+
+	/**
+	 * Saves the static fields and heap of the data store as a heap image
+	 */
+	public void saveImage(String file) throws IOException {
+		HeapImage.write(this, file, false);
+	}
+
+	/**
+	 * Saves the registers and the used part of the data store as a snapshot,
+	 * from which restore continues at CP
+	 */
+	public void saveSnapshot(String file) throws IOException {
+		HeapImage.write(this, file, true);
+	}
+
+	/**
+	 * Restores the machine state saved by saveSnapshot, so that runSlice
+	 * continues where the machine that saved it was, without running the
+	 * program up to there again (run still starts from the beginning)
+	 * @throws IOException if the file cannot be read, is a heap image, or was
+	 * saved by another program or from a data store of another size
+	 */
+	public void restore(String file) throws IOException {
+		if (!HeapImage.read(this, file))
+			throw new IOException(file + " is a heap image, not a snapshot");
+		status = running;
+	}
+
+	/**
+	 * Makes every HALT n > 0 save a snapshot to file, to continue after the
+	 * HALT, instead of writing a dump of the machine state
+	 */
+	public void setSnapshotFile(String file) {
+		snapshotFile = file;
+	}
+
+	/**
+	 * @return outcome of the last run so far
+	 */
+	public Result result() {
+		return new Result(status, executed);
+	}
+
+	/**
+	 * @return size, if it is a valid number of words for a data store
+	 * @throws IllegalArgumentException otherwise
+	 */
+	public static int checkSize(int size) {
+		if (size < 1 || size > maxSize)
+			throw new IllegalArgumentException("data store size " + size
+					+ " is not between 1 and " + maxSize);
+		return size;
+	}
+
+	int content(int r) {
+		// Returns the current content of register r,
+		Machine.Reg reg = Machine.intToReg[r];
+		switch (reg) {
+		case CB:
+			return CB;
+		case CT:
+			return CT;
+		case PB:
+			return Machine.PB;
+		case PT:
+			return Machine.PT;
+		case SB:
+			return SB;
+		case ST:
+			return ST;
+		case HB:
+			return HB;
+		case HT:
+			return HT;
+		case LB:
+			return LB;
+		case OB:
+			return OB;
+		case CP:
+			return CP;
+		default:
+			return 0;
+		}
+	}
+
+	// PROGRAM STATUS
+
+	/**
+	 * Snapshot point, HALT n > 0 at CP: saves a snapshot that continues
+	 * after it, or writes a dump without a snapshot file
+	 */
+	void snapshot() {
+		io.flush();
+		if (snapshotFile == null) {
+			dump();
+			return;
+		}
+		CP = CP + 1;
+		try {
+			saveSnapshot(snapshotFile);
+		} catch (IOException e) {
+			out.println("Unable to save snapshot " + snapshotFile);
+		}
+		CP = CP - 1;
+	}
+
+	void dump() {
+		// Writes a summary of the machine state.
+		int addr, dynamicLink;
+		io.flush();
+		out.println("");
+		out.println("At instruction " + CP
+				+ ", state of mJAM data store and registers is:");
+		out.println("");
+		if (HT == HB)
+			out.println("            |--------|          (heap is empty)");
+		else {
+			out.println("      HB--> ");
+			out.println("            |--------|");
+			for (addr = HB - 1; addr >= HT; addr--) {
+				out.print(rightPad(6, addr + ":"));
+				if (addr == OB)
+					out.print("OB--> ");
+				else if (addr == HT)
+					out.print("HT--> ");
+				else
+					out.print("      ");
+				out.println("|" + leftPad(8, String.valueOf(data[addr]))
+						+ "|");
+			}
+			out.println("            |--------|");
+		}
+		out.println("            |////////|");
+		out.println("            |////////|");
+		if (ST == SB)
+			out.println("            |--------|          (stack is empty)");
+		else {
+			dynamicLink = LB;
+			out.println("      ST--> |////////|");
+			out.println("            |--------|");
+			for (addr = ST - 1; addr >= SB; addr--) {
+				out.print(rightPad(6, addr + ": "));
+				if (addr == SB)
+					out.print("SB--> ");
+				else if (addr == LB)
+					out.print("LB--> ");
+				else
+					out.print("      ");
+				if ((addr == dynamicLink) && (dynamicLink != SB))
+					out.print("|OB="
+							+ leftPad(5, String.valueOf(data[addr])) + "|");
+				else if ((addr == dynamicLink + 1) && (dynamicLink != SB))
+					out.print("|DL="
+							+ leftPad(5, String.valueOf(data[addr])) + "|");
+				else if ((addr == dynamicLink + 2) && (dynamicLink != SB))
+					out.print("|RA="
+							+ leftPad(5, String.valueOf(data[addr])) + "|");
+				else
+					out.print("|"
+							+ leftPad(8, String.valueOf(data[addr])) + "|");
+				out.println("");
+				if (addr == dynamicLink) {
+					out.println("            |--------|");
+					dynamicLink = data[addr + 1];
+				}
+			}
+		}
+		out.println("");
+	}
+
+	private static String leftPad(int len, String s) {
+		int aLen = Math.max(len, s.length());
+		StringBuffer buf = new StringBuffer(s);
+		String r = buf.insert(0, "        ").toString();
+		return r.substring(r.length() - aLen, r.length());
+	}
+
+	private static String rightPad(int len, String s) {
+		int aLen = Math.max(len, s.length());
+		String r = s + "        ";
+		return r.substring(0, aLen);
+	}
+
+	/**
+	 * @return the sentence showStatus writes for status, e.g. "Program has
+	 * halted normally."
+	 */
+	public static String statusMessage(int status) {
+		switch (status) {
+		case running:
+			return "Program is running.";
+		case halted:
+			return "Program has halted normally.";
+		case failedDataStoreFull:
+			return "Program has failed due to exhaustion of Data Store.";
+		case failedInvalidCodeAddress:
+			return "Program has failed due to an invalid code address.";
+		case failedInvalidInstruction:
+			return "Program has failed due to an invalid instruction.";
+		case failedOverflow:
+			return "Program has failed due to overflow.";
+		case failedZeroDivide:
+			return "Program has failed due to division by zero.";
+		case failedIOError:
+			return "Program has failed due to an IO error.";
+		case failedArrayIndex:
+			return "Program has failed due to an array index error.";
+		case failedNullRef:
+			return "Program has failed due to a null pointer reference.";
+		case failedHeapRef:
+			return "Program has failed due to an invalid Heap reference.";
+		case failedFieldIndex:
+			return "Program has failed due to a field index error.";
+		case failedMethodIndex:
+			return "Program has failed due to an improper method index in CALLD.";
+		case failedFuelExhausted:
+			return "Program has failed due to exhaustion of its instruction budget.";
+		default:
+			return "Machine is in an unknown state.";
+		}
+	}
+
+	/**
+	 * Writes the outcome of the last run, and the machine state if the
+	 * program did not halt
+	 */
+	public void showStatus() {
+		// Writes an indication of whether and why the program has terminated.
+		io.flush();
+		out.println("");
+		out.println("*** " + statusMessage(status));
+		if (status != halted)
+			dump();
+	}
+
+	// INTERPRETATION
+
+	void checkSpace(int spaceNeeded) {
+		// Signals failure if there is not enough space to expand the stack or
+		// heap by spaceNeeded.
+		if (HT - ST < spaceNeeded)
+			status = failedDataStoreFull;
+	}
+
+	boolean invalidHeapRef(int addr) {
+		// if addr is null ptr or outside of heap bounds, sets status to failure
+		if (addr == Machine.nullRep)
+			status = failedNullRef;
+		else if (addr < HT + 2 || addr > HB)
+			status = failedHeapRef;
+		return (status != running);
+	}
+
+	/**
+	 * Allocates an object of size words, including the two header words,
+	 * that does not fit between stack and heap above the reserve, see
+	 * Collector.allocate.  The
+	 * registers must be up to date.
+	 * @return address of the object, or -1 if the heap is full
+	 */
+	int allocate(int header, int size) {
+		return collector == null ? -1 : collector.allocate(header, size);
+	}
+
+	int overflowChecked(long datum) {
+		// Signals failure if the datum is too large to fit into a single word,
+		// otherwise returns the datum as a single word.
+		if ((Machine.minintRep <= datum) && (datum <= Machine.maxintRep))
+			return (int) datum;
+		else {
+			status = failedOverflow;
+			return 0;
+		}
+	}
+
+	int currentChar;
+
+	int readInt() throws java.io.IOException {
+		int temp = 0;
+		int sign = 1;
+
+		do {
+			currentChar = io.read();
+		} while (Character.isWhitespace((char) currentChar));
+
+		if ((currentChar == '-') || (currentChar == '+'))
+			do {
+				sign = (currentChar == '-') ? -1 : 1;
+				currentChar = io.read();
+			} while ((currentChar == '-') || currentChar == '+');
+
+		if (Character.isDigit((char) currentChar))
+			do {
+				temp = temp * 10 + (currentChar - '0');
+				currentChar = io.read();
+			} while (Character.isDigit((char) currentChar));
+
+		return sign * temp;
+	}
+
+	// Invoke primitive operation with argument(s) on the stack
+	// primitives are static and are not supplied an instance on the stack.
+	void callPrimitive(int id) {
+
+		int addr, size, index;
+		char ch;
+
+		Machine.Prim prim = Machine.intToPrim[id];
+		switch (prim) {
+		case id:
+			break; // nothing to be done
+		case not:
+			data[ST - 1] = toInt(!isTrue(data[ST - 1]));
+			break;
+		case and:
+			ST = ST - 1;
+			data[ST - 1] = toInt(isTrue(data[ST - 1]) & isTrue(data[ST]));
+			break;
+		case or:
+			ST = ST - 1;
+			data[ST - 1] = toInt(isTrue(data[ST - 1]) | isTrue(data[ST]));
+			break;
+		case succ:
+			data[ST - 1] = overflowChecked(data[ST - 1] + 1);
+			break;
+		case pred:
+			data[ST - 1] = overflowChecked(data[ST - 1] - 1);
+			break;
+		case neg:
+			data[ST - 1] = overflowChecked(-data[ST - 1]);
+			break;
+		case add:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			data[ST - 1] = overflowChecked(accumulator + data[ST]);
+			break;
+		case sub:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			data[ST - 1] = overflowChecked(accumulator - data[ST]);
+			break;
+		case mult:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			data[ST - 1] = overflowChecked(accumulator * data[ST]);
+			break;
+		case div:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			if (data[ST] != 0)
+				data[ST - 1] = (int) (accumulator / data[ST]);
+			else
+				status = failedZeroDivide;
+			break;
+		case mod:
+			ST = ST - 1;
+			accumulator = data[ST - 1];
+			if (data[ST] != 0)
+				data[ST - 1] = (int) (accumulator % data[ST]);
+			else
+				status = failedZeroDivide;
+			break;
+		case lt:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] < data[ST]);
+			break;
+		case le:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] <= data[ST]);
+			break;
+		case ge:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] >= data[ST]);
+			break;
+		case gt:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] > data[ST]);
+			break;
+		case eq:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] == data[ST]);
+			break;
+		case ne:
+			ST = ST - 1;
+			data[ST - 1] = toInt(data[ST - 1] != data[ST]);
+			break;
+		case eol:
+			data[ST] = toInt(currentChar == '\n');
+			ST = ST + 1;
+			break;
+		case eof:
+			data[ST] = toInt(currentChar == -1);
+			ST = ST + 1;
+			break;
+		case get:
+			ST = ST - 1;
+			addr = data[ST];
+			try {
+				currentChar = io.read();
+			} catch (java.io.IOException s) {
+				status = failedIOError;
+			}
+			data[addr] = (int) currentChar;
+			break;
+		case put:
+			ST = ST - 1;
+			ch = (char) data[ST];
+			io.put(ch);
+			break;
+		case geteol:
+			try {
+				while ((currentChar = io.read()) != '\n')
+					;
+			} catch (java.io.IOException s) {
+				status = failedIOError;
+			}
+			break;
+		case puteol:
+			io.putEol();
+			break;
+		case getint:
+			ST = ST - 1;
+			addr = data[ST];
+			try {
+				accumulator = readInt();
+			} catch (java.io.IOException s) {
+				status = failedIOError;
+			}
+			data[addr] = (int) accumulator;
+			break;
+		case putint:
+			ST = ST - 1;
+			accumulator = data[ST];
+			io.putInt(accumulator);
+			break;
+		// output with prefix for tester
+		case putintnl:
+			ST = ST - 1;
+			accumulator = data[ST];
+			io.putIntLine(accumulator);
+			break;
+		case alloc:
+			size = data[ST - 1];
+			checkSpace(size);
+			if (status != running)
+				break;
+			HT = HT - size;
+			data[ST - 1] = HT;
+			break;
+		case dispose:
+			ST = ST - 1; // no action taken at present
+			break;
+		case newobj:
+			// ..., class obj addr, number of fields ==> ..., new obj addr
+			size = data[ST - 1] + 2; // number of fields + 2 word descriptor
+			if (HT - ST < size + reserve && (addr = allocate(data[ST - 2], size)) >= 0) {
+				data[ST - 2] = addr; // allocated in space freed by the collector
+				ST = ST - 1;
+				if (heapProfiler != null)
+					heapProfiler.allocated(CP, addr - 2, size);
+				break;
+			}
+			checkSpace(size);
+			if (status != running)
+				break;
+			HT = HT - size;          // reserve space
+			data[HT] = data[ST - 2]; // set class object addr
+			data[HT + 1] = size - 2; // set size of object
+			data[ST - 2] = HT + 2;   // addr of new object instance, returned on stack
+			ST = ST - 1;             // net effect of pop 2 args, push 1 result
+			for (int i = 2; i < size; i++) {
+				data[HT + i] = 0;    // zero all fields of new object
+			}
+			if (heapProfiler != null)
+				heapProfiler.allocated(CP, HT, size);
+			break;
+		case newarr:
+			// ..., number of elements ==> ..., new int[] addr
+			size = data[ST - 1] + 2;  // array  + 2 word descriptor
+			if (HT - ST < size + reserve && (addr = allocate(-2, size)) >= 0) {
+				data[ST - 1] = addr;
+				if (heapProfiler != null)
+					heapProfiler.allocated(CP, addr - 2, size);
+				break;
+			}
+			checkSpace(size);
+			if (status != running)
+				break;
+			HT = HT - size;
+			data[HT] = -2;            // tag for array
+			data[HT + 1] = size - 2;  // size of array
+			data[ST - 1] = HT + 2;    // addr of array instance, returned on stack
+			for (int i = 2; i < size; i++) {
+				data[HT + i] = 0;     // zero all elements of new array
+			}
+			if (heapProfiler != null)
+				heapProfiler.allocated(CP, HT, size);
+			break;
+		case arraylen:
+			// ..., array addr a ==> ... , array.length
+			addr = data[ST-1];
+			if (invalidHeapRef(addr))
+				break;                   // invalid heap address
+			if (data[addr - 2] != -2) {
+				status = failedHeapRef;  // not tagged as array in heap
+				break;
+			}
+			data[ST-1] = data[addr - 1]; // return array length field
+			break;
+		case arrayref:
+			// ..., array addr a, element index i ==> ..., a[i]
+			addr = data[ST - 2];
+			if (invalidHeapRef(addr))
+				break;
+			index = data[ST - 1];
+			if (data[addr - 2] != -2 || index < 0 || index >= data[addr - 1]) {
+				status = failedArrayIndex;
+				break;
+			}
+			data[ST - 2] = data[addr + index];  // result element, returned on stack
+			ST = ST - 1;                        // pop two args, return one result
+			break;
+		case arrayupd:
+			// ..., array addr a, element index i, new value v ==> ...
+			// and a[i] := v
+			addr = data[ST - 3];
+			if (invalidHeapRef(addr))
+				break;
+			index = data[ST - 2];
+			if (data[addr - 2] != -2 || index < 0 || index >= data[addr - 1]) {
+				status = failedArrayIndex;
+				break;
+			}
+			data[addr + index] = data[ST - 1]; // update array element
+			ST = ST - 3;                       // pop 3 args, return no result
+			break;
+		case fieldref:
+			// ..., obj addr a, field index i ==> ..., value of ith field of a
+			addr = data[ST - 2];
+			if (invalidHeapRef(addr))
+				break;
+			index = data[ST - 1];
+			if (index < 0 || index >= data[addr - 1]) {
+				status = failedFieldIndex;
+				break;
+			}
+			data[ST - 2] = data[addr + index];   // field to stack top
+			ST = ST - 1;                         // pop two args, return one result
+			break;
+		case fieldupd:
+			// ..., obj addr a, field index i, new value v ==> ...
+			// and a.i := v
+			addr = data[ST - 3];
+			if (invalidHeapRef(addr))
+				break;
+			index = data[ST - 2];
+			if (index < 0 || index >= data[addr - 1]) {
+				status = failedFieldIndex;	
+				break;	
+			}	
+			data[addr + index] = data[ST - 1];	// update field to new value
+			ST = ST - 3;						// pop 3 args, return no result
+			break;
+		}
+	}
+
+	void executeOneOperation() {
+		// Fetch instruction ...
+		Instruction currentInstr = code[CP];
+		// Decode instruction ...
+		int op = currentInstr.op;
+		int r = currentInstr.r;
+		int n = currentInstr.n;
+		int d = currentInstr.d;
+		int addr;
+		// Execute instruction ...
+
+		Machine.Op operation = Machine.intToOp[op];
+
+		switch (operation) {
+		case LOAD:
+			addr = d + content(r);
+			checkSpace(1);
+			if (status != running)
+				break;
+			data[ST] = data[addr];
+			ST = ST + 1;
+			CP = CP + 1;
+			break;
+		case LOADA:
+			addr = d + content(r);
+			checkSpace(1);
+			if (status != running)
+				break;
+			data[ST] = addr;
+			ST = ST + 1;
+			CP = CP + 1;
+			break;
+		case LOADI:
+			ST = ST - 1;
+			addr = data[ST];
+			checkSpace(1);
+			if (status != running)
+				break;
+			data[ST] = data[addr];
+			ST = ST + 1;
+			CP = CP + 1;
+			break;
+		case LOADL:
+			checkSpace(1);
+			if (status != running)
+				break;
+			data[ST] = d;
+			ST = ST + 1;
+			CP = CP + 1;
+			break;
+		case STORE:
+			addr = d + content(r);
+			ST = ST - 1;
+			data[addr] = data[ST];
+			CP = CP + 1;
+			break;
+		case STOREI:
+			ST = ST - 1;
+			addr = data[ST];
+			ST = ST - 1;
+			data[addr] = data[ST];
+			CP = CP + 1;
+			break;
+			
+		case CALL:
+			// call static method, including primitives
+			// arguments are on stack
+			addr = d + content(r);      // effective address
+			if (addr >= Machine.PB) {
+				callPrimitive(addr - Machine.PB);
+				CP = CP + 1;
+			} else {
+				// static method in code segment, no instance addr on stack
+				checkSpace(3);
+				if (status != running)
+					break;
+				data[ST] = OB;         // save caller OB in callee frame
+				data[ST + 1] = LB;     // save caller LB in callee frame (dynamic link)
+				data[ST + 2] = CP + 1; // save caller return address in callee frame
+				OB = Machine.nullRep;  // set callee OB (null since no instance) 
+				LB = ST;               // set LB = start of callee frame
+				ST = ST + 3;           // set ST = end of callee frame
+				CP = addr;             // execution resumes at addr specified in CALL inst
+			}
+			break;
+			
+		case CALLI:
+			// call instance method
+			// arguments on stack, followed by instance address
+			addr = d + content(r);      // effective address
+			if (addr >= CT) {
+				// no instance methods outside of code segment
+				status = failedInvalidInstruction;
+				break;
+			}
+			// instance address is last arg on stack and is overwritten by frame
+			checkSpace(2);
+			if (status != running)
+				break;
+			temp = data[ST - 1];   // save instance address temporarily
+			data[ST - 1] = OB;     // save caller OB in callee frame
+			data[ST] = LB;         // save caller LB in callee frame (dynamic link)
+			data[ST + 1] = CP + 1; // save caller return address in callee frame
+			OB = temp;             // set OB for callee
+			LB = ST - 1;           // set LB = start of callee frame
+			ST = ST + 2;           // set ST = end of callee frame 
+			CP = addr;             // execution resumes at addr specified in CALL inst
+			break;
+			
+		case RETURN: 
+			// d = number of method args (does not include instance addr for CALLI)
+			// n = size of result (0 or 1)
+			if (n < 0 || n > 1) {
+				status = failedInvalidInstruction;
+				break;
+			}
+			addr = LB - d;          // addr of caller args
+			OB = data[LB];          // restore caller OB, LB, CP
+			CP = data[LB + 2];
+			LB = data[LB + 1];
+			if (n == 1)
+				data[addr] = data[ST - 1];  // return value if any
+			ST = addr + n;          // caller stack top
+			break;
+			
+		case CALLD: 
+			// dynamic method dispatch of method with index d (origin 0)
+			// arguments on stack, followed by instance addr
+			{
+				addr = data[ST - 1];    // instance addr
+				if (invalidHeapRef(addr))
+					break;
+				int classDescAddr = data[addr - 2];
+				if (classDescAddr >= ST || classDescAddr <= SB || d >= data[classDescAddr + 1] || d < 0) {
+					status = failedMethodIndex;
+					break;
+				}
+				ST = ST - 1;
+				checkSpace(3);
+				if (status != running)
+					break;
+				data[ST] = OB;
+				data[ST + 1] = LB;
+				data[ST + 2] = CP + 1;
+				OB = addr;
+				LB = ST;
+				ST = ST + 3;
+				CP = data[classDescAddr + 2 + n];
+			}
+			break;
+		case PUSH: // push d elements on stack
+			checkSpace(d);
+			if (status != running)
+				break;
+			ST = ST + d;
+			CP = CP + 1;
+			break;
+		case POP: // pop d elements off stack
+			ST = ST - d;
+			CP = CP + 1;
+			break;
+		case JUMP:
+			CP = d + content(r);
+			break;
+		case JUMPI:
+			ST = ST - 1;
+			CP = data[ST];
+			break;
+		case JUMPIF:
+			ST = ST - 1;
+			if (data[ST] == n)
+				CP = d + content(r);
+			else
+				CP = CP + 1;
+			break;
+		case HALT:
+			if (n > 0) {
+				// halt n > 0 --> snapshot machine state and continue execution
+				snapshot();
+				CP = CP + 1;
+			} else
+				status = halted;
+			break;
+		case ADDL:
+			CP = CP + 1;
+			accumulator = data[ST - 1];
+			data[ST - 1] = overflowChecked(accumulator + d);
+			break;
+		case FIELDREFL:
+			// ..., obj addr a ==> ..., value of field d of a
+			CP = CP + 1;
+			addr = data[ST - 1];
+			if (invalidHeapRef(addr))
+				break;
+			if (d < 0 || d >= data[addr - 1]) {
+				status = failedFieldIndex;
+				break;
+			}
+			data[ST - 1] = data[addr + d];
+			break;
+		case FIELDUPDL:
+			// ..., obj addr a, new value v ==> ...
+			// and a.d := v
+			CP = CP + 1;
+			addr = data[ST - 2];
+			if (invalidHeapRef(addr))
+				break;
+			if (d < 0 || d >= data[addr - 1]) {
+				status = failedFieldIndex;
+				break;
+			}
+			data[addr + d] = data[ST - 1];
+			ST = ST - 2;
+			break;
+		case JUMPNE:
+		case JUMPLT:
+		case JUMPLE:
+		case JUMPGE:
+		case JUMPGT:
+			ST = ST - 1;
+			if (jumpTaken(operation, data[ST], n))
+				CP = d + content(r);
+			else
+				CP = CP + 1;
+			break;
+		default:
+			// primitive operation, operands on the stack
+			callPrimitive(Machine.primOf(operation).ordinal());
+			CP = CP + 1;
+			break;
+		}
+
+		if ((CP < CB) || (CP >= CT))
+			status = failedInvalidCodeAddress;
+	}
+
+	/**
+	 * @return true if desc is one of the class descriptors of the CALLD_POLY
+	 * site whose entries in sites start at base
+	 */
+	private static boolean cached(int[] sites, int base, int desc) {
+		for (int i = base; i < base + DecodedCode.polymorphism && sites[i] != 0; i++) {
+			if (sites[i] == desc)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Runs the decoded program from the current machine state until it halts
+	 * or fails, until the frame at exitLB returns, at a breakpoint, or until
+	 * the fuel or the time slice is used up.  The hot registers
+	 * are kept in locals and written back to the machine registers whenever
+	 * control leaves the loop (dump, slow path, primitives without a decoded
+	 * form, compiled code, termination).  Pushes are not checked for space:
+	 * wherever the room the Verifier computed may be missing, the loop
+	 * continues in runChecked until it is there.  A specialized form of an
+	 * instruction that misses falls through into the instruction itself,
+	 * marked where it does.
+	 */
+	@SuppressWarnings("fallthrough")
+	void runDecoded() {
+		final int[] op = decoded.op, nf = decoded.n, df = decoded.d;
+		final int[] cache = decoded.cache;
+		final int[] data = this.data;
+		final int ct = decoded.CT;
+		final int exitLB = this.exitLB;
+		final int[] room = decoded.room;
+		final int reserve = this.reserve;
+		// instructions after which the loop stops at a transfer of control;
+		// only the outermost run yields at the end of a slice
+		final long limit = exitLB == SB - 1 ? Math.min(fuel, slice) : fuel;
+		// instructions executed in earlier straight-line runs, and start of
+		// the current run, which ends at the next transfer of control
+		long count = checkRoom(limit);
+		if (status != running || LB < exitLB || count >= limit) {
+			account(count);
+			return;
+		}
+		int cp = CP, st = ST, lb = LB, ob = OB, ht = HT;
+		int addr, index, size, target, d;
+		long result;
+		int start = cp;
+
+		loop: while (true) {
+			d = df[cp];
+			switch (op[cp]) {
+			case LOAD_ABS:
+				data[st++] = data[d];
+				cp++;
+				break;
+			case LOAD_LB:
+				data[st++] = data[lb + d];
+				cp++;
+				break;
+			case LOAD_OB:
+				data[st++] = data[ob + d];
+				cp++;
+				break;
+			case LOADA_LB:
+				data[st++] = lb + d;
+				cp++;
+				break;
+			case LOADA_OB:
+				data[st++] = ob + d;
+				cp++;
+				break;
+			case LOADI:
+				data[st - 1] = data[data[st - 1]];
+				cp++;
+				break;
+			case LOADL:
+				data[st++] = d;
+				cp++;
+				break;
+			case STORE_ABS:
+				data[d] = data[--st];
+				cp++;
+				break;
+			case STORE_LB:
+				data[lb + d] = data[--st];
+				cp++;
+				break;
+			case STORE_OB:
+				data[ob + d] = data[--st];
+				cp++;
+				break;
+			case STOREI:
+				addr = data[--st];
+				data[addr] = data[--st];
+				cp++;
+				break;
+			case JIT_CALL:
+				// CALL counted by Jit, runs compiled code once the routine is hot
+				if (Jit.code[d] != null || Jit.hot(d, Jit.callThreshold)) {
+					if (ht - st < 3) {
+						status = failedDataStoreFull;
+						break loop;
+					}
+					data[st] = ob;
+					data[st + 1] = lb;
+					data[st + 2] = cp + 1;
+					count += cp - start + 1;
+					CP = d; ST = st + 3; LB = st; OB = Machine.nullRep; HT = ht;
+					Jit.enter(d);
+					count += checkRoom(limit - count);
+					cp = CP; st = ST; lb = LB; ob = OB; ht = HT;
+					start = cp;
+					if (status != running || lb < exitLB || count >= limit)
+						break loop;
+					break;
+				}
+				// not compiled, falls through to call as usual
+			case CALL:
+				if (ht - st < 3 + room[d]) {
+					// not enough room for the callee
+					CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+					count += cp - start;
+					count += runChecked(limit - count);
+					cp = CP; st = ST; lb = LB; ob = OB; ht = HT;
+					start = cp;
+					if (status != running || lb < exitLB || count >= limit)
+						break loop;
+					break;
+				}
+				data[st] = ob;
+				data[st + 1] = lb;
+				data[st + 2] = cp + 1;
+				ob = Machine.nullRep;
+				lb = st;
+				st = st + 3;
+				count += cp - start + 1;
+				cp = d;
+				start = cp;
+				if (count >= limit)
+					break loop;
+				break;
+			case JIT_CALLI:
+				// CALLI counted by Jit, runs compiled code once the routine is hot
+				if (Jit.code[d] != null || Jit.hot(d, Jit.callThreshold)) {
+					if (ht - st < 2) {
+						status = failedDataStoreFull;
+						break loop;
+					}
+					addr = data[st - 1];
+					data[st - 1] = ob;
+					data[st] = lb;
+					data[st + 1] = cp + 1;
+					count += cp - start + 1;
+					CP = d; ST = st + 2; LB = st - 1; OB = addr; HT = ht;
+					Jit.enter(d);
+					count += checkRoom(limit - count);
+					cp = CP; st = ST; lb = LB; ob = OB; ht = HT;
+					start = cp;
+					if (status != running || lb < exitLB || count >= limit)
+						break loop;
+					break;
+				}
+				// not compiled, falls through to call as usual
+			case CALLI:
+				if (ht - st < 2 + room[d]) {
+					CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+					count += cp - start;
+					count += runChecked(limit - count);
+					cp = CP; st = ST; lb = LB; ob = OB; ht = HT;
+					start = cp;
+					if (status != running || lb < exitLB || count >= limit)
+						break loop;
+					break;
+				}
+				addr = data[st - 1];
+				data[st - 1] = ob;
+				data[st] = lb;
+				data[st + 1] = cp + 1;
+				ob = addr;
+				lb = st - 1;
+				st = st + 2;
+				count += cp - start + 1;
+				cp = d;
+				start = cp;
+				if (count >= limit)
+					break loop;
+				break;
+			case CALLD_QUICK:
+			case CALLD_POLY:
+				// class descriptor already validated at this call site
+				addr = data[st - 1];
+				if (addr != Machine.nullRep && addr >= ht + 2 && addr <= HB
+						&& (index = data[addr - 2]) < st
+						&& (op[cp] == CALLD_QUICK ? index == cache[cp]
+								: cached(decoded.sites, cache[cp], index))) {
+					target = data[index + 2 + nf[cp]];
+					if (target < CB || target >= ct || ht - st + 1 < 3 + room[target]) {
+						CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+						count += cp - start;
+						count += runChecked(limit - count);
+						cp = CP; st = ST; lb = LB; ob = OB; ht = HT;
+						start = cp;
+						if (status != running || lb < exitLB || count >= limit)
+							break loop;
+						break;
+					}
+					st = st - 1;
+					data[st] = ob;
+					data[st + 1] = lb;
+					data[st + 2] = cp + 1;
+					ob = addr;
+					lb = st;
+					st = st + 3;
+					count += cp - start + 1;
+					cp = target;
+					start = cp;
+					if (count >= limit)
+						break loop;
+					break;
+				}
+				// different class descriptor, falls through to validate it as
+				// CALLD does
+			case CALLD:
+				addr = data[st - 1];
+				if (addr == Machine.nullRep) {
+					status = failedNullRef;
+					break loop;
+				}
+				if (addr < ht + 2 || addr > HB) {
+					status = failedHeapRef;
+					break loop;
+				}
+				index = data[addr - 2]; // class descriptor
+				if (index >= st || index <= SB || d >= data[index + 1] || d < 0) {
+					status = failedMethodIndex;
+					break loop;
+				}
+				// quicken: later executions with this descriptor skip validation
+				decoded.cacheCall(cp, index);
+				target = data[index + 2 + nf[cp]];
+				if (target < CB || target >= ct || ht - st + 1 < 3 + room[target]) {
+					// an invalid target fails in runChecked as in executeOneOperation
+					CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+					count += cp - start;
+					count += runChecked(limit - count);
+					cp = CP; st = ST; lb = LB; ob = OB; ht = HT;
+					start = cp;
+					if (status != running || lb < exitLB || count >= limit)
+						break loop;
+					break;
+				}
+				st = st - 1;
+				data[st] = ob;
+				data[st + 1] = lb;
+				data[st + 2] = cp + 1;
+				ob = addr;
+				lb = st;
+				st = st + 3;
+				count += cp - start + 1;
+				cp = target;
+				start = cp;
+				if (count >= limit)
+					break loop;
+				break;
+			case RETURN:
+				// d = number of method args, n = size of result (0 or 1)
+				addr = lb - d;
+				size = nf[cp];
+				ob = data[lb];
+				count += cp - start + 1;
+				cp = data[lb + 2];
+				start = cp;
+				lb = data[lb + 1];
+				if (size == 1)
+					data[addr] = data[st - 1];
+				st = addr + size;
+				if (cp < CB || cp >= ct) {
+					status = failedInvalidCodeAddress;
+					break loop;
+				}
+				if (lb < exitLB || count >= limit)
+					break loop;
+				if (ht - st < room[cp]) {
+					// not enough room for the rest of the caller
+					CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+					count += cp - start;
+					count += runChecked(limit - count);
+					cp = CP; st = ST; lb = LB; ob = OB; ht = HT;
+					start = cp;
+					if (status != running || lb < exitLB || count >= limit)
+						break loop;
+					break;
+				}
+				break;
+			case PUSH:
+				st = st + d;
+				cp++;
+				break;
+			case POP:
+				st = st - d;
+				cp++;
+				break;
+			case JUMP:
+				count += cp - start + 1;
+				cp = d;
+				start = cp;
+				if (count >= limit)
+					break loop;
+				break;
+			case JIT_JUMP:
+				// backward JUMP counted by Jit, switches to compiled code at
+				// loop header d once the loop is hot
+				if (lb != exitLB && (Jit.code[d] != null || Jit.hot(d, Jit.loopThreshold))) {
+					count += cp - start + 1;
+					CP = d; ST = st; LB = lb; OB = ob; HT = ht;
+					Jit.enter(d);
+					count += checkRoom(limit - count);
+					cp = CP; st = ST; lb = LB; ob = OB; ht = HT;
+					start = cp;
+					if (status != running || lb < exitLB || count >= limit)
+						break loop;
+					break;
+				}
+				count += cp - start + 1;
+				cp = d;
+				start = cp;
+				if (count >= limit)
+					break loop;
+				break;
+			case TRACE_JUMP:
+				// backward JUMP counted by Tracer, runs the trace of loop
+				// header d, or records it once the loop is hot
+				if (Tracer.traces[d] != null || Tracer.hot(d)) {
+					count += cp - start + 1;
+					CP = d; ST = st; LB = lb; OB = ob; HT = ht;
+					Tracer.enter(d);
+					count += checkRoom(limit - count);
+					cp = CP; st = ST; lb = LB; ob = OB; ht = HT;
+					start = cp;
+					if (status != running || lb < exitLB || count >= limit)
+						break loop;
+					break;
+				}
+				count += cp - start + 1;
+				cp = d;
+				start = cp;
+				if (count >= limit)
+					break loop;
+				break;
+			case JUMPI:
+				count += cp - start + 1;
+				cp = data[--st];
+				start = cp;
+				if (cp < CB || cp >= ct) {
+					status = failedInvalidCodeAddress;
+					break loop;
+				}
+				if (count >= limit)
+					break loop;
+				if (ht - st < room[cp]) {
+					CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+					count += cp - start;
+					count += runChecked(limit - count);
+					cp = CP; st = ST; lb = LB; ob = OB; ht = HT;
+					start = cp;
+					if (status != running || lb < exitLB || count >= limit)
+						break loop;
+					break;
+				}
+				break;
+			case JUMPIF:
+				if (data[--st] == nf[cp]) {
+					count += cp - start + 1;
+					cp = d;
+					start = cp;
+					if (count >= limit)
+						break loop;
+				} else {
+					cp++;
+				}
+				break;
+			case JUMPNE:
+				if (data[--st] != nf[cp]) {
+					count += cp - start + 1;
+					cp = d;
+					start = cp;
+					if (count >= limit)
+						break loop;
+				} else {
+					cp++;
+				}
+				break;
+			case JUMPLT:
+				if (data[--st] < nf[cp]) {
+					count += cp - start + 1;
+					cp = d;
+					start = cp;
+					if (count >= limit)
+						break loop;
+				} else {
+					cp++;
+				}
+				break;
+			case JUMPLE:
+				if (data[--st] <= nf[cp]) {
+					count += cp - start + 1;
+					cp = d;
+					start = cp;
+					if (count >= limit)
+						break loop;
+				} else {
+					cp++;
+				}
+				break;
+			case JUMPGE:
+				if (data[--st] >= nf[cp]) {
+					count += cp - start + 1;
+					cp = d;
+					start = cp;
+					if (count >= limit)
+						break loop;
+				} else {
+					cp++;
+				}
+				break;
+			case JUMPGT:
+				if (data[--st] > nf[cp]) {
+					count += cp - start + 1;
+					cp = d;
+					start = cp;
+					if (count >= limit)
+						break loop;
+				} else {
+					cp++;
+				}
+				break;
+			case HALT:
+				count++;
+				status = halted;
+				break loop;
+			case SNAPSHOT:
+				CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+				snapshot();
+				cp++;
+				break;
+			case END:
+				status = failedInvalidCodeAddress;
+				break loop;
+			case BREAK:
+				// the debugger executes the instruction, see
+				// Interpreter.continueProgram
+				break loop;
+			case SLOW:
+				CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+				count += cp - start + 1;
+				executeOneOperation();
+				count += checkRoom(limit - count);
+				cp = CP; st = ST; lb = LB; ob = OB; ht = HT;
+				start = cp;
+				if (status != running || lb < exitLB || count >= limit)
+					break loop;
+				break;
+
+			// primitives
+			case P_ID:
+				cp++;
+				break;
+			case P_NOT:
+				data[st - 1] = toInt(!isTrue(data[st - 1]));
+				cp++;
+				break;
+			case P_AND:
+				st--;
+				data[st - 1] = toInt(isTrue(data[st - 1]) & isTrue(data[st]));
+				cp++;
+				break;
+			case P_OR:
+				st--;
+				data[st - 1] = toInt(isTrue(data[st - 1]) | isTrue(data[st]));
+				cp++;
+				break;
+			case P_SUCC:
+				result = (long) data[st - 1] + 1;
+				cp++;
+				if (result != (int) result) {
+					data[st - 1] = 0;
+					status = failedOverflow;
+					break loop;
+				}
+				data[st - 1] = (int) result;
+				break;
+			case P_PRED:
+				result = (long) data[st - 1] - 1;
+				cp++;
+				if (result != (int) result) {
+					data[st - 1] = 0;
+					status = failedOverflow;
+					break loop;
+				}
+				data[st - 1] = (int) result;
+				break;
+			case P_NEG:
+				result = -(long) data[st - 1];
+				cp++;
+				if (result != (int) result) {
+					data[st - 1] = 0;
+					status = failedOverflow;
+					break loop;
+				}
+				data[st - 1] = (int) result;
+				break;
+			case P_ADD:
+				st--;
+				result = (long) data[st - 1] + data[st];
+				cp++;
+				if (result != (int) result) {
+					data[st - 1] = 0;
+					status = failedOverflow;
+					break loop;
+				}
+				data[st - 1] = (int) result;
+				break;
+			case P_SUB:
+				st--;
+				result = (long) data[st - 1] - data[st];
+				cp++;
+				if (result != (int) result) {
+					data[st - 1] = 0;
+					status = failedOverflow;
+					break loop;
+				}
+				data[st - 1] = (int) result;
+				break;
+			case P_MULT:
+				st--;
+				result = (long) data[st - 1] * data[st];
+				cp++;
+				if (result != (int) result) {
+					data[st - 1] = 0;
+					status = failedOverflow;
+					break loop;
+				}
+				data[st - 1] = (int) result;
+				break;
+			case P_DIV:
+				st--;
+				cp++;
+				if (data[st] == 0) {
+					status = failedZeroDivide;
+					break loop;
+				}
+				data[st - 1] = (int) ((long) data[st - 1] / data[st]);
+				break;
+			case P_MOD:
+				st--;
+				cp++;
+				if (data[st] == 0) {
+					status = failedZeroDivide;
+					break loop;
+				}
+				data[st - 1] = (int) ((long) data[st - 1] % data[st]);
+				break;
+			case P_LT:
+				st--;
+				data[st - 1] = toInt(data[st - 1] < data[st]);
+				cp++;
+				break;
+			case P_LE:
+				st--;
+				data[st - 1] = toInt(data[st - 1] <= data[st]);
+				cp++;
+				break;
+			case P_GE:
+				st--;
+				data[st - 1] = toInt(data[st - 1] >= data[st]);
+				cp++;
+				break;
+			case P_GT:
+				st--;
+				data[st - 1] = toInt(data[st - 1] > data[st]);
+				cp++;
+				break;
+			case P_EQ:
+				st--;
+				data[st - 1] = toInt(data[st - 1] == data[st]);
+				cp++;
+				break;
+			case P_NE:
+				st--;
+				data[st - 1] = toInt(data[st - 1] != data[st]);
+				cp++;
+				break;
+			case P_NEWOBJ:
+				size = data[st - 1] + 2;
+				if (ht - st < size + reserve) {
+					CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+					addr = allocate(data[st - 2], size);
+					ht = HT;
+					if (addr < 0) {
+						status = failedDataStoreFull;
+						break loop;
+					}
+					data[st - 2] = addr;
+				} else {
+					ht = ht - size;
+					data[ht] = data[st - 2];
+					data[ht + 1] = size - 2;
+					data[st - 2] = ht + 2;
+					for (int i = 2; i < size; i++)
+						data[ht + i] = 0;
+				}
+				st--;
+				cp++;
+				if (ht - st < room[cp]) {
+					// not enough room left after the object for the rest of
+					// the routine
+					CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+					count += cp - start;
+					count += runChecked(limit - count);
+					cp = CP; st = ST; lb = LB; ob = OB; ht = HT;
+					start = cp;
+					if (status != running || lb < exitLB || count >= limit)
+						break loop;
+				}
+				break;
+			case P_NEWARR:
+				size = data[st - 1] + 2;
+				if (ht - st < size + reserve) {
+					CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+					addr = allocate(-2, size);
+					ht = HT;
+					if (addr < 0) {
+						status = failedDataStoreFull;
+						break loop;
+					}
+					data[st - 1] = addr;
+				} else {
+					ht = ht - size;
+					data[ht] = -2;
+					data[ht + 1] = size - 2;
+					data[st - 1] = ht + 2;
+					for (int i = 2; i < size; i++)
+						data[ht + i] = 0;
+				}
+				cp++;
+				if (ht - st < room[cp]) {
+					CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+					count += cp - start;
+					count += runChecked(limit - count);
+					cp = CP; st = ST; lb = LB; ob = OB; ht = HT;
+					start = cp;
+					if (status != running || lb < exitLB || count >= limit)
+						break loop;
+				}
+				break;
+			case P_ARRAYLEN:
+				addr = data[st - 1];
+				cp++;
+				if (addr == Machine.nullRep) {
+					status = failedNullRef;
+					break loop;
+				}
+				if (addr < ht + 2 || addr > HB || data[addr - 2] != -2) {
+					status = failedHeapRef;
+					break loop;
+				}
+				data[st - 1] = data[addr - 1];
+				break;
+			case P_ARRAYREF:
+				addr = data[st - 2];
+				cp++;
+				if (addr == Machine.nullRep) {
+					status = failedNullRef;
+					break loop;
+				}
+				if (addr < ht + 2 || addr > HB) {
+					status = failedHeapRef;
+					break loop;
+				}
+				index = data[st - 1];
+				if (data[addr - 2] != -2 || index < 0 || index >= data[addr - 1]) {
+					status = failedArrayIndex;
+					break loop;
+				}
+				data[st - 2] = data[addr + index];
+				st--;
+				break;
+			case P_ARRAYUPD:
+				addr = data[st - 3];
+				cp++;
+				if (addr == Machine.nullRep) {
+					status = failedNullRef;
+					break loop;
+				}
+				if (addr < ht + 2 || addr > HB) {
+					status = failedHeapRef;
+					break loop;
+				}
+				index = data[st - 2];
+				if (data[addr - 2] != -2 || index < 0 || index >= data[addr - 1]) {
+					status = failedArrayIndex;
+					break loop;
+				}
+				data[addr + index] = data[st - 1];
+				st = st - 3;
+				break;
+			case P_FIELDREF:
+				addr = data[st - 2];
+				cp++;
+				if (addr == Machine.nullRep) {
+					status = failedNullRef;
+					break loop;
+				}
+				if (addr < ht + 2 || addr > HB) {
+					status = failedHeapRef;
+					break loop;
+				}
+				index = data[st - 1];
+				if (index < 0 || index >= data[addr - 1]) {
+					status = failedFieldIndex;
+					break loop;
+				}
+				data[st - 2] = data[addr + index];
+				st--;
+				break;
+			case P_FIELDUPD:
+				addr = data[st - 3];
+				cp++;
+				if (addr == Machine.nullRep) {
+					status = failedNullRef;
+					break loop;
+				}
+				if (addr < ht + 2 || addr > HB) {
+					status = failedHeapRef;
+					break loop;
+				}
+				index = data[st - 2];
+				if (index < 0 || index >= data[addr - 1]) {
+					status = failedFieldIndex;
+					break loop;
+				}
+				data[addr + index] = data[st - 1];
+				st = st - 3;
+				break;
+			case P_PUTINTNL:
+				st--;
+				accumulator = data[st];
+				io.putIntLine(accumulator);
+				cp++;
+				break;
+			case PRIM:
+				CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+				callPrimitive(d);
+				cp = CP + 1; st = ST; lb = LB; ob = OB; ht = HT;
+				if (status != running)
+					break loop;
+				if (ht - st < room[cp]) {
+					CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+					count += cp - start;
+					count += runChecked(limit - count);
+					cp = CP; st = ST; lb = LB; ob = OB; ht = HT;
+					start = cp;
+					if (status != running || lb < exitLB || count >= limit)
+						break loop;
+					break;
+				}
+				break;
+
+			// immediate forms
+			case ADDL:
+				result = (long) data[st - 1] + d;
+				cp++;
+				if (result != (int) result) {
+					data[st - 1] = 0;
+					status = failedOverflow;
+					break loop;
+				}
+				data[st - 1] = (int) result;
+				break;
+			case FIELDREFL:
+				addr = data[st - 1];
+				cp++;
+				if (addr == Machine.nullRep) {
+					status = failedNullRef;
+					break loop;
+				}
+				if (addr < ht + 2 || addr > HB) {
+					status = failedHeapRef;
+					break loop;
+				}
+				if (d < 0 || d >= data[addr - 1]) {
+					status = failedFieldIndex;
+					break loop;
+				}
+				data[st - 1] = data[addr + d];
+				break;
+			case FIELDUPDL:
+				addr = data[st - 2];
+				cp++;
+				if (addr == Machine.nullRep) {
+					status = failedNullRef;
+					break loop;
+				}
+				if (addr < ht + 2 || addr > HB) {
+					status = failedHeapRef;
+					break loop;
+				}
+				if (d < 0 || d >= data[addr - 1]) {
+					status = failedFieldIndex;
+					break loop;
+				}
+				data[addr + d] = data[st - 1];
+				st = st - 2;
+				break;
+
+			// superinstructions, each falls back to its first instruction
+			// whenever the whole sequence can not complete; the room at the
+			// first instruction covers the pushes of the whole sequence
+			case F_INCR:
+				if (nf[cp] == P_ADD)
+					result = (long) data[lb + d] + df[cp + 1];
+				else
+					result = (long) data[lb + d] - df[cp + 1];
+				if (result == (int) result) {
+					data[lb + df[cp + 3]] = (int) result;
+					cp += 4;
+					break;
+				}
+				// execute the LOAD on its own
+				data[st++] = data[lb + d];
+				cp++;
+				break;
+			case F_CMPL_JUMPIF:
+				if (Fusion.test(nf[cp], data[lb + d], df[cp + 1])) {
+					count += cp + 3 - start + 1;
+					cp = df[cp + 3];
+					start = cp;
+					if (count >= limit)
+						break loop;
+				} else {
+					cp += 4;
+				}
+				break;
+			case F_CMP2_JUMPIF:
+				if (Fusion.test(nf[cp], data[lb + d], data[lb + df[cp + 1]])) {
+					count += cp + 3 - start + 1;
+					cp = df[cp + 3];
+					start = cp;
+					if (count >= limit)
+						break loop;
+				} else {
+					cp += 4;
+				}
+				break;
+			case F_INCRL:
+				result = (long) data[lb + d] + df[cp + 1];
+				if (result == (int) result) {
+					data[lb + df[cp + 2]] = (int) result;
+					cp += 3;
+					break;
+				}
+				// execute the LOAD on its own
+				data[st++] = data[lb + d];
+				cp++;
+				break;
+			case F_JUMPCMP:
+				if (Fusion.test(nf[cp], data[lb + d], nf[cp + 1])) {
+					count += cp + 1 - start + 1;
+					cp = df[cp + 1];
+					start = cp;
+					if (count >= limit)
+						break loop;
+				} else {
+					cp += 2;
+				}
+				break;
+			case F_CMP_JUMPIF:
+				st -= 2;
+				if (Fusion.test(nf[cp], data[st], data[st + 1])) {
+					count += cp + 1 - start + 1;
+					cp = df[cp + 1];
+					start = cp;
+					if (count >= limit)
+						break loop;
+				} else {
+					cp += 2;
+				}
+				break;
+			case F_ARRAYREF:
+				addr = data[lb + d];
+				index = data[lb + df[cp + 1]];
+				if (addr != Machine.nullRep && addr >= ht + 2 && addr <= HB
+						&& data[addr - 2] == -2 && index >= 0 && index < data[addr - 1]) {
+					data[st++] = data[addr + index];
+					cp += 3;
+					break;
+				}
+				// execute the LOAD on its own
+				data[st++] = data[lb + d];
+				cp++;
+				break;
+			}
+		}
+		CP = cp; ST = st; LB = lb; OB = ob; HT = ht;
+		count += cp - start;
+		account(count);
+	}
+
+	/**
+	 * Executes the instruction at CP with all the checks of
+	 * executeOneOperation, and the ones after it as long as there is less
+	 * room between stack and heap than the run loop needs (see Verifier).
+	 * Stops early when the program halts or fails, when the frame at exitLB
+	 * returns, at a breakpoint, or at a transfer of control once budget
+	 * instructions have been executed.
+	 * @return instructions executed
+	 */
+	private long runChecked(long budget) {
+		final int[] op = decoded.op, room = decoded.room;
+		long count = 0;
+		do {
+			if (op[CP] == BREAK)
+				break;
+			int from = CP;
+			executeOneOperation();
+			count++;
+			if (CP != from + 1 && count >= budget)
+				break;
+		} while (status == running && LB >= exitLB && HT - ST < room[CP]);
+		return count;
+	}
+
+	/**
+	 * Continues in runChecked if the machine is still running in the frames
+	 * of this run loop with less room than it needs at CP
+	 * @return instructions executed
+	 */
+	private long checkRoom(long budget) {
+		if (status != running || LB < exitLB || HT - ST >= decoded.room[CP])
+			return 0;
+		return runChecked(budget);
+	}
+
+	/**
+	 * Adds count instructions of a run to executed and takes them from the
+	 * fuel
+	 */
+	private void account(long count) {
+		executed += count;
+		if (fuel != unlimited) {
+			fuel -= count;
+			if (fuel <= 0 && status == running)
+				status = failedFuelExhausted;
+		}
+	}
+
+	void initMachine() {
+		executed = 0;
+		// Initialize registers ...
+		ST = SB;
+		HT = heapTop;
+		LB = SB;
+		CP = CB;
+		OB = -1; // invalid instance addr
+		status = running;
+	}
+}
@@ -1,25 +1,54 @@
 package miniJava.CodeGenerator;
 
+import static mJAM.Machine.Op.ADD;
+import static mJAM.Machine.Op.ADDL;
+import static mJAM.Machine.Op.AND;
+import static mJAM.Machine.Op.ARRAYLEN;
+import static mJAM.Machine.Op.ARRAYREF;
+import static mJAM.Machine.Op.ARRAYUPD;
 import static mJAM.Machine.Op.CALL;
 import static mJAM.Machine.Op.CALLI;
+import static mJAM.Machine.Op.DIV;
+import static mJAM.Machine.Op.EQ;
+import static mJAM.Machine.Op.FIELDREFL;
+import static mJAM.Machine.Op.FIELDUPDL;
+import static mJAM.Machine.Op.GE;
+import static mJAM.Machine.Op.GT;
 import static mJAM.Machine.Op.HALT;
 import static mJAM.Machine.Op.JUMP;
+import static mJAM.Machine.Op.JUMPGE;
+import static mJAM.Machine.Op.JUMPGT;
 import static mJAM.Machine.Op.JUMPIF;
+import static mJAM.Machine.Op.JUMPLE;
+import static mJAM.Machine.Op.JUMPLT;
+import static mJAM.Machine.Op.JUMPNE;
+import static mJAM.Machine.Op.LE;
 import static mJAM.Machine.Op.LOAD;
 import static mJAM.Machine.Op.LOADA;
 import static mJAM.Machine.Op.LOADL;
+import static mJAM.Machine.Op.LT;
+import static mJAM.Machine.Op.MULT;
+import static mJAM.Machine.Op.NE;
+import static mJAM.Machine.Op.NEG;
+import static mJAM.Machine.Op.NOT;
+import static mJAM.Machine.Op.OR;
 import static mJAM.Machine.Op.POP;
 import static mJAM.Machine.Op.PUSH;
 import static mJAM.Machine.Op.RETURN;
 import static mJAM.Machine.Op.STORE;
+import static mJAM.Machine.Op.SUB;
 import static mJAM.Machine.Reg.CB;
 import static mJAM.Machine.Reg.LB;
 import static mJAM.Machine.Reg.OB;
 import static mJAM.Machine.Reg.SB;
 
+import java.io.IOException;
+
+import mJAM.DebugInfo;
 import mJAM.Disassembler;
 import mJAM.Interpreter;
 import mJAM.Machine;
+import mJAM.Machine.Op;
 import mJAM.Machine.Prim;
 import mJAM.ObjectFile;
 import miniJava.ErrorReporter;
@@ -69,10 +98,16 @@ import miniJava.SyntacticAnalyzer.Token;
 public class CodeGenerator implements Visitor<Integer, Integer> {
 
 	private ErrorReporter reporter;
+	private String sourceName;
 	private String objectCodeFileName;
 	private String asmCodeFileName;
+	private String debugInfoFileName;
 	private boolean debug = false;
 
+	// source lines and methods of the code, see DebugInfo
+	private DebugInfo debugInfo;
+	private String className;
+
 	private boolean foundMain;
 	private PatchList patchList;
 	private int mainAddr;
@@ -83,8 +118,10 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 		this.frameOffset = 0;
 		this.patchList = new PatchList();
 		this.foundMain = false;
+		this.sourceName = sourceName;
 		objectCodeFileName = sourceName.substring(0, sourceName.indexOf('.')) + ".mJAM";
 		asmCodeFileName = objectCodeFileName.replace(".mJAM", ".asm");
+		debugInfoFileName = DebugInfo.fileName(objectCodeFileName);
 	}
 
 	/////////////////////////////////////////////////////////////////////////////
@@ -95,9 +132,11 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 
 	public void generate(AST prog) {
 		Machine.initCodeGen();
+		debugInfo = new DebugInfo(sourceName);
 		prog.visit(this, null);
 		patchList.patch();
 		generateObjectCode();
+		generateDebugInfo();
 		generateAssembly();
 		if (debug) {
 			runDebugger();
@@ -115,6 +154,17 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 		}
 	}
 
+	private void generateDebugInfo() {
+		print("Generating debug info file " + debugInfoFileName + "...");
+
+		try {
+			debugInfo.write(debugInfoFileName);
+			print("Generated debug info file " + debugInfoFileName + "...");
+		} catch (IOException e) {
+			error("Failed to generate debug info file.");
+		}
+	}
+
 	private void generateAssembly() {
 		print("Generating assembly file " + asmCodeFileName + "...");
 		Disassembler d = new Disassembler(objectCodeFileName);
@@ -141,6 +191,15 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 		System.out.println(message);
 	}
 
+	/**
+	 * Records that the code emitted from here on is for the source line of
+	 * ast, unless it has none (the returns TypeChecking adds)
+	 */
+	private void markLine(AST ast) {
+		if (ast.position != null)
+			debugInfo.line(Machine.nextInstrAddr(), ast.position.line);
+	}
+
 	/////////////////////////////////////////////////////////////////////////////
 	//
 	// PACKAGE
@@ -200,6 +259,7 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 
 	@Override
 	public Integer visitClassDecl(ClassDecl cd, Integer arg) {
+		className = cd.name;
 
 		// Visit methods
 		for (MethodDecl md : cd.methodDeclList) {
@@ -225,6 +285,8 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 
 		// Method code address
 		md.entity = new KnownAddress(Machine.addressSize, Machine.nextInstrAddr());
+		debugInfo.method(Machine.nextInstrAddr(), className + "." + md.name);
+		markLine(md);
 
 		// Check for main method
 		if (md.name.equals("main")) {
@@ -345,6 +407,7 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 
 	@Override
 	public Integer visitVardeclStmt(VarDeclStmt stmt, Integer arg) {
+		markLine(stmt);
 		stmt.varDecl.visit(this, null);
 		stmt.initExp.visit(this, 1);
 		frameOffset++;
@@ -353,6 +416,7 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 
 	@Override
 	public Integer visitAssignStmt(AssignStmt stmt, Integer arg) {
+		markLine(stmt);
 		Reference r = stmt.ref;
 		Expression v = stmt.val;
 		Declaration d = r.decl;
@@ -394,7 +458,7 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 
 			// Update according to stack operands.
 			// a[i] = v;
-			Machine.emit(Prim.arrayupd);
+			Machine.emit(ARRAYUPD);
 		}
 
 		// QualRef
@@ -412,15 +476,15 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 
 			// Update object instance
 			else {
-				// Push address of object (a) and field index (i)
-				r.visit(this, 2);
+				// Push address of object (a), get field index (i)
+				offset = r.visit(this, 2);
 
 				// Push new value (v)
 				v.visit(this, 1);
 
-				// Update according to stack operands.
+				// Update field i of a.
 				// a.i = v;
-				Machine.emit(Prim.fieldupd);
+				Machine.emit(FIELDUPDL, offset);
 			}
 		}
 
@@ -429,6 +493,7 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 
 	@Override
 	public Integer visitCallStmt(CallStmt stmt, Integer arg) {
+		markLine(stmt);
 		Reference r = stmt.methodRef;
 		MethodDecl md = (MethodDecl) stmt.methodRef.decl;
 
@@ -497,6 +562,7 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 
 	@Override
 	public Integer visitReturnStmt(ReturnStmt stmt, Integer arg) {
+		markLine(stmt);
 		// If the return statement isn't empty,
 		// evaluate the return expression and push the result onto the stack
 		if (stmt.returnExpr != null) {
@@ -509,9 +575,8 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 	public Integer visitIfStmt(IfStmt stmt, Integer arg) {
 
 		// Condition
-		stmt.cond.visit(this, 1); // Evaluate condition and push result onto stack
-		int condAddr = Machine.nextInstrAddr();
-		Machine.emit(JUMPIF, 0, CB, -1); // Jump to else (patch) if false
+		markLine(stmt);
+		int condAddr = emitJumpIfFalse(stmt.cond); // Jump to else (patch) if false
 
 		// Then
 		stmt.thenStmt.visit(this, null); // Execute then statement
@@ -536,13 +601,13 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 	public Integer visitWhileStmt(WhileStmt stmt, Integer arg) {
 
 		// Condition
+		markLine(stmt);
 		int condAddr = Machine.nextInstrAddr();
-		stmt.cond.visit(this, 1); // Evaluate condition and push result onto stack
-		int bodyAddr = Machine.nextInstrAddr();
-		Machine.emit(JUMPIF, 0, CB, -1); // Jump to end (patch) if false
+		int bodyAddr = emitJumpIfFalse(stmt.cond); // Jump to end (patch) if false
 
 		// Body
 		stmt.body.visit(this, null);
+		markLine(stmt);
 		Machine.emit(JUMP, CB, condAddr); // Jump to condition
 
 		// End
@@ -561,12 +626,11 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 		}
 
 		// Condition
+		markLine(stmt);
 		int condAddr = Machine.nextInstrAddr();
 		int jumpAddr = 0; // temp
 		if (stmt.cond != null) {
-			stmt.cond.visit(this, 1); // Evaluate condition and push result onto stack
-			jumpAddr = Machine.nextInstrAddr();
-			Machine.emit(JUMPIF, 0, CB, -1); // Jump to end (patch) if false
+			jumpAddr = emitJumpIfFalse(stmt.cond); // Jump to end (patch) if false
 		}
 
 		// Body
@@ -577,6 +641,7 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 			stmt.update.visit(this, null);
 
 		// Next iteration
+		markLine(stmt);
 		Machine.emit(JUMP, CB, condAddr);
 
 		// End
@@ -588,6 +653,66 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 		return null;
 	}
 
+	/**
+	 * Evaluates a condition and emits a jump (to be patched) that is taken when
+	 * the condition is false. A comparison against an integer literal is emitted
+	 * as a single compare-literal-and-branch instruction.
+	 * 
+	 * @return address of the jump instruction
+	 */
+	private int emitJumpIfFalse(Expression cond) {
+		if (cond instanceof BinaryExpr) {
+			BinaryExpr b = (BinaryExpr) cond;
+			Integer value = intLiteral(b.right);
+			Op jump = jumpUnless(b.operator.kind);
+			if (value != null && jump != null) {
+				b.left.visit(this, 1);
+				int jumpAddr = Machine.nextInstrAddr();
+				Machine.emit(jump, value, CB, -1);
+				return jumpAddr;
+			}
+		}
+
+		cond.visit(this, 1); // Evaluate condition and push result onto stack
+		int jumpAddr = Machine.nextInstrAddr();
+		Machine.emit(JUMPIF, 0, CB, -1);
+		return jumpAddr;
+	}
+
+	/**
+	 * Compare-literal-and-branch instruction that jumps when the comparison
+	 * operator does not hold, or null if the operator is not a comparison.
+	 */
+	private Op jumpUnless(int operator) {
+		switch (operator) {
+		case Token.LT:
+			return JUMPGE;
+		case Token.LTE:
+			return JUMPGT;
+		case Token.GT:
+			return JUMPLE;
+		case Token.GTE:
+			return JUMPLT;
+		case Token.EQ:
+			return JUMPNE;
+		case Token.NEQ:
+			return JUMPIF;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Value of an integer literal expression, or null if the expression is not
+	 * an integer literal.
+	 */
+	private Integer intLiteral(Expression e) {
+		if (e instanceof LiteralExpr && ((LiteralExpr) e).lit.kind == Token.NUM) {
+			return Integer.parseInt(((LiteralExpr) e).lit.spelling);
+		}
+		return null;
+	}
+
 	/////////////////////////////////////////////////////////////////////////////
 	//
 	// EXPRESSIONS
@@ -604,10 +729,10 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 		if (expr.operator != null) {
 			switch (expr.operator.kind) {
 			case Token.MINUS:
-				Machine.emit(Prim.neg);
+				Machine.emit(NEG);
 				break;
 			case Token.NOT:
-				Machine.emit(Prim.not);
+				Machine.emit(NOT);
 				break;
 			default:
 				error("Invalid unary operator at " + expr.operator.position + ".");
@@ -640,7 +765,7 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 			// popped result of left expression evaluation)
 			Machine.emit(LOADL, 1);
 			r.visit(this, 1);
-			Machine.emit(Prim.and);
+			Machine.emit(AND);
 			endAddr = Machine.nextInstrAddr();
 			Machine.emit(JUMP, CB, -1); // Jump to end (patch)
 
@@ -666,7 +791,7 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 			// popped result of left expression evaluation)
 			Machine.emit(LOADL, 0);
 			r.visit(this, 1);
-			Machine.emit(Prim.or);
+			Machine.emit(OR);
 			endAddr = Machine.nextInstrAddr();
 			Machine.emit(JUMP, CB, -1); // Jump to end (patch)
 
@@ -680,41 +805,50 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 
 		default:
 
-			// Evaluate both expressions and push results
+			// Evaluate left expression and push result
 			l.visit(this, 1);
+
+			// Adding or subtracting a literal takes a single instruction
+			Integer value = intLiteral(r);
+			if (value != null && (o.kind == Token.ADD || o.kind == Token.MINUS)) {
+				Machine.emit(ADDL, o.kind == Token.ADD ? value : -value);
+				return null;
+			}
+
+			// Evaluate right expression and push result
 			r.visit(this, 1);
 
-			// Execute appropriate primitive routine
+			// Execute appropriate primitive operation
 			switch (o.kind) {
 			case Token.ADD:
-				Machine.emit(Prim.add);
+				Machine.emit(ADD);
 				break;
 			case Token.MINUS:
-				Machine.emit(Prim.sub);
+				Machine.emit(SUB);
 				break;
 			case Token.MULT:
-				Machine.emit(Prim.mult);
+				Machine.emit(MULT);
 				break;
 			case Token.DIV:
-				Machine.emit(Prim.div);
+				Machine.emit(DIV);
 				break;
 			case Token.EQ:
-				Machine.emit(Prim.eq);
+				Machine.emit(EQ);
 				break;
 			case Token.NEQ:
-				Machine.emit(Prim.ne);
+				Machine.emit(NE);
 				break;
 			case Token.GT:
-				Machine.emit(Prim.gt);
+				Machine.emit(GT);
 				break;
 			case Token.GTE:
-				Machine.emit(Prim.ge);
+				Machine.emit(GE);
 				break;
 			case Token.LT:
-				Machine.emit(Prim.lt);
+				Machine.emit(LT);
 				break;
 			case Token.LTE:
-				Machine.emit(Prim.le);
+				Machine.emit(LE);
 				break;
 			default:
 				error("Invalid operator at " + o.position);
@@ -912,7 +1046,7 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 				ref.ref.visit(this, 1);
 
 				// Return length
-				Machine.emit(Prim.arraylen);
+				Machine.emit(ARRAYLEN);
 			}
 
 			// Static field
@@ -927,12 +1061,9 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 				// Load address of object (a)
 				ref.ref.visit(this, 1);
 
-				// Load field offset (i)
+				// Return value of a.i, field offset (i) as literal
 				offset = ((KnownAddress) d.entity).offset;
-				Machine.emit(LOADL, offset);
-
-				// Return value of a.i
-				Machine.emit(Prim.fieldref);
+				Machine.emit(FIELDREFL, offset);
 			}
 
 			// Method
@@ -974,9 +1105,9 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 				// Load address of object instnace
 				ref.ref.visit(this, 1);
 
-				// Load field offset
+				// Return field offset
 				offset = ((KnownAddress) d.entity).offset;
-				Machine.emit(LOADL, offset);
+				return offset;
 			}
 		}
 
@@ -996,7 +1127,7 @@ public class CodeGenerator implements Visitor<Integer, Integer> {
 			ref.indexExpr.visit(this, 1);
 
 			// Push value of a[i]
-			Machine.emit(Prim.arrayref);
+			Machine.emit(ARRAYREF);
 		}
 
 		// Store
@@ -8,6 +8,7 @@ import miniJava.ContextualAnalyzer.TypeChecking;
 import miniJava.SyntacticAnalyzer.Parser;
 import miniJava.SyntacticAnalyzer.Scanner;
 import miniJava.SyntacticAnalyzer.SourceFile;
+import miniJava.TreeInterpreter.TreeInterpreter;
 
 public class Compiler {
 
@@ -18,13 +19,38 @@ public class Compiler {
 	private static ErrorReporter reporter;
 	private static AST ast;
 
+	// run the program on its AST instead of generating code, see TreeInterpreter
+	private static boolean run = false;
+	private static int dataStoreSize = mJAM.VirtualMachine.defaultSize;
+
 	public static void main(String[] args) throws IOException {
-		if (args.length != 1) {
+		int i = 0;
+		while (i < args.length - 1) {
+			if (args[i].equals("-run")) {
+				run = true;
+				i++;
+			} else if (args[i].equals("-datastore") && i + 2 < args.length) {
+				try {
+					dataStoreSize = Integer.parseInt(args[i + 1]);
+				} catch (NumberFormatException e) {
+					dataStoreSize = 0;
+				}
+				if (dataStoreSize <= 0 || dataStoreSize > mJAM.VirtualMachine.maxSize) {
+					System.out.println("Invalid data store size " + args[i + 1] + ".");
+					System.exit(3);
+				}
+				i += 2;
+			} else {
+				break;
+			}
+		}
+
+		if (i != args.length - 1) {
 			System.out.println("Missing argument filename.");
 			System.exit(3);
 		}
 
-		String sourceName = args[0];
+		String sourceName = args[i];
 		compile(sourceName);
 	}
 
@@ -54,6 +80,10 @@ public class Compiler {
 			checker.check(ast);
 			System.out.println("Contextual analysis completed.");
 
+			if (run) {
+				runProgram();
+			}
+
 			// Code generation
 			System.out.println("Code generation...");
 			generator.generate(ast);
@@ -71,4 +101,15 @@ public class Compiler {
 			System.exit(0);
 		}
 	}
+
+	/**
+	 * Runs the checked program without generating code, and exits as
+	 * mJAM.Interpreter does
+	 */
+	private static void runProgram() {
+		System.out.println("Running...");
+		TreeInterpreter interpreter = new TreeInterpreter(reporter, dataStoreSize);
+		interpreter.run(ast);
+		System.exit(interpreter.halted() ? 0 : 4);
+	}
 }
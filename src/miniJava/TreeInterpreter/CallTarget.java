@@ -0,0 +1,111 @@
+package miniJava.TreeInterpreter;
+
+import static mJAM.Interpreter.failedDataStoreFull;
+import static miniJava.TreeInterpreter.TreeInterpreter.HT;
+import static miniJava.TreeInterpreter.TreeInterpreter.LB;
+import static miniJava.TreeInterpreter.TreeInterpreter.OB;
+import static miniJava.TreeInterpreter.TreeInterpreter.ST;
+import static miniJava.TreeInterpreter.TreeInterpreter.data;
+
+import mJAM.Machine;
+import miniJava.AbstractSyntaxTrees.ClassDecl;
+import miniJava.AbstractSyntaxTrees.MethodDecl;
+import miniJava.AbstractSyntaxTrees.Statement;
+import miniJava.AbstractSyntaxTrees.TypeKind;
+import miniJava.CodeGenerator.RuntimeEntity;
+
+/**
+ * Runtime entity of a method for the TreeInterpreter, in place of the code
+ * address the CodeGenerator gives it. Calling it builds the frame CALL builds,
+ * runs the body of the method and returns as RETURN does.
+ */
+final class CallTarget extends RuntimeEntity {
+
+	private final ClassDecl cd;
+	private final MethodDecl md;
+	private final int params, results;
+
+	// nodes of the method, built on its first call
+	private Body body;
+
+	CallTarget(ClassDecl cd, MethodDecl md) {
+		super(Machine.addressSize);
+		this.cd = cd;
+		this.md = md;
+		this.params = md.parameterDeclList.size();
+		this.results = md.type.typeKind == TypeKind.VOID ? 0 : 1;
+	}
+
+	/**
+	 * Calls the method on the object at receiver, with its arguments pushed
+	 *
+	 * @param caller node of the call, where a full data store fails
+	 * @return the result of the method, 0 if it is void
+	 */
+	int call(int receiver, Node caller) {
+		if (HT - ST < Machine.linkDataSize) {
+			throw TreeInterpreter.fail(failedDataStoreFull, caller);
+		}
+		if (body == null) {
+			body = new Body(this);
+		}
+
+		// CALL: OB, dynamic link and (unused) return address
+		data[ST] = OB;
+		data[ST + 1] = LB;
+		data[ST + 2] = 0;
+		OB = receiver;
+		LB = ST;
+		ST = ST + Machine.linkDataSize;
+
+		body.execute();
+
+		// RETURN: the result, if any, is the last word pushed, and is left for
+		// the caller to push
+		int addr = LB - params;
+		int result = 0;
+		OB = data[LB];
+		LB = data[LB + 1];
+		if (results == 1) {
+			result = data[ST - 1];
+			data[addr] = result;
+		}
+		ST = addr;
+		return result;
+	}
+
+	public String toString() {
+		return cd.name + "." + md.name;
+	}
+
+	/**
+	 * The statements of a method, the root of its nodes
+	 */
+	static final class Body extends Node {
+
+		final CallTarget target;
+		private final StmtNode[] statements;
+
+		Body(CallTarget target) {
+			super(target.md);
+			this.target = target;
+			this.statements = new StmtNode[target.md.statementList.size()];
+			for (int i = 0; i < statements.length; i++) {
+				Statement s = target.md.statementList.get(i);
+				statements[i] = adopt(new StmtNode.Uninitialized(s));
+			}
+		}
+
+		void execute() {
+			for (int i = 0; i < statements.length; i++) {
+				statements[i].execute();
+			}
+		}
+
+		void replaceChild(Node child, Node node) {
+			if (!replaceIn(statements, child, node)) {
+				super.replaceChild(child, node);
+			}
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package miniJava.TreeInterpreter;
+
+import static miniJava.TreeInterpreter.TreeInterpreter.OB;
+import static miniJava.TreeInterpreter.TreeInterpreter.ST;
+import static miniJava.TreeInterpreter.TreeInterpreter.data;
+
+import mJAM.Machine;
+import miniJava.AbstractSyntaxTrees.AST;
+
+/**
+ * Nodes of method calls, which push their arguments for the CallTarget of the
+ * method, and of System.out.println
+ */
+final class Calls {
+
+	private Calls() {
+	}
+
+	/**
+	 * A node that pushes arguments
+	 */
+	abstract static class WithArguments extends ExprNode {
+
+		final ExprNode[] args;
+
+		WithArguments(AST ast, ExprNode[] args) {
+			super(ast);
+			this.args = args;
+			for (ExprNode arg : args) {
+				adopt(arg);
+			}
+		}
+
+		final void pushArguments() {
+			for (int i = 0; i < args.length; i++) {
+				int value = args[i].execute();
+				data[ST++] = value;
+			}
+		}
+
+		void replaceChild(Node child, Node node) {
+			if (!replaceIn(args, child, node)) {
+				super.replaceChild(child, node);
+			}
+		}
+	}
+
+	// CALL, of a static method
+	static final class Static extends WithArguments {
+
+		private final CallTarget target;
+
+		Static(AST ast, ExprNode[] args, CallTarget target) {
+			super(ast, args);
+			this.target = target;
+		}
+
+		int execute() {
+			pushArguments();
+			return target.call(Machine.nullRep, this);
+		}
+	}
+
+	// LOADA OB 0, CALLI, of an instance method of this
+	static final class OnThis extends WithArguments {
+
+		private final CallTarget target;
+
+		OnThis(AST ast, ExprNode[] args, CallTarget target) {
+			super(ast, args);
+			this.target = target;
+		}
+
+		int execute() {
+			pushArguments();
+			return target.call(OB, this);
+		}
+	}
+
+	// CALLI, of an instance method of the object the receiver evaluates to,
+	// which may be null: CALLI does not check it
+	static final class Instance extends WithArguments {
+
+		private ExprNode receiver;
+		private final CallTarget target;
+
+		Instance(AST ast, ExprNode[] args, ExprNode receiver, CallTarget target) {
+			super(ast, args);
+			this.receiver = adopt(receiver);
+			this.target = target;
+		}
+
+		int execute() {
+			pushArguments();
+			int object = receiver.execute();
+			return target.call(object, this);
+		}
+
+		void replaceChild(Node child, Node node) {
+			if (receiver == child) {
+				receiver = (ExprNode) node;
+			} else {
+				super.replaceChild(child, node);
+			}
+		}
+	}
+
+	// putintnl
+	static final class Println extends WithArguments {
+
+		Println(AST ast, ExprNode[] args) {
+			super(ast, args);
+		}
+
+		int execute() {
+			pushArguments();
+			ST--;
+			TreeInterpreter.println(data[ST]);
+			return 0;
+		}
+	}
+
+	// A call of a method named println that is not System.out.println, in an
+	// expression: the CodeGenerator emits only the arguments, the last of which
+	// stands for the result
+	static final class ArgumentsOnly extends WithArguments {
+
+		ArgumentsOnly(AST ast, ExprNode[] args) {
+			super(ast, args);
+		}
+
+		int execute() {
+			pushArguments();
+			ST--;
+			return data[ST];
+		}
+	}
+}
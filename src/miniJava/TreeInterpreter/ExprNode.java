@@ -0,0 +1,87 @@
+package miniJava.TreeInterpreter;
+
+import miniJava.AbstractSyntaxTrees.AST;
+import miniJava.AbstractSyntaxTrees.Expression;
+
+/**
+ * Node of an expression. The code generated for an expression pushes its
+ * value; execute leaves the stack as it was instead and returns the value, for
+ * the parent to push if the generated code keeps it on the stack.
+ */
+abstract class ExprNode extends Node {
+
+	ExprNode(AST ast) {
+		super(ast);
+	}
+
+	/**
+	 * Evaluates the expression, with the stack as the code generated for it
+	 * has it while it does, and with the same checks
+	 *
+	 * @return the value the code would push
+	 */
+	abstract int execute();
+
+	/**
+	 * An expression, or a reference to read, that has not run yet
+	 */
+	static final class Uninitialized extends ExprNode {
+
+		// whether the expression is the condition of an if, while or for
+		private final boolean condition;
+
+		Uninitialized(AST expr, boolean condition) {
+			super(expr);
+			this.condition = condition;
+		}
+
+		int execute() {
+			return replace(condition ? NodeBuilder.condition((Expression) ast) : NodeBuilder.expression(ast)).execute();
+		}
+	}
+
+	/**
+	 * An expression of one operand
+	 */
+	abstract static class Unary extends ExprNode {
+
+		ExprNode operand;
+
+		Unary(AST ast, ExprNode operand) {
+			super(ast);
+			this.operand = adopt(operand);
+		}
+
+		void replaceChild(Node child, Node node) {
+			if (operand != child) {
+				super.replaceChild(child, node);
+			}
+			operand = (ExprNode) node;
+		}
+	}
+
+	/**
+	 * An expression of two operands, the left one on the stack while the right
+	 * one is evaluated
+	 */
+	abstract static class Binary extends ExprNode {
+
+		ExprNode left, right;
+
+		Binary(AST ast, ExprNode left, ExprNode right) {
+			super(ast);
+			this.left = adopt(left);
+			this.right = adopt(right);
+		}
+
+		void replaceChild(Node child, Node node) {
+			if (left == child) {
+				left = (ExprNode) node;
+			} else if (right == child) {
+				right = (ExprNode) node;
+			} else {
+				super.replaceChild(child, node);
+			}
+		}
+	}
+}
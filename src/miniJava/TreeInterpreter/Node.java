@@ -0,0 +1,146 @@
+package miniJava.TreeInterpreter;
+
+import static mJAM.Interpreter.failedDataStoreFull;
+import static mJAM.Interpreter.failedHeapRef;
+import static mJAM.Interpreter.failedNullRef;
+import static mJAM.Interpreter.failedOverflow;
+import static miniJava.TreeInterpreter.TreeInterpreter.HB;
+import static miniJava.TreeInterpreter.TreeInterpreter.HT;
+import static miniJava.TreeInterpreter.TreeInterpreter.ST;
+
+import mJAM.Machine;
+import miniJava.AbstractSyntaxTrees.AST;
+
+/**
+ * A node of the tree the TreeInterpreter runs, for the AST ast. Nodes start
+ * out uninitialized and replace themselves in their parent by a node that is
+ * specialized for what they turn out to be (see NodeBuilder), so each parent
+ * has to be able to swap a child for another one.
+ */
+abstract class Node {
+
+	final AST ast;
+	Node parent;
+
+	Node(AST ast) {
+		this.ast = ast;
+	}
+
+	/**
+	 * Makes this node the parent of child
+	 *
+	 * @return child
+	 */
+	final <T extends Node> T adopt(T child) {
+		if (child != null) {
+			child.parent = this;
+		}
+		return child;
+	}
+
+	/**
+	 * Puts node in the place of this node in the tree
+	 *
+	 * @return node
+	 */
+	final <T extends Node> T replace(T node) {
+		parent.replaceChild(this, node);
+		node.parent = parent;
+		return node;
+	}
+
+	/**
+	 * Puts node in the place of the child of this node
+	 */
+	void replaceChild(Node child, Node node) {
+		throw new IllegalStateException(this + " has no child " + child);
+	}
+
+	/**
+	 * Replaces child by node if it is one of nodes
+	 *
+	 * @return true if it is
+	 */
+	static boolean replaceIn(Node[] nodes, Node child, Node node) {
+		for (int i = 0; i < nodes.length; i++) {
+			if (nodes[i] == child) {
+				nodes[i] = node;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//
+	// CHECKS, as the mJAM machine makes them
+	//
+	/////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Stops the program with status at this node
+	 *
+	 * @return nothing, the exception that stops it is thrown
+	 */
+	final RuntimeException fail(int status) {
+		throw TreeInterpreter.fail(status, this);
+	}
+
+	/**
+	 * Fails if there are fewer than words words left between stack and heap
+	 */
+	final void checkSpace(int words) {
+		if (HT - ST < words) {
+			throw fail(failedDataStoreFull);
+		}
+	}
+
+	/**
+	 * Fails if addr is null or not an address in the heap
+	 */
+	final void checkHeapRef(int addr) {
+		if (addr == Machine.nullRep) {
+			throw fail(failedNullRef);
+		}
+		if (addr < HT + 2 || addr > HB) {
+			throw fail(failedHeapRef);
+		}
+	}
+
+	/**
+	 * Fails if value does not fit into a word
+	 */
+	final int overflowChecked(long value) {
+		if (value != (int) value) {
+			throw fail(failedOverflow);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Source line of the node, or of the closest enclosing node that has one
+	 */
+	int line() {
+		for (Node n = this; n != null; n = n.parent) {
+			if (n.ast != null && n.ast.position != null) {
+				return n.ast.position.line;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Method the node belongs to
+	 */
+	CallTarget method() {
+		Node n = this;
+		while (n.parent != null) {
+			n = n.parent;
+		}
+		return n instanceof CallTarget.Body ? ((CallTarget.Body) n).target : null;
+	}
+
+	public String toString() {
+		return getClass().getSimpleName();
+	}
+}
@@ -0,0 +1,508 @@
+package miniJava.TreeInterpreter;
+
+import mJAM.Machine;
+import miniJava.AbstractSyntaxTrees.AST;
+import miniJava.AbstractSyntaxTrees.ArrayType;
+import miniJava.AbstractSyntaxTrees.AssignStmt;
+import miniJava.AbstractSyntaxTrees.BaseType;
+import miniJava.AbstractSyntaxTrees.BinaryExpr;
+import miniJava.AbstractSyntaxTrees.BlockStmt;
+import miniJava.AbstractSyntaxTrees.BooleanLiteral;
+import miniJava.AbstractSyntaxTrees.CallExpr;
+import miniJava.AbstractSyntaxTrees.CallStmt;
+import miniJava.AbstractSyntaxTrees.ClassDecl;
+import miniJava.AbstractSyntaxTrees.ClassType;
+import miniJava.AbstractSyntaxTrees.Declaration;
+import miniJava.AbstractSyntaxTrees.ExprList;
+import miniJava.AbstractSyntaxTrees.Expression;
+import miniJava.AbstractSyntaxTrees.FieldDecl;
+import miniJava.AbstractSyntaxTrees.ForStmt;
+import miniJava.AbstractSyntaxTrees.IdRef;
+import miniJava.AbstractSyntaxTrees.Identifier;
+import miniJava.AbstractSyntaxTrees.IfStmt;
+import miniJava.AbstractSyntaxTrees.IntLiteral;
+import miniJava.AbstractSyntaxTrees.IxRef;
+import miniJava.AbstractSyntaxTrees.LiteralExpr;
+import miniJava.AbstractSyntaxTrees.MethodDecl;
+import miniJava.AbstractSyntaxTrees.NewArrayExpr;
+import miniJava.AbstractSyntaxTrees.NewObjectExpr;
+import miniJava.AbstractSyntaxTrees.NullLiteral;
+import miniJava.AbstractSyntaxTrees.Operator;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.AbstractSyntaxTrees.ParameterDecl;
+import miniJava.AbstractSyntaxTrees.QualRef;
+import miniJava.AbstractSyntaxTrees.RefExpr;
+import miniJava.AbstractSyntaxTrees.Reference;
+import miniJava.AbstractSyntaxTrees.ReturnStmt;
+import miniJava.AbstractSyntaxTrees.Statement;
+import miniJava.AbstractSyntaxTrees.ThisRef;
+import miniJava.AbstractSyntaxTrees.UnaryExpr;
+import miniJava.AbstractSyntaxTrees.VarDecl;
+import miniJava.AbstractSyntaxTrees.VarDeclStmt;
+import miniJava.AbstractSyntaxTrees.Visitor;
+import miniJava.AbstractSyntaxTrees.WhileStmt;
+import miniJava.CodeGenerator.KnownAddress;
+import miniJava.SyntacticAnalyzer.Token;
+
+/**
+ * Builds the specialized node an uninitialized node replaces itself by, from
+ * its AST and the KnownAddress of the declarations it refers to: the node for
+ * the code the CodeGenerator would emit for the AST. The children of the node
+ * are uninitialized, so that a part of the program only gets its nodes once it
+ * runs.
+ */
+final class NodeBuilder implements Visitor<Object, Node> {
+
+	private static final NodeBuilder builder = new NodeBuilder();
+
+	private NodeBuilder() {
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//
+	// DRIVER
+	//
+	/////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Node of an expression, or of a reference to read
+	 */
+	static ExprNode expression(AST expr) {
+		return (ExprNode) expr.visit(builder, null);
+	}
+
+	static StmtNode statement(Statement stmt) {
+		return (StmtNode) stmt.visit(builder, null);
+	}
+
+	/**
+	 * Node of the condition of an if, while or for. A comparison against an
+	 * integer literal does not push the literal, see
+	 * CodeGenerator.emitJumpIfFalse.
+	 */
+	static ExprNode condition(Expression cond) {
+		if (cond instanceof BinaryExpr) {
+			BinaryExpr b = (BinaryExpr) cond;
+			Integer value = intLiteral(b.right);
+			if (value != null) {
+				switch (b.operator.kind) {
+				case Token.LT:
+					return new Operators.LessLiteral(cond, lazy(b.left), value);
+				case Token.LTE:
+					return new Operators.LessEqualLiteral(cond, lazy(b.left), value);
+				case Token.GT:
+					return new Operators.GreaterLiteral(cond, lazy(b.left), value);
+				case Token.GTE:
+					return new Operators.GreaterEqualLiteral(cond, lazy(b.left), value);
+				case Token.EQ:
+					return new Operators.EqualLiteral(cond, lazy(b.left), value);
+				case Token.NEQ:
+					return new Operators.NotEqualLiteral(cond, lazy(b.left), value);
+				default:
+					break;
+				}
+			}
+		}
+		return expression(cond);
+	}
+
+	private static ExprNode lazy(AST expr) {
+		return new ExprNode.Uninitialized(expr, false);
+	}
+
+	private static ExprNode lazyCondition(Expression cond) {
+		return cond == null ? null : new ExprNode.Uninitialized(cond, true);
+	}
+
+	private static StmtNode lazy(Statement stmt) {
+		return stmt == null ? null : new StmtNode.Uninitialized(stmt);
+	}
+
+	private static ExprNode[] arguments(ExprList argList) {
+		ExprNode[] args = new ExprNode[argList.size()];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = lazy(argList.get(i));
+		}
+		return args;
+	}
+
+	private static int offset(Declaration d) {
+		return ((KnownAddress) d.entity).offset;
+	}
+
+	private static boolean isStaticField(Declaration d) {
+		return d instanceof FieldDecl && ((FieldDecl) d).isStatic;
+	}
+
+	/**
+	 * Value of an integer literal expression, or null if the expression is not
+	 * an integer literal.
+	 */
+	private static Integer intLiteral(Expression e) {
+		if (e instanceof LiteralExpr && ((LiteralExpr) e).lit.kind == Token.NUM) {
+			return Integer.parseInt(((LiteralExpr) e).lit.spelling);
+		}
+		return null;
+	}
+
+	/**
+	 * Whether r is System.out.println, with the same test as the CodeGenerator
+	 */
+	private static boolean isPrintln(Reference r) {
+		if (r instanceof QualRef) {
+			Reference outRef = ((QualRef) r).ref;
+
+			if (outRef instanceof QualRef && outRef.spelling.equals("out")) {
+				Reference sysRef = ((QualRef) outRef).ref;
+				return sysRef.spelling.equals("System") && sysRef.decl instanceof ClassDecl;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Node of a call of md through r, other than System.out.println
+	 */
+	private static ExprNode call(AST ast, Reference r, MethodDecl md, ExprNode[] args) {
+		CallTarget target = (CallTarget) md.entity;
+
+		// Ex: a()
+		if (r instanceof IdRef) {
+			if (md.isStatic) {
+				return new Calls.Static(ast, args, target);
+			}
+			return new Calls.OnThis(ast, args, target);
+		}
+
+		// Ex: a.b(), the object a is pushed after the arguments
+		if (md.isStatic) {
+			return new Calls.Static(ast, args, target);
+		}
+		return new Calls.Instance(ast, args, lazy(((QualRef) r).ref), target);
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//
+	// PACKAGE, DECLARATIONS AND TYPES, which have no nodes
+	//
+	/////////////////////////////////////////////////////////////////////////////
+
+	@Override
+	public Node visitPackage(Package prog, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Node visitClassDecl(ClassDecl cd, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Node visitFieldDecl(FieldDecl fd, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Node visitMethodDecl(MethodDecl md, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Node visitParameterDecl(ParameterDecl pd, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Node visitVarDecl(VarDecl decl, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Node visitBaseType(BaseType type, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Node visitClassType(ClassType type, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Node visitArrayType(ArrayType type, Object arg) {
+		return null;
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//
+	// STATEMENTS
+	//
+	/////////////////////////////////////////////////////////////////////////////
+
+	@Override
+	public Node visitBlockStmt(BlockStmt stmt, Object arg) {
+		StmtNode[] statements = new StmtNode[stmt.sl.size()];
+		int numVars = 0;
+		for (int i = 0; i < statements.length; i++) {
+			Statement s = stmt.sl.get(i);
+			if (s instanceof VarDeclStmt) {
+				numVars++;
+			}
+			statements[i] = lazy(s);
+		}
+		return new Statements.Block(stmt, statements, numVars);
+	}
+
+	@Override
+	public Node visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+		return new Statements.Push(stmt, lazy(stmt.initExp));
+	}
+
+	@Override
+	public Node visitAssignStmt(AssignStmt stmt, Object arg) {
+		Reference r = stmt.ref;
+		Declaration d = r.decl;
+		ExprNode value = lazy(stmt.val);
+
+		// IdRef
+		if (r instanceof IdRef) {
+			if (isStaticField(d)) {
+				return new Statements.AssignStatic(stmt, offset(d), value);
+			} else if (d instanceof FieldDecl) {
+				return new Statements.AssignThisField(stmt, offset(d), value);
+			}
+			return new Statements.AssignLocal(stmt, offset(d), value);
+		}
+
+		// IxRef
+		if (r instanceof IxRef) {
+			IxRef ix = (IxRef) r;
+			return new Statements.AssignElement(stmt, lazy(ix.ref), lazy(ix.indexExpr), value);
+		}
+
+		// QualRef, the length of an array is rejected by TreeInterpreter.decorate
+		QualRef q = (QualRef) r;
+		if (isStaticField(d)) {
+			return new Statements.AssignStatic(stmt, offset(q.id.decl), value);
+		}
+		return new Statements.AssignField(stmt, lazy(q.ref), offset(q.id.decl), value);
+	}
+
+	@Override
+	public Node visitCallStmt(CallStmt stmt, Object arg) {
+		Reference r = stmt.methodRef;
+		MethodDecl md = (MethodDecl) r.decl;
+		ExprNode[] args = arguments(stmt.argList);
+
+		// If it ends up not being the "real" System.out.println, it is called
+		if (md.name.equals("println") && isPrintln(r)) {
+			return new Statements.Evaluate(stmt, new Calls.Println(stmt, args));
+		}
+		return new Statements.Evaluate(stmt, call(stmt, r, md, args));
+	}
+
+	@Override
+	public Node visitReturnStmt(ReturnStmt stmt, Object arg) {
+		if (stmt.returnExpr != null) {
+			return new Statements.Push(stmt, lazy(stmt.returnExpr));
+		}
+		return new Statements.Evaluate(stmt, null);
+	}
+
+	@Override
+	public Node visitIfStmt(IfStmt stmt, Object arg) {
+		return new Statements.If(stmt, lazyCondition(stmt.cond), lazy(stmt.thenStmt), lazy(stmt.elseStmt));
+	}
+
+	@Override
+	public Node visitWhileStmt(WhileStmt stmt, Object arg) {
+		return new Statements.While(stmt, lazyCondition(stmt.cond), lazy(stmt.body));
+	}
+
+	@Override
+	public Node visitForStmt(ForStmt stmt, Object arg) {
+		return new Statements.For(stmt, lazy(stmt.init), lazyCondition(stmt.cond), lazy(stmt.update),
+				lazy(stmt.body));
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//
+	// EXPRESSIONS
+	//
+	/////////////////////////////////////////////////////////////////////////////
+
+	@Override
+	public Node visitUnaryExpr(UnaryExpr expr, Object arg) {
+		if (expr.operator == null) {
+			return expression(expr.expr);
+		}
+		switch (expr.operator.kind) {
+		case Token.MINUS:
+			return new Operators.Negate(expr, lazy(expr.expr));
+		case Token.NOT:
+			return new Operators.Not(expr, lazy(expr.expr));
+		default:
+			throw new IllegalStateException("Invalid unary operator at " + expr.operator.position + ".");
+		}
+	}
+
+	@Override
+	public Node visitBinaryExpr(BinaryExpr expr, Object arg) {
+		Operator o = expr.operator;
+		ExprNode left = lazy(expr.left);
+
+		// Adding or subtracting a literal takes a single instruction
+		Integer value = intLiteral(expr.right);
+		if (value != null && (o.kind == Token.ADD || o.kind == Token.MINUS)) {
+			return new Operators.AddLiteral(expr, left, o.kind == Token.ADD ? value : -value);
+		}
+
+		ExprNode right = lazy(expr.right);
+		switch (o.kind) {
+		case Token.AND:
+			return new Operators.And(expr, left, right);
+		case Token.OR:
+			return new Operators.Or(expr, left, right);
+		case Token.ADD:
+			return new Operators.Add(expr, left, right);
+		case Token.MINUS:
+			return new Operators.Subtract(expr, left, right);
+		case Token.MULT:
+			return new Operators.Multiply(expr, left, right);
+		case Token.DIV:
+			return new Operators.Divide(expr, left, right);
+		case Token.EQ:
+			return new Operators.Equal(expr, left, right);
+		case Token.NEQ:
+			return new Operators.NotEqual(expr, left, right);
+		case Token.GT:
+			return new Operators.Greater(expr, left, right);
+		case Token.GTE:
+			return new Operators.GreaterEqual(expr, left, right);
+		case Token.LT:
+			return new Operators.Less(expr, left, right);
+		case Token.LTE:
+			return new Operators.LessEqual(expr, left, right);
+		default:
+			throw new IllegalStateException("Invalid operator at " + o.position);
+		}
+	}
+
+	@Override
+	public Node visitRefExpr(RefExpr expr, Object arg) {
+		return expression(expr.ref);
+	}
+
+	@Override
+	public Node visitCallExpr(CallExpr expr, Object arg) {
+		Reference r = expr.functionRef;
+		MethodDecl md = (MethodDecl) r.decl;
+		ExprNode[] args = arguments(expr.argList);
+
+		// Println, or only its arguments if it is another method of that name
+		if (r instanceof QualRef && md.name.equals("println")) {
+			if (isPrintln(r)) {
+				return new Calls.Println(expr, args);
+			}
+			return new Calls.ArgumentsOnly(expr, args);
+		}
+		return call(expr, r, md, args);
+	}
+
+	@Override
+	public Node visitLiteralExpr(LiteralExpr expr, Object arg) {
+		switch (expr.lit.kind) {
+		case Token.NUM:
+			return new Operators.Literal(expr, Integer.parseInt(expr.lit.spelling));
+		case Token.TRUE:
+			return new Operators.Literal(expr, Machine.trueRep);
+		case Token.FALSE:
+			return new Operators.Literal(expr, Machine.falseRep);
+		case Token.NULL:
+			return new Operators.Literal(expr, Machine.nullRep);
+		default:
+			throw new IllegalStateException("Unrecognized literal expression at " + expr.position);
+		}
+	}
+
+	@Override
+	public Node visitNewObjectExpr(NewObjectExpr expr, Object arg) {
+		ClassDecl cd = (ClassDecl) expr.classtype.className.decl;
+		return new References.NewObject(expr, cd.fieldDeclList.size());
+	}
+
+	@Override
+	public Node visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+		return new References.NewArray(expr, lazy(expr.sizeExpr));
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//
+	// REFERENCES, read
+	//
+	/////////////////////////////////////////////////////////////////////////////
+
+	@Override
+	public Node visitThisRef(ThisRef ref, Object arg) {
+		return new References.This(ref);
+	}
+
+	@Override
+	public Node visitIdRef(IdRef ref, Object arg) {
+		Declaration d = ref.decl;
+		if (isStaticField(d)) {
+			return new References.Static(ref, offset(d));
+		} else if (d instanceof FieldDecl) {
+			return new References.ThisField(ref, offset(d));
+		}
+		return new References.Local(ref, offset(d));
+	}
+
+	@Override
+	public Node visitQRef(QualRef ref, Object arg) {
+		Declaration d = ref.id.decl;
+		if (d instanceof FieldDecl && ref.spelling.equals("length")) {
+			return new References.Length(ref, lazy(ref.ref));
+		} else if (isStaticField(d)) {
+			return new References.Static(ref, offset(d));
+		} else if (d instanceof FieldDecl) {
+			return new References.Field(ref, lazy(ref.ref), offset(d));
+		}
+		throw new IllegalStateException("Invalid declaration in qualified reference at " + ref.position);
+	}
+
+	@Override
+	public Node visitIxRef(IxRef ref, Object arg) {
+		return new References.Element(ref, lazy(ref.ref), lazy(ref.indexExpr));
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//
+	// TERMINALS
+	//
+	/////////////////////////////////////////////////////////////////////////////
+
+	@Override
+	public Node visitIdentifier(Identifier id, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Node visitOperator(Operator op, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Node visitIntLiteral(IntLiteral num, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Node visitBooleanLiteral(BooleanLiteral bool, Object arg) {
+		return null;
+	}
+
+	@Override
+	public Node visitNullLiteral(NullLiteral nul, Object arg) {
+		return null;
+	}
+}
@@ -0,0 +1,367 @@
+package miniJava.TreeInterpreter;
+
+import static mJAM.Interpreter.failedZeroDivide;
+import static miniJava.TreeInterpreter.TreeInterpreter.ST;
+import static miniJava.TreeInterpreter.TreeInterpreter.data;
+
+import miniJava.AbstractSyntaxTrees.AST;
+
+/**
+ * Nodes of literals and operators. Arithmetic fails on overflow as the mJAM
+ * primitives do, and booleans are the words 0 and 1.
+ */
+final class Operators {
+
+	private Operators() {
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//
+	// LITERALS AND UNARY OPERATORS
+	//
+	/////////////////////////////////////////////////////////////////////////////
+
+	// LOADL
+	static final class Literal extends ExprNode {
+
+		private final int value;
+
+		Literal(AST ast, int value) {
+			super(ast);
+			this.value = value;
+		}
+
+		int execute() {
+			checkSpace(1);
+			return value;
+		}
+	}
+
+	// NEG
+	static final class Negate extends ExprNode.Unary {
+
+		Negate(AST ast, ExprNode operand) {
+			super(ast, operand);
+		}
+
+		int execute() {
+			return overflowChecked(-(long) operand.execute());
+		}
+	}
+
+	// NOT
+	static final class Not extends ExprNode.Unary {
+
+		Not(AST ast, ExprNode operand) {
+			super(ast, operand);
+		}
+
+		int execute() {
+			return operand.execute() == 1 ? 0 : 1;
+		}
+	}
+
+	// ADDL, for adding or subtracting a literal
+	static final class AddLiteral extends ExprNode.Unary {
+
+		private final int value;
+
+		AddLiteral(AST ast, ExprNode operand, int value) {
+			super(ast, operand);
+			this.value = value;
+		}
+
+		int execute() {
+			return overflowChecked((long) operand.execute() + value);
+		}
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//
+	// BINARY OPERATORS
+	//
+	/////////////////////////////////////////////////////////////////////////////
+
+	static final class Add extends ExprNode.Binary {
+
+		Add(AST ast, ExprNode left, ExprNode right) {
+			super(ast, left, right);
+		}
+
+		int execute() {
+			int l = left.execute();
+			data[ST++] = l;
+			int r = right.execute();
+			ST--;
+			return overflowChecked((long) l + r);
+		}
+	}
+
+	static final class Subtract extends ExprNode.Binary {
+
+		Subtract(AST ast, ExprNode left, ExprNode right) {
+			super(ast, left, right);
+		}
+
+		int execute() {
+			int l = left.execute();
+			data[ST++] = l;
+			int r = right.execute();
+			ST--;
+			return overflowChecked((long) l - r);
+		}
+	}
+
+	static final class Multiply extends ExprNode.Binary {
+
+		Multiply(AST ast, ExprNode left, ExprNode right) {
+			super(ast, left, right);
+		}
+
+		int execute() {
+			int l = left.execute();
+			data[ST++] = l;
+			int r = right.execute();
+			ST--;
+			return overflowChecked((long) l * r);
+		}
+	}
+
+	static final class Divide extends ExprNode.Binary {
+
+		Divide(AST ast, ExprNode left, ExprNode right) {
+			super(ast, left, right);
+		}
+
+		int execute() {
+			int l = left.execute();
+			data[ST++] = l;
+			int r = right.execute();
+			ST--;
+			if (r == 0) {
+				throw fail(failedZeroDivide);
+			}
+			return (int) ((long) l / r);
+		}
+	}
+
+	static final class Less extends ExprNode.Binary {
+
+		Less(AST ast, ExprNode left, ExprNode right) {
+			super(ast, left, right);
+		}
+
+		int execute() {
+			int l = left.execute();
+			data[ST++] = l;
+			int r = right.execute();
+			ST--;
+			return l < r ? 1 : 0;
+		}
+	}
+
+	static final class LessEqual extends ExprNode.Binary {
+
+		LessEqual(AST ast, ExprNode left, ExprNode right) {
+			super(ast, left, right);
+		}
+
+		int execute() {
+			int l = left.execute();
+			data[ST++] = l;
+			int r = right.execute();
+			ST--;
+			return l <= r ? 1 : 0;
+		}
+	}
+
+	static final class Greater extends ExprNode.Binary {
+
+		Greater(AST ast, ExprNode left, ExprNode right) {
+			super(ast, left, right);
+		}
+
+		int execute() {
+			int l = left.execute();
+			data[ST++] = l;
+			int r = right.execute();
+			ST--;
+			return l > r ? 1 : 0;
+		}
+	}
+
+	static final class GreaterEqual extends ExprNode.Binary {
+
+		GreaterEqual(AST ast, ExprNode left, ExprNode right) {
+			super(ast, left, right);
+		}
+
+		int execute() {
+			int l = left.execute();
+			data[ST++] = l;
+			int r = right.execute();
+			ST--;
+			return l >= r ? 1 : 0;
+		}
+	}
+
+	static final class Equal extends ExprNode.Binary {
+
+		Equal(AST ast, ExprNode left, ExprNode right) {
+			super(ast, left, right);
+		}
+
+		int execute() {
+			int l = left.execute();
+			data[ST++] = l;
+			int r = right.execute();
+			ST--;
+			return l == r ? 1 : 0;
+		}
+	}
+
+	static final class NotEqual extends ExprNode.Binary {
+
+		NotEqual(AST ast, ExprNode left, ExprNode right) {
+			super(ast, left, right);
+		}
+
+		int execute() {
+			int l = left.execute();
+			data[ST++] = l;
+			int r = right.execute();
+			ST--;
+			return l != r ? 1 : 0;
+		}
+	}
+
+	// Left operand, JUMPIF 0 to push 0, else push 1, right operand and AND
+	static final class And extends ExprNode.Binary {
+
+		And(AST ast, ExprNode left, ExprNode right) {
+			super(ast, left, right);
+		}
+
+		int execute() {
+			if (left.execute() == 0) {
+				return 0;
+			}
+			data[ST++] = 1;
+			int r = right.execute();
+			ST--;
+			return r == 1 ? 1 : 0;
+		}
+	}
+
+	// Left operand, JUMPIF 1 to push 1, else push 0, right operand and OR
+	static final class Or extends ExprNode.Binary {
+
+		Or(AST ast, ExprNode left, ExprNode right) {
+			super(ast, left, right);
+		}
+
+		int execute() {
+			if (left.execute() == 1) {
+				return 1;
+			}
+			data[ST++] = 0;
+			int r = right.execute();
+			ST--;
+			return r == 1 ? 1 : 0;
+		}
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//
+	// CONDITIONS
+	//
+	/////////////////////////////////////////////////////////////////////////////
+
+	// Comparisons against an integer literal in a condition, which the
+	// CodeGenerator emits as one compare-literal-and-branch instruction, so
+	// that the literal is never pushed
+
+	static final class LessLiteral extends ExprNode.Unary {
+
+		private final int value;
+
+		LessLiteral(AST ast, ExprNode operand, int value) {
+			super(ast, operand);
+			this.value = value;
+		}
+
+		int execute() {
+			return operand.execute() < value ? 1 : 0;
+		}
+	}
+
+	static final class LessEqualLiteral extends ExprNode.Unary {
+
+		private final int value;
+
+		LessEqualLiteral(AST ast, ExprNode operand, int value) {
+			super(ast, operand);
+			this.value = value;
+		}
+
+		int execute() {
+			return operand.execute() <= value ? 1 : 0;
+		}
+	}
+
+	static final class GreaterLiteral extends ExprNode.Unary {
+
+		private final int value;
+
+		GreaterLiteral(AST ast, ExprNode operand, int value) {
+			super(ast, operand);
+			this.value = value;
+		}
+
+		int execute() {
+			return operand.execute() > value ? 1 : 0;
+		}
+	}
+
+	static final class GreaterEqualLiteral extends ExprNode.Unary {
+
+		private final int value;
+
+		GreaterEqualLiteral(AST ast, ExprNode operand, int value) {
+			super(ast, operand);
+			this.value = value;
+		}
+
+		int execute() {
+			return operand.execute() >= value ? 1 : 0;
+		}
+	}
+
+	static final class EqualLiteral extends ExprNode.Unary {
+
+		private final int value;
+
+		EqualLiteral(AST ast, ExprNode operand, int value) {
+			super(ast, operand);
+			this.value = value;
+		}
+
+		int execute() {
+			return operand.execute() == value ? 1 : 0;
+		}
+	}
+
+	static final class NotEqualLiteral extends ExprNode.Unary {
+
+		private final int value;
+
+		NotEqualLiteral(AST ast, ExprNode operand, int value) {
+			super(ast, operand);
+			this.value = value;
+		}
+
+		int execute() {
+			return operand.execute() != value ? 1 : 0;
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package miniJava.TreeInterpreter;
+
+import static mJAM.Interpreter.failedArrayIndex;
+import static mJAM.Interpreter.failedDataStoreFull;
+import static mJAM.Interpreter.failedFieldIndex;
+import static mJAM.Interpreter.failedHeapRef;
+import static mJAM.Interpreter.failedNullRef;
+import static miniJava.TreeInterpreter.TreeInterpreter.HB;
+import static miniJava.TreeInterpreter.TreeInterpreter.HT;
+import static miniJava.TreeInterpreter.TreeInterpreter.LB;
+import static miniJava.TreeInterpreter.TreeInterpreter.OB;
+import static miniJava.TreeInterpreter.TreeInterpreter.ST;
+import static miniJava.TreeInterpreter.TreeInterpreter.data;
+
+import java.util.Arrays;
+
+import mJAM.Machine;
+import miniJava.AbstractSyntaxTrees.AST;
+
+/**
+ * Nodes that read variables, fields and array elements, at the offsets of
+ * their KnownAddress, and that allocate objects and arrays
+ */
+final class References {
+
+	private References() {
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//
+	// VARIABLES
+	//
+	/////////////////////////////////////////////////////////////////////////////
+
+	// LOAD LB, a parameter or local variable
+	static final class Local extends ExprNode {
+
+		private final int offset;
+
+		Local(AST ast, int offset) {
+			super(ast);
+			this.offset = offset;
+		}
+
+		int execute() {
+			checkSpace(1);
+			return data[LB + offset];
+		}
+	}
+
+	// LOAD SB, a static field (SB is 0)
+	static final class Static extends ExprNode {
+
+		private final int offset;
+
+		Static(AST ast, int offset) {
+			super(ast);
+			this.offset = offset;
+		}
+
+		int execute() {
+			checkSpace(1);
+			return data[offset];
+		}
+	}
+
+	// LOAD OB, a field of this, not checked
+	static final class ThisField extends ExprNode {
+
+		private final int offset;
+
+		ThisField(AST ast, int offset) {
+			super(ast);
+			this.offset = offset;
+		}
+
+		int execute() {
+			checkSpace(1);
+			return data[OB + offset];
+		}
+	}
+
+	// LOADA OB 0
+	static final class This extends ExprNode {
+
+		This(AST ast) {
+			super(ast);
+		}
+
+		int execute() {
+			checkSpace(1);
+			return OB;
+		}
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//
+	// OBJECTS AND ARRAYS
+	//
+	/////////////////////////////////////////////////////////////////////////////
+
+	// FIELDREFL
+	static final class Field extends ExprNode.Unary {
+
+		private final int offset;
+
+		Field(AST ast, ExprNode object, int offset) {
+			super(ast, object);
+			this.offset = offset;
+		}
+
+		int execute() {
+			int addr = operand.execute();
+			checkHeapRef(addr);
+			if (offset >= data[addr - 1]) {
+				throw fail(failedFieldIndex);
+			}
+			return data[addr + offset];
+		}
+	}
+
+	// ARRAYLEN
+	static final class Length extends ExprNode.Unary {
+
+		Length(AST ast, ExprNode array) {
+			super(ast, array);
+		}
+
+		int execute() {
+			int addr = operand.execute();
+			if (addr == Machine.nullRep) {
+				throw fail(failedNullRef);
+			}
+			if (addr < HT + 2 || addr > HB || data[addr - 2] != -2) {
+				throw fail(failedHeapRef);
+			}
+			return data[addr - 1];
+		}
+	}
+
+	// ARRAYREF
+	static final class Element extends ExprNode.Binary {
+
+		Element(AST ast, ExprNode array, ExprNode index) {
+			super(ast, array, index);
+		}
+
+		int execute() {
+			int addr = left.execute();
+			data[ST++] = addr;
+			int index = right.execute();
+			ST--;
+			checkHeapRef(addr);
+			if (data[addr - 2] != -2 || index < 0 || index >= data[addr - 1]) {
+				throw fail(failedArrayIndex);
+			}
+			return data[addr + index];
+		}
+	}
+
+	// LOADL -1, LOADL fields, newobj
+	static final class NewObject extends ExprNode {
+
+		private final int fields;
+
+		NewObject(AST ast, int fields) {
+			super(ast);
+			this.fields = fields;
+		}
+
+		int execute() {
+			int size = fields + 2;
+			if (HT - ST - 2 < size) {
+				throw fail(failedDataStoreFull);
+			}
+			HT = HT - size;
+			data[HT] = -1;
+			data[HT + 1] = fields;
+			Arrays.fill(data, HT + 2, HT + size, 0);
+			return HT + 2;
+		}
+	}
+
+	// newarr. A negative length is not checked, as in mJAM.
+	static final class NewArray extends ExprNode.Unary {
+
+		NewArray(AST ast, ExprNode length) {
+			super(ast, length);
+		}
+
+		int execute() {
+			int size = operand.execute() + 2;
+			if (HT - ST - 1 < size) {
+				throw fail(failedDataStoreFull);
+			}
+			HT = HT - size;
+			data[HT] = -2;
+			data[HT + 1] = size - 2;
+			if (size > 2) {
+				Arrays.fill(data, HT + 2, HT + size, 0);
+			}
+			return HT + 2;
+		}
+	}
+
+	/**
+	 * Checks for FIELDUPDL, which the assignment to a field of an object makes
+	 */
+	static void checkFieldUpdate(Node node, int addr, int offset) {
+		node.checkHeapRef(addr);
+		if (offset >= data[addr - 1]) {
+			throw node.fail(failedFieldIndex);
+		}
+	}
+
+	/**
+	 * Checks for ARRAYUPD, which the assignment to an array element makes
+	 */
+	static void checkElementUpdate(Node node, int addr, int index) {
+		node.checkHeapRef(addr);
+		if (data[addr - 2] != -2 || index < 0 || index >= data[addr - 1]) {
+			throw node.fail(failedArrayIndex);
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package miniJava.TreeInterpreter;
+
+import static miniJava.TreeInterpreter.TreeInterpreter.LB;
+import static miniJava.TreeInterpreter.TreeInterpreter.OB;
+import static miniJava.TreeInterpreter.TreeInterpreter.ST;
+import static miniJava.TreeInterpreter.TreeInterpreter.data;
+
+import miniJava.AbstractSyntaxTrees.AST;
+
+/**
+ * Nodes of statements. As in the code the CodeGenerator emits, a variable
+ * declaration pushes the variable, a block pops the variables declared in it,
+ * and a return statement pushes its value for the RETURN at the end of the
+ * method, without leaving the method.
+ */
+final class Statements {
+
+	private Statements() {
+	}
+
+	static final class Block extends StmtNode {
+
+		private final StmtNode[] statements;
+		private final int variables;
+
+		Block(AST ast, StmtNode[] statements, int variables) {
+			super(ast);
+			this.statements = statements;
+			this.variables = variables;
+			for (StmtNode s : statements) {
+				adopt(s);
+			}
+		}
+
+		void execute() {
+			for (int i = 0; i < statements.length; i++) {
+				statements[i].execute();
+			}
+			ST = ST - variables;
+		}
+
+		void replaceChild(Node child, Node node) {
+			if (!replaceIn(statements, child, node)) {
+				super.replaceChild(child, node);
+			}
+		}
+	}
+
+	// A variable declaration, or a return statement with a value: pushes it
+	static final class Push extends StmtNode {
+
+		private ExprNode value;
+
+		Push(AST ast, ExprNode value) {
+			super(ast);
+			this.value = adopt(value);
+		}
+
+		void execute() {
+			int v = value.execute();
+			data[ST++] = v;
+		}
+
+		void replaceChild(Node child, Node node) {
+			if (value != child) {
+				super.replaceChild(child, node);
+			}
+			value = (ExprNode) node;
+		}
+	}
+
+	// A return statement without a value, or a call statement: runs the call,
+	// whose result, if any, the CodeGenerator pops
+	static final class Evaluate extends StmtNode {
+
+		private ExprNode expr;
+
+		Evaluate(AST ast, ExprNode expr) {
+			super(ast);
+			this.expr = adopt(expr);
+		}
+
+		void execute() {
+			if (expr != null) {
+				expr.execute();
+			}
+		}
+
+		void replaceChild(Node child, Node node) {
+			if (expr != child) {
+				super.replaceChild(child, node);
+			}
+			expr = (ExprNode) node;
+		}
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//
+	// ASSIGNMENTS
+	//
+	/////////////////////////////////////////////////////////////////////////////
+
+	abstract static class Assign extends StmtNode {
+
+		ExprNode value;
+
+		Assign(AST ast, ExprNode value) {
+			super(ast);
+			this.value = adopt(value);
+		}
+
+		void replaceChild(Node child, Node node) {
+			if (value != child) {
+				super.replaceChild(child, node);
+			}
+			value = (ExprNode) node;
+		}
+	}
+
+	// STORE LB
+	static final class AssignLocal extends Assign {
+
+		private final int offset;
+
+		AssignLocal(AST ast, int offset, ExprNode value) {
+			super(ast, value);
+			this.offset = offset;
+		}
+
+		void execute() {
+			int v = value.execute();
+			data[LB + offset] = v;
+		}
+	}
+
+	// STORE SB
+	static final class AssignStatic extends Assign {
+
+		private final int offset;
+
+		AssignStatic(AST ast, int offset, ExprNode value) {
+			super(ast, value);
+			this.offset = offset;
+		}
+
+		void execute() {
+			int v = value.execute();
+			data[offset] = v;
+		}
+	}
+
+	// STORE OB
+	static final class AssignThisField extends Assign {
+
+		private final int offset;
+
+		AssignThisField(AST ast, int offset, ExprNode value) {
+			super(ast, value);
+			this.offset = offset;
+		}
+
+		void execute() {
+			int v = value.execute();
+			data[OB + offset] = v;
+		}
+	}
+
+	// FIELDUPDL
+	static final class AssignField extends Assign {
+
+		private ExprNode object;
+		private final int offset;
+
+		AssignField(AST ast, ExprNode object, int offset, ExprNode value) {
+			super(ast, value);
+			this.object = adopt(object);
+			this.offset = offset;
+		}
+
+		void execute() {
+			int addr = object.execute();
+			data[ST++] = addr;
+			int v = value.execute();
+			ST--;
+			References.checkFieldUpdate(this, addr, offset);
+			data[addr + offset] = v;
+		}
+
+		void replaceChild(Node child, Node node) {
+			if (object == child) {
+				object = (ExprNode) node;
+			} else {
+				super.replaceChild(child, node);
+			}
+		}
+	}
+
+	// ARRAYUPD
+	static final class AssignElement extends Assign {
+
+		private ExprNode array, index;
+
+		AssignElement(AST ast, ExprNode array, ExprNode index, ExprNode value) {
+			super(ast, value);
+			this.array = adopt(array);
+			this.index = adopt(index);
+		}
+
+		void execute() {
+			int addr = array.execute();
+			data[ST++] = addr;
+			int i = index.execute();
+			data[ST++] = i;
+			int v = value.execute();
+			ST = ST - 2;
+			References.checkElementUpdate(this, addr, i);
+			data[addr + i] = v;
+		}
+
+		void replaceChild(Node child, Node node) {
+			if (array == child) {
+				array = (ExprNode) node;
+			} else if (index == child) {
+				index = (ExprNode) node;
+			} else {
+				super.replaceChild(child, node);
+			}
+		}
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//
+	// CONTROL
+	//
+	/////////////////////////////////////////////////////////////////////////////
+
+	// Conditions are true unless 0, as JUMPIF 0 has them
+
+	static final class If extends StmtNode {
+
+		private ExprNode cond;
+		private StmtNode thenStmt, elseStmt;
+
+		If(AST ast, ExprNode cond, StmtNode thenStmt, StmtNode elseStmt) {
+			super(ast);
+			this.cond = adopt(cond);
+			this.thenStmt = adopt(thenStmt);
+			this.elseStmt = adopt(elseStmt);
+		}
+
+		void execute() {
+			if (cond.execute() != 0) {
+				thenStmt.execute();
+			} else if (elseStmt != null) {
+				elseStmt.execute();
+			}
+		}
+
+		void replaceChild(Node child, Node node) {
+			if (cond == child) {
+				cond = (ExprNode) node;
+			} else if (thenStmt == child) {
+				thenStmt = (StmtNode) node;
+			} else if (elseStmt == child) {
+				elseStmt = (StmtNode) node;
+			} else {
+				super.replaceChild(child, node);
+			}
+		}
+	}
+
+	static final class While extends StmtNode {
+
+		private ExprNode cond;
+		private StmtNode body;
+
+		While(AST ast, ExprNode cond, StmtNode body) {
+			super(ast);
+			this.cond = adopt(cond);
+			this.body = adopt(body);
+		}
+
+		void execute() {
+			while (cond.execute() != 0) {
+				body.execute();
+			}
+		}
+
+		void replaceChild(Node child, Node node) {
+			if (cond == child) {
+				cond = (ExprNode) node;
+			} else if (body == child) {
+				body = (StmtNode) node;
+			} else {
+				super.replaceChild(child, node);
+			}
+		}
+	}
+
+	static final class For extends StmtNode {
+
+		private StmtNode init, update, body;
+		private ExprNode cond;
+
+		For(AST ast, StmtNode init, ExprNode cond, StmtNode update, StmtNode body) {
+			super(ast);
+			this.init = adopt(init);
+			this.cond = adopt(cond);
+			this.update = adopt(update);
+			this.body = adopt(body);
+		}
+
+		void execute() {
+			if (init != null) {
+				init.execute();
+			}
+			while (cond == null || cond.execute() != 0) {
+				body.execute();
+				if (update != null) {
+					update.execute();
+				}
+			}
+		}
+
+		void replaceChild(Node child, Node node) {
+			if (init == child) {
+				init = (StmtNode) node;
+			} else if (cond == child) {
+				cond = (ExprNode) node;
+			} else if (update == child) {
+				update = (StmtNode) node;
+			} else if (body == child) {
+				body = (StmtNode) node;
+			} else {
+				super.replaceChild(child, node);
+			}
+		}
+	}
+}
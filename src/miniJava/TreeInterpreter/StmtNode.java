@@ -0,0 +1,33 @@
+package miniJava.TreeInterpreter;
+
+import miniJava.AbstractSyntaxTrees.AST;
+import miniJava.AbstractSyntaxTrees.Statement;
+
+/**
+ * Node of a statement
+ */
+abstract class StmtNode extends Node {
+
+	StmtNode(AST ast) {
+		super(ast);
+	}
+
+	/**
+	 * Runs the statement, with the stack as the code generated for it has it
+	 */
+	abstract void execute();
+
+	/**
+	 * A statement that has not run yet
+	 */
+	static final class Uninitialized extends StmtNode {
+
+		Uninitialized(Statement stmt) {
+			super(stmt);
+		}
+
+		void execute() {
+			replace(NodeBuilder.statement((Statement) ast)).execute();
+		}
+	}
+}
@@ -0,0 +1,308 @@
+package miniJava.TreeInterpreter;
+
+import static mJAM.Interpreter.failedDataStoreFull;
+import static mJAM.Interpreter.halted;
+import static mJAM.Interpreter.running;
+
+import mJAM.Machine;
+import mJAM.VirtualMachine;
+import miniJava.ErrorReporter;
+import miniJava.AbstractSyntaxTrees.AST;
+import miniJava.AbstractSyntaxTrees.ArrayType;
+import miniJava.AbstractSyntaxTrees.AssignStmt;
+import miniJava.AbstractSyntaxTrees.BlockStmt;
+import miniJava.AbstractSyntaxTrees.ClassDecl;
+import miniJava.AbstractSyntaxTrees.ClassType;
+import miniJava.AbstractSyntaxTrees.FieldDecl;
+import miniJava.AbstractSyntaxTrees.ForStmt;
+import miniJava.AbstractSyntaxTrees.IfStmt;
+import miniJava.AbstractSyntaxTrees.MethodDecl;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.AbstractSyntaxTrees.ParameterDecl;
+import miniJava.AbstractSyntaxTrees.QualRef;
+import miniJava.AbstractSyntaxTrees.Statement;
+import miniJava.AbstractSyntaxTrees.TypeDenoter;
+import miniJava.AbstractSyntaxTrees.TypeKind;
+import miniJava.AbstractSyntaxTrees.VarDeclStmt;
+import miniJava.AbstractSyntaxTrees.WhileStmt;
+import miniJava.CodeGenerator.KnownAddress;
+
+/**
+ * Runs a checked miniJava program from its AST, without generating code, e.g.
+ *
+ *     java miniJava.Compiler -run test.java
+ *
+ * The program runs on the nodes NodeBuilder builds for it as they are first
+ * executed, each one specialized for what its AST turned out to be: a local
+ * variable or a field, a literal operand, a static or an instance call. The
+ * nodes keep a data store as the code the CodeGenerator would generate keeps
+ * it, with the same stack, frames and heap, and make the checks mJAM makes,
+ * so a program prints and fails as it does on mJAM. A failure is reported
+ * with its source line rather than the state of the data store.
+ *
+ * The heap is not collected, as with mJAM run without -gc.
+ */
+public class TreeInterpreter {
+
+	// DATA STORE AND REGISTERS, as in mJAM: the stack grows up from SB = 0 and
+	// the heap down from HB
+	static int[] data;
+	static int ST, HT, HB, LB, OB;
+
+	// status of the run, one of those of mJAM.Interpreter, and the node it
+	// failed at, if any
+	private static int status;
+	private static Node failedAt;
+
+	// thrown to stop the program, without a stack trace
+	private static final Failure failure = new Failure();
+
+	// output not yet written
+	private static final StringBuilder output = new StringBuilder();
+	private final static int outputBlock = 8192;
+
+	// Java stack of the thread the program runs on, per word of the data
+	// store, as calls nest in the Java stack, within what a thread can get
+	private final static long stackPerWord = 256;
+	private final static long minStackSize = 1L << 26, maxStackSize = 1L << 31;
+
+	private ErrorReporter reporter;
+	private int dataStoreSize;
+	private boolean foundMain;
+	private MethodDecl main;
+	private int staticFields;
+	private int frameOffset;
+	private boolean nestedTooDeeply;
+
+	public TreeInterpreter(ErrorReporter reporter, int dataStoreSize) {
+		this.reporter = reporter;
+		this.dataStoreSize = dataStoreSize;
+		this.foundMain = false;
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//
+	// DRIVER
+	//
+	/////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Runs the program, and writes its output and how it ended
+	 */
+	public void run(AST prog) {
+		decorate((Package) prog);
+
+		data = new int[dataStoreSize];
+		HB = dataStoreSize;
+		HT = HB;
+		ST = 0;
+		LB = 0;
+		OB = -1;
+		status = running;
+		failedAt = null;
+
+		Thread thread = new Thread(null, this::execute, "miniJava",
+				Math.min(maxStackSize, Math.max(minStackSize, stackPerWord * dataStoreSize)));
+		thread.start();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		showStatus();
+	}
+
+	/**
+	 * Whether the last run halted normally
+	 */
+	public boolean halted() {
+		return status == halted;
+	}
+
+	private void execute() {
+		try {
+
+			// Load static variables, call main
+			if (HT - ST < staticFields) {
+				throw fail(failedDataStoreFull, null);
+			}
+			ST = ST + staticFields;
+			((CallTarget) main.entity).call(Machine.nullRep, null);
+			status = halted;
+
+		} catch (Failure f) {
+		} catch (StackOverflowError e) {
+			nestedTooDeeply = true;
+		}
+	}
+
+	private void showStatus() {
+		flush();
+		System.out.println("");
+		if (nestedTooDeeply) {
+			System.out.println("*** Program has failed due to calls nested too deeply for -run, run it on mJAM.");
+			return;
+		}
+		System.out.println("*** " + VirtualMachine.statusMessage(status));
+		if (status != halted && failedAt != null) {
+			System.out.println("At line " + failedAt.line() + ", in " + failedAt.method() + ".");
+		}
+	}
+
+	/**
+	 * Stops the program with status at the node at
+	 *
+	 * @return nothing, the exception that stops it is thrown
+	 */
+	static RuntimeException fail(int status, Node at) {
+		TreeInterpreter.status = status;
+		failedAt = at;
+		throw failure;
+	}
+
+	/**
+	 * Writes value as putintnl does
+	 */
+	static void println(int value) {
+		output.append(">>> ").append(value).append('\n');
+		if (output.length() >= outputBlock) {
+			flush();
+		}
+	}
+
+	private static void flush() {
+		System.out.print(output);
+		System.out.flush();
+		output.setLength(0);
+	}
+
+	private void error(String message) {
+		reporter.reportError("*** " + message);
+		throw new Error();
+	}
+
+	private static final class Failure extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		Failure() {
+			super(null, null, false, false);
+		}
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//
+	// DECORATION, with the addresses the CodeGenerator gives declarations
+	//
+	/////////////////////////////////////////////////////////////////////////////
+
+	private void decorate(Package prog) {
+
+		// Static variables
+		for (ClassDecl cd : prog.classDeclList) {
+			for (FieldDecl fd : cd.fieldDeclList) {
+				if (fd.isStatic) {
+					fd.entity = new KnownAddress(Machine.characterSize, staticFields);
+					staticFields++;
+				}
+			}
+		}
+
+		// Instance fields
+		for (ClassDecl cd : prog.classDeclList) {
+			int fieldOffset = 0;
+			for (FieldDecl fd : cd.fieldDeclList) {
+				if (!fd.isStatic) {
+					fd.entity = new KnownAddress(Machine.characterSize, fieldOffset);
+				}
+				fieldOffset++;
+			}
+		}
+
+		// Methods
+		for (ClassDecl cd : prog.classDeclList) {
+			for (MethodDecl md : cd.methodDeclList) {
+				decorate(cd, md);
+			}
+		}
+
+		if (!foundMain) {
+			error("A miniJava program must contain a public static void main method.");
+		}
+	}
+
+	private void decorate(ClassDecl cd, MethodDecl md) {
+		md.entity = new CallTarget(cd, md);
+
+		// Check for main method, the last one is called
+		if (md.name.equals("main")) {
+			if (foundMain) {
+				error("A miniJava program can only contain one main method.");
+			}
+			if (!md.isPrivate && md.isStatic && md.type.typeKind == TypeKind.VOID
+					&& md.parameterDeclList.size() == 1) {
+				TypeDenoter argType = md.parameterDeclList.get(0).type;
+				if (argType instanceof ArrayType) {
+					TypeDenoter eltType = ((ArrayType) argType).eltType;
+					if (eltType instanceof ClassType && ((ClassType) eltType).className.spelling.equals("String")) {
+						foundMain = true;
+					}
+				}
+			}
+			main = md;
+		}
+
+		// Parameters
+		int paramOffset = -1 * md.parameterDeclList.size();
+		for (ParameterDecl pd : md.parameterDeclList) {
+			pd.entity = new KnownAddress(Machine.addressSize, paramOffset);
+			paramOffset++;
+		}
+
+		// Local variables, after the link data
+		frameOffset = Machine.linkDataSize;
+		for (Statement s : md.statementList) {
+			decorate(s);
+		}
+	}
+
+	private void decorate(Statement s) {
+		if (s instanceof BlockStmt) {
+			int numVars = 0;
+			for (Statement t : ((BlockStmt) s).sl) {
+				if (t instanceof VarDeclStmt) {
+					numVars++;
+				}
+				decorate(t);
+			}
+			frameOffset -= numVars;
+		} else if (s instanceof VarDeclStmt) {
+			((VarDeclStmt) s).varDecl.entity = new KnownAddress(Machine.characterSize, frameOffset);
+			frameOffset++;
+		} else if (s instanceof IfStmt) {
+			IfStmt stmt = (IfStmt) s;
+			decorate(stmt.thenStmt);
+			if (stmt.elseStmt != null) {
+				decorate(stmt.elseStmt);
+			}
+		} else if (s instanceof WhileStmt) {
+			decorate(((WhileStmt) s).body);
+		} else if (s instanceof ForStmt) {
+			ForStmt stmt = (ForStmt) s;
+			if (stmt.init != null) {
+				decorate(stmt.init);
+			}
+			decorate(stmt.body);
+			if (stmt.update != null) {
+				decorate(stmt.update);
+			}
+		} else if (s instanceof AssignStmt && ((AssignStmt) s).ref instanceof QualRef) {
+			QualRef ref = (QualRef) ((AssignStmt) s).ref;
+			boolean isStatic = ref.decl instanceof FieldDecl && ((FieldDecl) ref.decl).isStatic;
+			if (!isStatic && ref.id.decl instanceof FieldDecl && ref.spelling.equals("length")) {
+				error("Cannot assign value to read-only length field of array at " + ref.position);
+			}
+		}
+	}
+}